@@ -0,0 +1,28 @@
+-- Миграция для создания истории досок (только добавление)
+-- FULL — полный снимок доски, DELTA — изменения с предыдущей записи; данные в формате BoardSnapshotCodec
+
+CREATE TABLE IF NOT EXISTS board_history (
+    id BIGSERIAL PRIMARY KEY,
+    lesson_id BIGINT NOT NULL,
+    board_version BIGINT NOT NULL,
+    kind VARCHAR(8) NOT NULL,
+    data BYTEA NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (lesson_id) REFERENCES lessons(id) ON DELETE CASCADE
+);
+
+-- Индекс для восстановления доски на момент времени и воспроизведения урока
+CREATE INDEX IF NOT EXISTS idx_board_history_lesson ON board_history(lesson_id, board_version);
+
+-- Индекс для ночного прореживания старых записей
+CREATE INDEX IF NOT EXISTS idx_board_history_created ON board_history(created_at);
+
+-- Данные уже сжаты — не даём TOAST сжимать их повторно
+ALTER TABLE board_history ALTER COLUMN data SET STORAGE EXTERNAL;
+
+COMMENT ON TABLE board_history IS 'История досок: полные снимки и дельты, прореживается по политике хранения';
+COMMENT ON COLUMN board_history.board_version IS 'Версия доски на момент записи';
+COMMENT ON COLUMN board_history.kind IS 'FULL или DELTA';
+COMMENT ON COLUMN board_history.data IS 'Сжатый JSON {elements, appState}';
+
+-- Дубликаты board_states больше не накапливаются: лишние записи удаляются при загрузке доски
@@ -0,0 +1,23 @@
+-- Миграция для создания журнала операций доски
+-- Клиент присылает только изменённые элементы, компактор сворачивает их в board_states
+
+CREATE TABLE IF NOT EXISTS board_operations (
+    id BIGSERIAL PRIMARY KEY,
+    lesson_id BIGINT NOT NULL,
+    op_type VARCHAR(16) NOT NULL,
+    element_id VARCHAR(64),
+    element_version BIGINT,
+    payload TEXT,
+    author_id BIGINT,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (lesson_id) REFERENCES lessons(id) ON DELETE CASCADE
+);
+
+-- Индекс для выборки журнала урока в порядке записи
+CREATE INDEX IF NOT EXISTS idx_board_ops_lesson ON board_operations(lesson_id, id);
+
+COMMENT ON TABLE board_operations IS 'Журнал поэлементных изменений доски до компакции в board_states';
+COMMENT ON COLUMN board_operations.op_type IS 'UPSERT, DELETE или APP_STATE';
+COMMENT ON COLUMN board_operations.element_id IS 'ID элемента доски';
+COMMENT ON COLUMN board_operations.element_version IS 'Версия элемента на клиенте';
+COMMENT ON COLUMN board_operations.payload IS 'JSON элемента или appState (NULL для DELETE)';
@@ -0,0 +1,19 @@
+-- Миграция board_states на сжатый снимок доски
+-- JSON доски хранится gzip-сжатым в BYTEA (см. BoardSnapshotCodec) вместо двух TEXT-колонок
+
+-- Шаг 1: новая колонка (приложение пишет в неё при каждой записи доски
+-- и фоново переводит старые записи, очищая board_data/board_content)
+ALTER TABLE board_states ADD COLUMN IF NOT EXISTS snapshot BYTEA;
+
+-- Снимок уже сжат — не даём TOAST сжимать его повторно
+ALTER TABLE board_states ALTER COLUMN snapshot SET STORAGE EXTERNAL;
+
+COMMENT ON COLUMN board_states.snapshot IS 'Сжатый снимок доски: сигнатура BS, версия формата, gzip(JSON)';
+
+-- Шаг 2: проверить, что все записи переведены (должно вернуть 0)
+-- SELECT COUNT(*) FROM board_states WHERE snapshot IS NULL;
+
+-- Шаг 3: после проверки удалить дублирующие текстовые колонки
+-- (и поля boardData/boardContent из сущности BoardState)
+-- ALTER TABLE board_states DROP COLUMN board_content;
+-- ALTER TABLE board_states DROP COLUMN board_data;
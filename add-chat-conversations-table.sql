@@ -0,0 +1,42 @@
+-- Миграция для создания сводок переписок (только добавление)
+-- Одна строка на пару пользователей (user_low_id < user_high_id): последнее сообщение
+-- и счётчики непрочитанных для каждой стороны. Обновляется при отправке и прочтении сообщений.
+
+CREATE TABLE IF NOT EXISTS chat_conversations (
+    id BIGSERIAL PRIMARY KEY,
+    user_low_id BIGINT NOT NULL,
+    user_high_id BIGINT NOT NULL,
+    last_message_id BIGINT NOT NULL,
+    last_message_at TIMESTAMP NOT NULL,
+    last_message_preview VARCHAR(255),
+    unread_low INTEGER NOT NULL DEFAULT 0,
+    unread_high INTEGER NOT NULL DEFAULT 0,
+    CONSTRAINT uk_chat_conversation_pair UNIQUE (user_low_id, user_high_id),
+    FOREIGN KEY (user_low_id) REFERENCES users(id) ON DELETE CASCADE,
+    FOREIGN KEY (user_high_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+-- Индексы для выборки переписок пользователя (контакты, общий счётчик, загрузка поддержки)
+CREATE INDEX IF NOT EXISTS idx_chat_conversation_low ON chat_conversations(user_low_id);
+CREATE INDEX IF NOT EXISTS idx_chat_conversation_high ON chat_conversations(user_high_id);
+
+-- Заполнение по существующим сообщениям (то же делает приложение при первом запуске с пустой таблицей)
+INSERT INTO chat_conversations (user_low_id, user_high_id, last_message_id, last_message_at,
+                                last_message_preview, unread_low, unread_high)
+SELECT DISTINCT ON (t.low_id, t.high_id) t.low_id, t.high_id, t.id, t.created_at, t.preview,
+       t.unread_low, t.unread_high
+FROM (SELECT LEAST(m.sender_id, m.receiver_id) AS low_id, GREATEST(m.sender_id, m.receiver_id) AS high_id,
+             m.id, m.created_at,
+             CASE WHEN m.file_name IS NOT NULL THEN LEFT('📎 ' || m.file_name, 200)
+                  ELSE LEFT(m.content, 200) END AS preview,
+             COUNT(*) FILTER (WHERE m.is_read = false AND m.receiver_id < m.sender_id) OVER p AS unread_low,
+             COUNT(*) FILTER (WHERE m.is_read = false AND m.receiver_id > m.sender_id) OVER p AS unread_high
+      FROM chat_messages m
+      WHERE m.sender_id <> m.receiver_id
+      WINDOW p AS (PARTITION BY LEAST(m.sender_id, m.receiver_id), GREATEST(m.sender_id, m.receiver_id))) t
+ORDER BY t.low_id, t.high_id, t.created_at DESC, t.id DESC
+ON CONFLICT (user_low_id, user_high_id) DO NOTHING;
+
+COMMENT ON TABLE chat_conversations IS 'Сводки переписок: последнее сообщение и непрочитанные для каждой стороны';
+COMMENT ON COLUMN chat_conversations.unread_low IS 'Непрочитанные сообщения, адресованные user_low_id';
+COMMENT ON COLUMN chat_conversations.unread_high IS 'Непрочитанные сообщения, адресованные user_high_id';
@@ -0,0 +1,13 @@
+-- Миграция для переноса вложений чата из БД в файловое хранилище (только добавление)
+-- Новые вложения пишутся в app.chat.attachment-dir, в строке сообщения остаются метаданные и ключ (SHA-256)
+
+ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS file_key VARCHAR(64);
+
+COMMENT ON COLUMN chat_messages.file_key IS 'Ключ вложения в хранилище (SHA-256 содержимого)';
+
+-- Старые вложения (file_data — large object) переносит фоновая задача ChatService.migrateLegacyAttachments:
+-- содержимое пишется в хранилище, file_data обнуляется, large object удаляется.
+-- Осталось перенести:
+--   SELECT COUNT(*) FROM chat_messages WHERE file_data IS NOT NULL AND file_key IS NULL;
+-- Когда перенесено всё, колонку можно удалить:
+--   ALTER TABLE chat_messages DROP COLUMN file_data;
@@ -0,0 +1,96 @@
+-- Перевод chat_messages на помесячное секционирование по created_at.
+-- Выполняется один раз в окно обслуживания при остановленном приложении, после
+-- add-chat-pair-time-index.sql, add-chat-search-vector.sql и add-chat-read-watermarks.sql.
+-- Таблица пересоздаётся секционированной, строки копируются, старая таблица остаётся
+-- как chat_messages_unpartitioned до проверки. Дальнейшие секции создаёт, а старые
+-- переносит в архив ChatPartitionService.
+-- Первичный ключ секционированной таблицы обязан включать ключ секционирования: (id, created_at).
+
+BEGIN;
+
+ALTER TABLE chat_messages RENAME TO chat_messages_unpartitioned;
+
+-- Имена индексов общие для схемы — освобождаем их для новой таблицы
+ALTER INDEX IF EXISTS chat_messages_pkey RENAME TO chat_messages_unpartitioned_pkey;
+ALTER INDEX IF EXISTS idx_chat_sender RENAME TO idx_chat_sender_unpartitioned;
+ALTER INDEX IF EXISTS idx_chat_receiver RENAME TO idx_chat_receiver_unpartitioned;
+ALTER INDEX IF EXISTS idx_chat_created RENAME TO idx_chat_created_unpartitioned;
+ALTER INDEX IF EXISTS idx_chat_direction_id RENAME TO idx_chat_direction_id_unpartitioned;
+ALTER INDEX IF EXISTS idx_chat_pair_time RENAME TO idx_chat_pair_time_unpartitioned;
+ALTER INDEX IF EXISTS idx_chat_search RENAME TO idx_chat_search_unpartitioned;
+
+CREATE TABLE chat_messages (
+    LIKE chat_messages_unpartitioned INCLUDING DEFAULTS INCLUDING GENERATED INCLUDING IDENTITY
+) PARTITION BY RANGE (created_at);
+
+ALTER TABLE chat_messages ADD CONSTRAINT chat_messages_pkey PRIMARY KEY (id, created_at);
+ALTER TABLE chat_messages ADD FOREIGN KEY (sender_id) REFERENCES users(id);
+ALTER TABLE chat_messages ADD FOREIGN KEY (receiver_id) REFERENCES users(id);
+
+-- Нумерация ID продолжается со старой таблицы
+DO $$
+DECLARE
+    next_id BIGINT;
+BEGIN
+    SELECT COALESCE(MAX(id), 0) + 1 INTO next_id FROM chat_messages_unpartitioned;
+    IF EXISTS (SELECT 1 FROM information_schema.columns
+               WHERE table_schema = current_schema() AND table_name = 'chat_messages'
+                 AND column_name = 'id' AND is_identity = 'YES') THEN
+        EXECUTE format('ALTER TABLE chat_messages ALTER COLUMN id RESTART WITH %s', next_id);
+    ELSE
+        -- BIGSERIAL: последовательность принадлежала старой таблице и удалилась бы вместе с ней
+        EXECUTE format('ALTER SEQUENCE %s OWNED BY chat_messages.id',
+                       pg_get_serial_sequence('chat_messages_unpartitioned', 'id'));
+    END IF;
+END $$;
+
+-- Секции с месяца первого сообщения и на три месяца вперёд
+DO $$
+DECLARE
+    month DATE;
+    last_month DATE := (date_trunc('month', now()) + INTERVAL '3 months')::date;
+BEGIN
+    SELECT COALESCE(date_trunc('month', MIN(created_at)), date_trunc('month', now()))::date
+    INTO month FROM chat_messages_unpartitioned;
+    WHILE month <= last_month LOOP
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF chat_messages FOR VALUES FROM (%L) TO (%L)',
+                       'chat_messages_p' || to_char(month, 'YYYYMM'), month, (month + INTERVAL '1 month')::date);
+        month := (month + INTERVAL '1 month')::date;
+    END LOOP;
+END $$;
+
+-- Страховка: если задача не успела создать секцию, запись не падает
+CREATE TABLE IF NOT EXISTS chat_messages_default PARTITION OF chat_messages DEFAULT;
+
+-- Копирование строк (вычисляемая search_vector пересчитывается сама)
+DO $$
+DECLARE
+    cols TEXT;
+BEGIN
+    SELECT string_agg(quote_ident(column_name), ', ' ORDER BY ordinal_position) INTO cols
+    FROM information_schema.columns
+    WHERE table_schema = current_schema() AND table_name = 'chat_messages_unpartitioned'
+      AND is_generated = 'NEVER';
+    EXECUTE format('INSERT INTO chat_messages (%s) OVERRIDING SYSTEM VALUE SELECT %s FROM chat_messages_unpartitioned',
+                   cols, cols);
+END $$;
+
+-- Индексы на секционированной таблице создаются в каждой секции
+CREATE INDEX idx_chat_sender ON chat_messages (sender_id);
+CREATE INDEX idx_chat_receiver ON chat_messages (receiver_id);
+CREATE INDEX idx_chat_created ON chat_messages (created_at);
+CREATE INDEX idx_chat_direction_id ON chat_messages (sender_id, receiver_id, id);
+CREATE INDEX idx_chat_pair_time ON chat_messages (
+    LEAST(sender_id, receiver_id),
+    GREATEST(sender_id, receiver_id),
+    created_at,
+    id
+);
+CREATE INDEX idx_chat_search ON chat_messages USING GIN (search_vector);
+
+COMMIT;
+
+ANALYZE chat_messages;
+
+-- После проверки работы приложения:
+-- DROP TABLE chat_messages_unpartitioned;
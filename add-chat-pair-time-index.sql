@@ -0,0 +1,10 @@
+-- Индекс для постраничной истории чата (только добавление)
+-- Переписка двух пользователей — одна упорядоченная пара независимо от направления сообщения,
+-- поэтому страница "последние N" и "старше курсора (created_at, id)" читается одним проходом по индексу.
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_pair_time ON chat_messages (
+    LEAST(sender_id, receiver_id),
+    GREATEST(sender_id, receiver_id),
+    created_at,
+    id
+);
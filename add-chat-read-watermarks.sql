@@ -0,0 +1,20 @@
+-- Миграция для отметок прочтения в сводках переписок (только добавление)
+-- read_low_id / read_high_id — ID последнего сообщения переписки, которое видела сторона.
+-- Прочтение пишется одной строкой на переписку вместо UPDATE по каждому сообщению.
+
+ALTER TABLE chat_conversations ADD COLUMN IF NOT EXISTS read_low_id BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE chat_conversations ADD COLUMN IF NOT EXISTS read_high_id BIGINT NOT NULL DEFAULT 0;
+
+-- Начальные отметки по флагам is_read существующих сообщений
+UPDATE chat_conversations c SET
+    read_low_id = COALESCE((SELECT MAX(m.id) FROM chat_messages m
+                            WHERE m.sender_id = c.user_high_id AND m.receiver_id = c.user_low_id
+                              AND m.is_read = true), 0),
+    read_high_id = COALESCE((SELECT MAX(m.id) FROM chat_messages m
+                             WHERE m.sender_id = c.user_low_id AND m.receiver_id = c.user_high_id
+                               AND m.is_read = true), 0);
+
+-- Подсчёт непрочитанных между старой и новой отметкой идёт по (отправитель, получатель, id);
+-- индекс заменяет прежний idx_chat_pair (sender_id, receiver_id)
+CREATE INDEX IF NOT EXISTS idx_chat_direction_id ON chat_messages(sender_id, receiver_id, id);
+DROP INDEX IF EXISTS idx_chat_pair;
@@ -0,0 +1,13 @@
+-- Миграция для полнотекстового поиска по чату (только добавление)
+-- search_vector вычисляется самой БД из текста сообщения и имени вложения (русская морфология),
+-- поэтому приложение её не пишет и не читает при загрузке сообщений.
+
+ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS search_vector tsvector
+    GENERATED ALWAYS AS (
+        to_tsvector('russian', COALESCE(content, '') || ' ' || COALESCE(file_name, ''))
+    ) STORED;
+
+-- GIN-индекс: поиск не сканирует таблицу; отбор по собеседникам — через idx_chat_sender/idx_chat_receiver
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_search ON chat_messages USING GIN (search_vector);
+
+COMMENT ON COLUMN chat_messages.search_vector IS 'Поисковый вектор (content + file_name), конфигурация russian';
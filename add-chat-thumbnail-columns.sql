@@ -0,0 +1,10 @@
+-- Миграция для уменьшенных копий изображений чата (только добавление)
+-- Копия хранится в хранилище вложений; thumb_key = file_key означает, что показывается оригинал
+
+ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS thumb_key VARCHAR(64);
+ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS thumb_width INTEGER;
+ALTER TABLE chat_messages ADD COLUMN IF NOT EXISTS thumb_height INTEGER;
+
+COMMENT ON COLUMN chat_messages.thumb_key IS 'Ключ уменьшенной копии изображения в хранилище вложений';
+
+-- Копии для уже загруженных изображений строит фоновая задача ChatService.backfillThumbnails
@@ -0,0 +1,121 @@
+package com.example.brainify.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Обезличивает выгрузку доски перед тем, как положить её в src/jmh/resources/boards/.
+ *
+ * Геометрия, число точек, версии и «надгробия» сохраняются — от них зависит стоимость
+ * разбора, слияния и сжатия. Текст заменяется заглушкой той же длины (буквы — x, цифры — 7),
+ * ссылки на хранилище — хешем ключа, встроенные изображения — псевдослучайным base64
+ * той же длины, ID урока в ссылках — единицей.
+ *
+ * Запуск: java -cp ... com.example.brainify.benchmarks.BoardFixtureAnonymizer export.json board-lesson.json
+ * (export.json — поле boardData ответа GET /whiteboard/api/state/{lessonId} или board_data из board_states)
+ */
+public final class BoardFixtureAnonymizer {
+
+    private static final String IMAGE_URL_PREFIX = "/whiteboard/api/image/";
+    private static final String BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private BoardFixtureAnonymizer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Использование: BoardFixtureAnonymizer <выгрузка.json> <board-имя.json>");
+            System.exit(1);
+        }
+        JsonNode board = BoardFixtures.MAPPER.readTree(Files.readString(Path.of(args[0]), StandardCharsets.UTF_8));
+        if (!board.isObject()) {
+            throw new IllegalArgumentException("Ожидался объект доски с полем elements");
+        }
+        Files.writeString(Path.of(args[1]), BoardFixtures.toJson(anonymize((ObjectNode) board)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Обезличивает документ доски на месте
+     */
+    public static ObjectNode anonymize(ObjectNode board) {
+        for (JsonNode element : board.path("elements")) {
+            if (element.isObject()) {
+                anonymizeElement((ObjectNode) element);
+            }
+        }
+        JsonNode appState = board.path("appState");
+        if (appState.isObject()) {
+            // В состоянии вида оставляем только масштаб, прокрутку и фон
+            ((ObjectNode) appState).retain("viewBackgroundColor", "zoom", "scrollX", "scrollY");
+        }
+        return board;
+    }
+
+    private static void anonymizeElement(ObjectNode element) {
+        Iterator<Map.Entry<String, JsonNode>> fields = element.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getValue().isTextual()) {
+                continue;
+            }
+            String name = field.getKey();
+            String value = field.getValue().asText();
+            if (name.equals("text")) {
+                element.put(name, placeholder(value));
+            } else if (name.equals("src")) {
+                element.put(name, imageSource(value));
+            } else if (!name.equals("type") && !name.equals("id") && !name.endsWith("Color")) {
+                // Прочие строковые поля (имена, подписи) — тоже заглушкой
+                element.put(name, placeholder(value));
+            }
+        }
+    }
+
+    private static String placeholder(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            result.append(Character.isLetter(c) ? 'x' : Character.isDigit(c) ? '7' : c);
+        }
+        return result.toString();
+    }
+
+    private static String imageSource(String src) {
+        int comma = src.indexOf(',');
+        if (src.startsWith("data:") && comma > 0) {
+            StringBuilder result = new StringBuilder(src.length()).append(src, 0, comma + 1);
+            long seed = src.hashCode();
+            for (int i = comma + 1; i < src.length(); i++) {
+                seed = seed * 6364136223846793005L + 1442695040888963407L;
+                result.append(src.charAt(i) == '=' ? '=' : BASE64_ALPHABET.charAt((int) (seed >>> 58)));
+            }
+            return result.toString();
+        }
+        if (src.startsWith(IMAGE_URL_PREFIX)) {
+            int dot = src.lastIndexOf('.');
+            String extension = dot > src.lastIndexOf('/') ? src.substring(dot) : "";
+            return IMAGE_URL_PREFIX + "1/" + hash(src) + extension;
+        }
+        return IMAGE_URL_PREFIX + "1/" + hash(src);
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.brainify.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Документы доски для бенчмарков.
+ *
+ * Выгрузки досок лежат в src/jmh/resources/boards/ и загружаются {@link #captured}.
+ * board-lesson-synthetic.json — доска урока с рукописным решением, фигурами, текстом,
+ * изображениями и стёртыми элементами, собранная по форме элементов whiteboard.js:
+ * это не снимок настоящего урока. Настоящая выгрузка, обезличенная BoardFixtureAnonymizer,
+ * кладётся рядом как board-lesson.json.
+ * Если там же лежит board-&lt;elements&gt;.json, {@link #board} берёт его. Иначе документ
+ * генерируется с той же структурой, что пишет whiteboard.js: штрихи path с точками, фигуры,
+ * текст и изображения (URL хранилища или встроенный base64, как на старых досках).
+ */
+public final class BoardFixtures {
+
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Доля изображений среди элементов и размер встроенного base64 (~48 КБ)
+    private static final double IMAGE_SHARE = 0.01;
+    private static final int EMBEDDED_IMAGE_BYTES = 36 * 1024;
+
+    private BoardFixtures() {
+    }
+
+    /**
+     * Документ доски из elements элементов
+     * @param embeddedImages true — изображения встроены как data URL, false — ссылки на хранилище
+     */
+    public static ObjectNode board(int elements, boolean embeddedImages) {
+        ObjectNode captured = loadCaptured(elements, embeddedImages);
+        if (captured != null) {
+            return captured;
+        }
+
+        Random random = new Random(elements * 31L + (embeddedImages ? 1 : 0));
+        ObjectNode board = MAPPER.createObjectNode();
+        ArrayNode array = board.putArray("elements");
+        for (int i = 0; i < elements; i++) {
+            array.add(element(random, i, embeddedImages));
+        }
+        ObjectNode appState = board.putObject("appState");
+        appState.put("viewBackgroundColor", "#ffffff");
+        appState.put("zoom", 1.0);
+        appState.put("scrollX", 0);
+        appState.put("scrollY", 0);
+        return board;
+    }
+
+    /**
+     * Выгрузка доски src/jmh/resources/boards/board-&lt;name&gt;.json
+     * @throws IllegalArgumentException если такой выгрузки нет
+     */
+    public static ObjectNode captured(String name) {
+        ObjectNode board = load("/boards/board-" + name + ".json");
+        if (board == null) {
+            throw new IllegalArgumentException("Нет выгрузки доски board-" + name + ".json");
+        }
+        return board;
+    }
+
+    /**
+     * Элемент с заданным номером; version задаёт версию элемента для слияния
+     */
+    public static ObjectNode element(Random random, int index, boolean embeddedImages) {
+        ObjectNode element = MAPPER.createObjectNode();
+        // Как на клиенте: id = Date.now() + Math.random()
+        element.put("id", 1_700_000_000_000.0 + index + random.nextDouble());
+        element.put("timestamp", 1_700_000_000_000L + index);
+        element.put("version", 1 + random.nextInt(5));
+        element.put("versionNonce", random.nextInt(Integer.MAX_VALUE));
+        element.put("strokeColor", "#1e1e1e");
+        element.put("strokeWidth", 2);
+
+        double kind = random.nextDouble();
+        if (kind < IMAGE_SHARE) {
+            element.put("type", "image");
+            position(element, random);
+            element.put("src", embeddedImages
+                    ? "data:image/jpeg;base64," + randomBase64(random, EMBEDDED_IMAGE_BYTES)
+                    : "/whiteboard/api/image/1/" + Long.toHexString(random.nextLong()) + ".jpg");
+        } else if (kind < 0.75) {
+            // Штрих пером — самый частый элемент: 20–120 точек после упрощения
+            element.put("type", "path");
+            ArrayNode points = element.putArray("points");
+            double x = random.nextDouble() * 2000;
+            double y = random.nextDouble() * 1500;
+            int count = 20 + random.nextInt(100);
+            for (int p = 0; p < count; p++) {
+                x += random.nextGaussian() * 4;
+                y += random.nextGaussian() * 4;
+                ObjectNode point = points.addObject();
+                point.put("x", Math.round(x * 10) / 10.0);
+                point.put("y", Math.round(y * 10) / 10.0);
+            }
+        } else if (kind < 0.9) {
+            element.put("type", random.nextBoolean() ? "rectangle" : "ellipse");
+            position(element, random);
+            element.put("fillColor", "#ffffff");
+        } else {
+            element.put("type", "text");
+            position(element, random);
+            element.put("text", "Задача " + index + ": найдите x, если 2x + 3 = " + random.nextInt(100));
+        }
+        return element;
+    }
+
+    public static String toJson(ObjectNode node) {
+        try {
+            return MAPPER.writeValueAsString(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void position(ObjectNode element, Random random) {
+        element.put("x", random.nextInt(2000));
+        element.put("y", random.nextInt(1500));
+        element.put("width", 50 + random.nextInt(400));
+        element.put("height", 50 + random.nextInt(300));
+    }
+
+    private static String randomBase64(Random random, int bytes) {
+        byte[] data = new byte[bytes];
+        random.nextBytes(data);
+        return Base64.getEncoder().encodeToString(data);
+    }
+
+    private static ObjectNode loadCaptured(int elements, boolean embeddedImages) {
+        return load("/boards/board-" + elements + (embeddedImages ? "-embedded" : "") + ".json");
+    }
+
+    private static ObjectNode load(String name) {
+        try (InputStream in = BoardFixtures.class.getResourceAsStream(name)) {
+            if (in == null) {
+                return null;
+            }
+            return (ObjectNode) MAPPER.readTree(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать " + name, e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.brainify.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор и сериализация JSON доски — то, что происходит на каждом
+ * сохранении целого документа и на каждой отдаче /api/state
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BoardJsonBenchmark {
+
+    @Param({"100", "1000", "5000", "20000"})
+    int elements;
+
+    @Param({"false", "true"})
+    boolean embeddedImages;
+
+    private String json;
+    private ObjectNode tree;
+
+    @Setup
+    public void setUp() {
+        tree = BoardFixtures.board(elements, embeddedImages);
+        json = BoardFixtures.toJson(tree);
+    }
+
+    @Benchmark
+    public JsonNode parse() throws IOException {
+        return BoardFixtures.MAPPER.readTree(json);
+    }
+
+    @Benchmark
+    public String serialize() throws IOException {
+        return BoardFixtures.MAPPER.writeValueAsString(tree);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.brainify.benchmarks;
+
+import com.example.brainify.Service.LiveBoard;
+import com.example.brainify.Utils.BoardSnapshotCodec;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сжатый снимок доски (board_states.snapshot): запись при сбросе доски
+ * и загрузка доски в память при первом обращении к уроку.
+ * Размеры JSON и снимка выводятся вспомогательными счётчиками encode (jsonBytes, snapshotBytes).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BoardSnapshotBenchmark {
+
+    @Param({"100", "1000", "5000", "20000"})
+    int elements;
+
+    @Param({"false", "true"})
+    boolean embeddedImages;
+
+    /**
+     * Размеры документа в байтах: JMH выводит их рядом со временем encode
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Sizes {
+        public long jsonBytes;
+        public long snapshotBytes;
+    }
+
+    private String json;
+    private int jsonBytes;
+    private byte[] snapshot;
+
+    @Setup
+    public void setUp() {
+        json = BoardFixtures.toJson(BoardFixtures.board(elements, embeddedImages));
+        jsonBytes = json.getBytes(StandardCharsets.UTF_8).length;
+        snapshot = BoardSnapshotCodec.encode(json);
+    }
+
+    @Benchmark
+    public byte[] encode(Sizes sizes) {
+        byte[] encoded = BoardSnapshotCodec.encode(json);
+        sizes.jsonBytes = jsonBytes;
+        sizes.snapshotBytes = encoded.length;
+        return encoded;
+    }
+
+    @Benchmark
+    public String decode() {
+        return BoardSnapshotCodec.decode(snapshot);
+    }
+
+    /**
+     * Загрузка доски как в WhiteboardService.loadLiveBoard: распаковка, разбор, сборка LiveBoard
+     */
+    @Benchmark
+    public LiveBoard load() throws IOException {
+        ObjectNode board = (ObjectNode) BoardFixtures.MAPPER.readTree(BoardSnapshotCodec.decode(snapshot));
+        return new LiveBoard(1L, 1L, board, 1L, BoardFixtures.MAPPER);
+    }
+}
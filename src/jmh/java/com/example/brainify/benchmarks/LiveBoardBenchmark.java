@@ -0,0 +1,135 @@
+package com.example.brainify.benchmarks;
+
+import com.example.brainify.Model.BoardOperation;
+import com.example.brainify.Service.LiveBoard;
+import com.example.brainify.Utils.BoardSnapshotCodec;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Горячий путь доски в реальном времени: слияние присланного документа,
+ * применение операций из журнала, выборка изменений для рассылки,
+ * цикл отложенной записи и запись истории.
+ * В каждом шаге меняется CHANGED элементов — типичный размер одного сохранения.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LiveBoardBenchmark {
+
+    private static final int CHANGED = 10;
+
+    @Param({"100", "1000", "5000", "20000"})
+    int elements;
+
+    private LiveBoard board;
+    private ObjectNode clientDocument;
+    private ArrayNode clientElements;
+    private final int[] changedIndexes = new int[CHANGED];
+    private final ObjectNode[] changedTemplates = new ObjectNode[CHANGED];
+    private final String[] changedKeys = new String[CHANGED];
+    private final String[] payloadPrefixes = new String[CHANGED];
+    private long nextVersion = 1_000;
+
+    @Setup
+    public void setUp() {
+        ObjectNode document = BoardFixtures.board(elements, false);
+        board = new LiveBoard(1L, 1L, document.deepCopy(), 1L, BoardFixtures.MAPPER);
+
+        clientDocument = document;
+        clientElements = (ArrayNode) document.get("elements");
+        Random random = new Random(elements);
+        for (int i = 0; i < CHANGED; i++) {
+            int index = random.nextInt(clientElements.size());
+            ObjectNode template = ((ObjectNode) clientElements.get(index)).deepCopy();
+            template.remove("version");
+            String json = BoardFixtures.toJson(template);
+
+            changedIndexes[i] = index;
+            changedTemplates[i] = template;
+            changedKeys[i] = template.get("id").asText();
+            // Версия дописывается последним полем: prefix + version + "}"
+            payloadPrefixes[i] = json.substring(0, json.length() - 1) + ",\"version\":";
+        }
+
+        // Доска уже менялась после загрузки, а первая (полная) запись истории сделана
+        applyOperations();
+        board.takeHistoryRecord(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Сохранение целого документа (POST /api/state)
+     */
+    @Benchmark
+    public LiveBoard.MergeResult mergeDocument() {
+        long version = ++nextVersion;
+        for (int i = 0; i < CHANGED; i++) {
+            ObjectNode element = changedTemplates[i].deepCopy();
+            element.put("version", version);
+            clientElements.set(changedIndexes[i], element);
+        }
+        return board.mergeDocument(clientDocument);
+    }
+
+    /**
+     * Инкрементальное сохранение (POST /api/ops): операции из журнала
+     */
+    @Benchmark
+    public Set<String> applyOperations() {
+        long version = ++nextVersion;
+        List<BoardOperation> operations = new ArrayList<>(CHANGED);
+        for (int i = 0; i < CHANGED; i++) {
+            operations.add(new BoardOperation(1L, BoardOperation.OpType.UPSERT, changedKeys[i], version,
+                    payloadPrefixes[i] + version + "}"));
+        }
+        return board.apply(operations);
+    }
+
+    /**
+     * Изменения последнего коммита для рассылки по STOMP
+     */
+    @Benchmark
+    public List<JsonNode> changesSince() {
+        return board.changesSince(board.getVersion() - 1, Collections.emptySet()).getElements();
+    }
+
+    /**
+     * Цикл отложенной записи: изменения, снимок, сжатие
+     */
+    @Benchmark
+    public byte[] flushCycle() {
+        applyOperations();
+        return BoardSnapshotCodec.encode(board.takeSnapshot().getBoardData());
+    }
+
+    /**
+     * Запись истории: изменения и дельта с предыдущей записи
+     */
+    @Benchmark
+    public LiveBoard.HistoryRecord historyDelta() {
+        applyOperations();
+        return board.takeHistoryRecord(Integer.MAX_VALUE);
+    }
+}
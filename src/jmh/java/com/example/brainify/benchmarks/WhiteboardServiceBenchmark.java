@@ -0,0 +1,156 @@
+package com.example.brainify.benchmarks;
+
+import com.example.brainify.Model.BoardState;
+import com.example.brainify.Model.Lesson;
+import com.example.brainify.Repository.BoardOperationRepository;
+import com.example.brainify.Repository.BoardStateRepository;
+import com.example.brainify.Repository.LessonRepository;
+import com.example.brainify.Service.BoardHistoryService;
+import com.example.brainify.Service.LiveBoard;
+import com.example.brainify.Service.WhiteboardService;
+import com.example.brainify.Utils.BoardSnapshotCodec;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * WhiteboardService целиком: POST /api/state (разбор, слияние, рассылка изменений,
+ * сжатый снимок и запись) и загрузка доски в память при первом обращении к уроку.
+ * Репозитории и брокер заменены заглушками в памяти, так что в замер не входит
+ * только сама БД. board = lesson-synthetic — доска урока, собранная по форме элементов
+ * whiteboard.js (не снята с настоящего урока); число — документ из BoardFixtures.board.
+ * Обезличенная выгрузка настоящей доски кладётся как board-lesson.json и запускается
+ * с -p board=lesson.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WhiteboardServiceBenchmark {
+
+    private static final Long LESSON_ID = 1L;
+    private static final int CHANGED = 10;
+    // Версия-метка, по которой JSON клиента режется на части вокруг изменённых элементов
+    private static final long VERSION_MARK = 987_654_321L;
+
+    @Param({"lesson-synthetic", "1000", "5000"})
+    String board;
+
+    private WhiteboardService service;
+    private Map<Long, LiveBoard> liveBoards;
+    private String[] payloadParts;
+    private long nextVersion = 1_000;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        ObjectNode document = board.startsWith("lesson")
+                ? BoardFixtures.captured(board)
+                : BoardFixtures.board(Integer.parseInt(board), false);
+
+        Lesson lesson = new Lesson();
+        lesson.setId(LESSON_ID);
+        BoardState state = new BoardState(lesson, null);
+        state.setId(1L);
+        state.setSnapshot(BoardSnapshotCodec.encode(BoardFixtures.toJson(document)));
+
+        LessonRepository lessonRepository = mock(LessonRepository.class, withSettings().stubOnly());
+        when(lessonRepository.findById(LESSON_ID)).thenReturn(Optional.of(lesson));
+        BoardStateRepository boardStateRepository = mock(BoardStateRepository.class, withSettings().stubOnly());
+        when(boardStateRepository.findByLessonOrderByUpdatedAtDesc(lesson)).thenReturn(List.of(state));
+        when(boardStateRepository.findById(1L)).thenReturn(Optional.of(state));
+        when(boardStateRepository.save(any(BoardState.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        BoardOperationRepository boardOperationRepository = mock(BoardOperationRepository.class, withSettings().stubOnly());
+        when(boardOperationRepository.findByLessonIdOrderByIdAsc(anyLong())).thenReturn(Collections.emptyList());
+
+        service = new WhiteboardService();
+        ReflectionTestUtils.setField(service, "lessonRepository", lessonRepository);
+        ReflectionTestUtils.setField(service, "boardStateRepository", boardStateRepository);
+        ReflectionTestUtils.setField(service, "boardOperationRepository", boardOperationRepository);
+        ReflectionTestUtils.setField(service, "objectMapper", BoardFixtures.MAPPER);
+        ReflectionTestUtils.setField(service, "messagingTemplate",
+                mock(SimpMessagingTemplate.class, withSettings().stubOnly()));
+        ReflectionTestUtils.setField(service, "boardHistoryService",
+                mock(BoardHistoryService.class, withSettings().stubOnly()));
+        ReflectionTestUtils.setField(service, "maxLiveBoards", 500);
+        ReflectionTestUtils.setField(service, "idleEvictMinutes", 20L);
+        liveBoards = (Map<Long, LiveBoard>) ReflectionTestUtils.getField(service, "liveBoards");
+
+        payloadParts = clientPayloadParts(document);
+    }
+
+    /**
+     * Сохранение целого документа, в котором клиент изменил CHANGED элементов
+     */
+    @Benchmark
+    public LiveBoard.MergeResult save() {
+        long version = ++nextVersion;
+        StringBuilder payload = new StringBuilder(payloadParts[0]);
+        for (int i = 1; i < payloadParts.length; i++) {
+            payload.append(version).append(payloadParts[i]);
+        }
+        return service.saveBoardState(LESSON_ID, payload.toString());
+    }
+
+    /**
+     * Первое обращение к уроку: чтение снимка, распаковка, разбор, сборка LiveBoard
+     */
+    @Benchmark
+    public LiveBoard load() {
+        liveBoards.remove(LESSON_ID);
+        return service.getLiveBoard(LESSON_ID);
+    }
+
+    /**
+     * JSON клиента, разрезанный по версиям изменяемых элементов: части склеиваются с новой версией.
+     * Стёртые элементы («надгробия») клиент не присылает.
+     */
+    private static String[] clientPayloadParts(ObjectNode document) {
+        ObjectNode client = document.deepCopy();
+        ArrayNode elements = client.putArray("elements");
+        for (JsonNode element : document.get("elements")) {
+            if (!element.path("isDeleted").asBoolean(false)) {
+                elements.add(element.deepCopy());
+            }
+        }
+
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < elements.size(); i++) {
+            indexes.add(i);
+        }
+        Collections.shuffle(indexes, new Random(elements.size()));
+        for (int i = 0; i < Math.min(CHANGED, indexes.size()); i++) {
+            ((ObjectNode) elements.get(indexes.get(i))).put("version", VERSION_MARK);
+        }
+        return BoardFixtures.toJson(client).split(Long.toString(VERSION_MARK), -1);
+    }
+}
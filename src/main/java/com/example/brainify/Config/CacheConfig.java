@@ -25,7 +25,8 @@ public class CacheConfig {
         cacheManager.setCacheNames(java.util.Arrays.asList(
             "lessons",               // Кэш уроков
             "users",                 // Кэш пользователей
-            "subjects"               // Кэш предметов
+            "subjects",              // Кэш предметов
+            "lessonParticipants"     // Участники уроков для проверки доступа к доске
         ));
         
         // Включаем динамическое создание кэшей
@@ -0,0 +1,29 @@
+package com.example.brainify.Config;
+
+import com.example.brainify.Service.PresenceService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Отмечает активность WebSocket-сессии на каждом входящем кадре, включая heart-beat:
+ * по этой отметке PresenceService закрывает сессии, оборванные без DISCONNECT.
+ */
+@Component
+public class PresenceChannelInterceptor implements ChannelInterceptor {
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId != null) {
+            presenceService.touch(sessionId);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.brainify.Config;
+
+import com.example.brainify.Service.DrawEventRelay;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Исполнители входящего и исходящего каналов STOMP.
+ *
+ * У каждого канала свой ограниченный исполнитель: пул потоков с очередью или
+ * виртуальные потоки с ограничением числа одновременных задач
+ * (app.websocket.channel.virtual-threads). При переполнении пула задача выполняется
+ * в вызывающем потоке, а при исчерпании лимита виртуальных потоков вызывающий поток
+ * ждёт свободного места — в обоих случаях кадры не теряются, а отправитель притормаживает,
+ * и задача учитывается как переполнение.
+ *
+ * Промежуточные события рисования (path-progress, shape-progress) при перегрузке
+ * канала отбрасываются: итоговый элемент всё равно приходит в draw-done.
+ * Счётчики каналов пишутся в лог раз в минуту.
+ */
+@Component
+public class StompChannelExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(StompChannelExecutors.class);
+
+    /**
+     * Исполнитель канала и его счётчики
+     */
+    public static class ChannelExecutor {
+        private final String name;
+        private final int capacity;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong overflowed = new AtomicLong();
+        private final AtomicLong shed = new AtomicLong();
+        private Executor executor;
+
+        ChannelExecutor(String name, int capacity) {
+            this.name = name;
+            this.capacity = capacity;
+        }
+
+        public Executor getExecutor() { return executor; }
+        public int getPending() { return pending.get(); }
+        public long getOverflowed() { return overflowed.get(); }
+        public long getShed() { return shed.get(); }
+
+        boolean isOverloaded(double ratio) {
+            return pending.get() > capacity * ratio;
+        }
+
+        /**
+         * @param countThrottled считать переполнением задачи сверх capacity: SimpleAsyncTaskExecutor
+         *                       не отклоняет их, а задерживает вызывающий поток до освобождения места
+         */
+        TaskDecorator counting(boolean countThrottled) {
+            return task -> {
+                if (pending.incrementAndGet() > capacity && countThrottled) {
+                    overflowed.incrementAndGet();
+                }
+                return () -> {
+                    try {
+                        task.run();
+                    } finally {
+                        pending.decrementAndGet();
+                        completed.incrementAndGet();
+                    }
+                };
+            };
+        }
+    }
+
+    @Value("${app.websocket.channel.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    @Value("${app.websocket.channel.inbound.pool-size:8}")
+    private int inboundPoolSize;
+
+    @Value("${app.websocket.channel.inbound.queue-capacity:2000}")
+    private int inboundQueueCapacity;
+
+    @Value("${app.websocket.channel.outbound.pool-size:8}")
+    private int outboundPoolSize;
+
+    @Value("${app.websocket.channel.outbound.queue-capacity:5000}")
+    private int outboundQueueCapacity;
+
+    // Доля заполнения, начиная с которой промежуточные события рисования отбрасываются
+    @Value("${app.websocket.channel.shed-progress-ratio:0.5}")
+    private double shedProgressRatio;
+
+    private ChannelExecutor inbound;
+    private ChannelExecutor outbound;
+
+    @PostConstruct
+    public void init() {
+        inbound = create("inbound", inboundPoolSize, inboundQueueCapacity);
+        outbound = create("outbound", outboundPoolSize, outboundQueueCapacity);
+        logger.info("Каналы STOMP: {}, входящий {}+{}, исходящий {}+{}",
+                virtualThreads ? "виртуальные потоки" : "пулы потоков",
+                inboundPoolSize, inboundQueueCapacity, outboundPoolSize, outboundQueueCapacity);
+    }
+
+    public ChannelExecutor getInbound() { return inbound; }
+    public ChannelExecutor getOutbound() { return outbound; }
+
+    /**
+     * Перехватчик канала, отбрасывающий промежуточные события рисования при перегрузке исполнителя
+     */
+    public ChannelInterceptor progressShedding(ChannelExecutor channelExecutor) {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                if (channelExecutor.isOverloaded(shedProgressRatio) && isDrawProgress(message)) {
+                    channelExecutor.shed.incrementAndGet();
+                    return null;
+                }
+                return message;
+            }
+        };
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void logStats() {
+        for (ChannelExecutor channel : new ChannelExecutor[] {inbound, outbound}) {
+            long overflowed = channel.overflowed.get();
+            long shed = channel.shed.get();
+            if (overflowed > 0 || shed > 0) {
+                logger.warn("Канал STOMP {}: в работе {}, выполнено {}, переполнений {}, отброшено событий рисования {}",
+                        channel.name, channel.pending.get(), channel.completed.get(), overflowed, shed);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ChannelExecutor channel : new ChannelExecutor[] {inbound, outbound}) {
+            if (channel.executor instanceof ThreadPoolTaskExecutor pool) {
+                pool.shutdown();
+            } else if (channel.executor instanceof SimpleAsyncTaskExecutor simple) {
+                simple.close();
+            }
+        }
+    }
+
+    private ChannelExecutor create(String name, int poolSize, int queueCapacity) {
+        ChannelExecutor channel = new ChannelExecutor(name, poolSize + queueCapacity);
+        String threadPrefix = "ws-" + name + "-";
+        if (virtualThreads) {
+            // Виртуальный поток на задачу; ограничение числа задач заменяет очередь
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadPrefix);
+            executor.setVirtualThreads(true);
+            executor.setConcurrencyLimit(poolSize + queueCapacity);
+            executor.setTaskDecorator(channel.counting(true));
+            channel.executor = executor;
+        } else {
+            ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+            executor.setCorePoolSize(poolSize);
+            executor.setMaxPoolSize(poolSize);
+            executor.setQueueCapacity(queueCapacity);
+            executor.setThreadNamePrefix(threadPrefix);
+            // Переполнение пула считает обработчик отклонённых задач
+            executor.setTaskDecorator(channel.counting(false));
+            executor.setRejectedExecutionHandler((task, pool) -> {
+                channel.overflowed.incrementAndGet();
+                if (!pool.isShutdown()) {
+                    task.run();
+                }
+            });
+            executor.initialize();
+            channel.executor = executor;
+        }
+        return channel;
+    }
+
+    /**
+     * Промежуточное событие рисования: входящее /app/whiteboard/draw/** или рассылка /topic/whiteboard/**
+     * с типом *-progress либо пачка таких событий (progress-batch)
+     */
+    private static boolean isDrawProgress(Message<?> message) {
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null
+                || !(destination.startsWith("/app/whiteboard/draw/") || destination.startsWith("/topic/whiteboard/"))) {
+            return false;
+        }
+        if (!(message.getPayload() instanceof byte[] payload)) {
+            return false;
+        }
+        // Учитывается только тип верхнего уровня: пачка batch с draw-done внутри не отбрасывается
+        String type = DrawEventRelay.eventType(payload);
+        return type != null && (type.endsWith("-progress") || type.equals("progress-batch"));
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.brainify.Config;
+
+import com.example.brainify.Model.User;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.security.Principal;
+import java.util.Map;
+
+/**
+ * Определяет пользователя WebSocket-сессии по HTTP-сессии при рукопожатии.
+ * Имя Principal — ID пользователя, поэтому личные сообщения отправляются
+ * через convertAndSendToUser(String.valueOf(userId), "/queue/...").
+ */
+@Component
+public class UserHandshakeHandler extends DefaultHandshakeHandler {
+
+    @Autowired
+    private SessionManager sessionManager;
+
+    @Override
+    protected Principal determineUser(ServerHttpRequest request, WebSocketHandler wsHandler,
+                                      Map<String, Object> attributes) {
+        if (request instanceof ServletServerHttpRequest servletRequest) {
+            HttpSession session = servletRequest.getServletRequest().getSession(false);
+            User user = sessionManager.getCurrentUser(session);
+            if (user != null) {
+                String name = String.valueOf(user.getId());
+                return () -> name;
+            }
+        }
+        return super.determineUser(request, wsHandler, attributes);
+    }
+}
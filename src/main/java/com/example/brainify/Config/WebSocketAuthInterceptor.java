@@ -1,113 +1,118 @@
 package com.example.brainify.Config;
 
-import com.example.brainify.Model.User;
-import com.example.brainify.Model.UserRole;
+import com.example.brainify.Service.LessonRoomRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageChannel;
-import org.springframework.messaging.simp.stomp.StompCommand;
-import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.support.ChannelInterceptor;
-import org.springframework.messaging.support.MessageHeaderAccessor;
 import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.security.Principal;
 
+/**
+ * Проверяет доступ к комнатам уроков во входящем канале STOMP.
+ *
+ * Пользователь сессии определяется при рукопожатии (UserHandshakeHandler, имя Principal — ID
+ * пользователя). Подписка на /topic/webrtc/{lessonId} и /topic/whiteboard/{lessonId} и отправка
+ * в /app/webrtc/signal/{lessonId}, /app/whiteboard/draw/{lessonId} и в сами топики разрешены только участникам
+ * урока и сотрудникам. Решение берётся из LessonRoomRegistry — на каждом кадре без обращения к БД.
+ * Запрещённая подписка завершается ошибкой STOMP, запрещённый кадр отбрасывается.
+ *
+ * Подписка и отправка без пользователя запрещены, как и адреса-шаблоны (*, **, ?, {}, #):
+ * простой брокер и RabbitMQ трактуют их как подписку на все подходящие топики,
+ * то есть на комнаты всех уроков сразу.
+ */
 @Component
 public class WebSocketAuthInterceptor implements ChannelInterceptor {
 
-    @Autowired
-    private SessionManager sessionManager;
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketAuthInterceptor.class);
+
+    private static final String[] SUBSCRIBE_PREFIXES = {"/topic/webrtc/", "/topic/whiteboard/"};
+    // Отправка напрямую в топики комнат проверяется так же, как через /app
+    private static final String[] SEND_PREFIXES =
+            {"/app/webrtc/signal/", "/app/whiteboard/draw/", "/topic/webrtc/", "/topic/whiteboard/"};
 
-    // Хранилище аутентифицированных пользователей по sessionId
-    private final Map<String, User> authenticatedUsers = new ConcurrentHashMap<>();
+    // Адрес комнаты с некорректным ID урока (в том числе шаблоны внешнего брокера) всегда запрещён
+    private static final Long INVALID_LESSON = -1L;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    @Autowired
+    private LessonRoomRegistry lessonRoomRegistry;
 
     @Override
     public Message<?> preSend(Message<?> message, MessageChannel channel) {
-        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
-        
-        if (accessor != null && StompCommand.CONNECT.equals(accessor.getCommand())) {
-            String sessionId = accessor.getSessionId();
-            
-            // Получаем пользователя из сессии по sessionId
-            User user = getUserFromSession(sessionId);
-            
-            if (user != null) {
-                authenticatedUsers.put(sessionId, user);
-                // Сохраняем пользователя в атрибутах сообщения
-                accessor.setUser(() -> user.getName());
-                System.out.println("WebSocket: Пользователь " + user.getName() + " подключен (sessionId: " + sessionId + ")");
-            } else {
-                System.out.println("WebSocket: Не удалось найти пользователя для sessionId: " + sessionId);
-                // Создаем временного пользователя для отладки
-                User tempUser = createTemporaryUser(sessionId);
-                authenticatedUsers.put(sessionId, tempUser);
-                accessor.setUser(() -> tempUser.getName());
-            }
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        boolean subscribe = type == SimpMessageType.SUBSCRIBE;
+        if (!subscribe && type != SimpMessageType.MESSAGE) {
+            return message;
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        Long userId = userIdOf(SimpMessageHeaderAccessor.getUser(message.getHeaders()));
+        if (userId == null) {
+            return deny(message, subscribe, "сессия без пользователя", destination, sessionId);
         }
-        
-        return message;
+        if (isPattern(destination)) {
+            return deny(message, subscribe, "адрес-шаблон", destination, sessionId);
+        }
+
+        Long lessonId = lessonIdOf(destination, subscribe ? SUBSCRIBE_PREFIXES : SEND_PREFIXES);
+        if (lessonId == null) {
+            return message;
+        }
+        if (!INVALID_LESSON.equals(lessonId) && lessonRoomRegistry.canAccess(sessionId, userId, lessonId)) {
+            return message;
+        }
+        return deny(message, subscribe, "нет доступа к уроку пользователя " + userId, destination, sessionId);
     }
 
     /**
-     * Получение пользователя из сессии по sessionId
+     * Запрещённая подписка завершается ошибкой STOMP, запрещённый кадр отбрасывается
      */
-    private User getUserFromSession(String sessionId) {
-        try {
-            // Используем SessionManager для получения пользователя
-            // TODO: Реализовать получение пользователя по sessionId через SessionManager
-            return sessionManager.getUserBySessionId(sessionId);
-        } catch (Exception e) {
-            System.out.println("Ошибка получения пользователя из сессии: " + e.getMessage());
-            return null;
+    private Message<?> deny(Message<?> message, boolean subscribe, String reason, String destination, String sessionId) {
+        if (subscribe) {
+            logger.warn("Подписка на {} отклонена ({}), сессия {}", destination, reason, sessionId);
+            throw new MessageDeliveryException(message, "Нет доступа");
         }
+        logger.debug("Кадр в {} отброшен ({}), сессия {}", destination, reason, sessionId);
+        return null;
     }
 
-    /**
-     * Получение пользователя по sessionId
-     */
-    public User getUserBySessionId(String sessionId) {
-        return authenticatedUsers.get(sessionId);
+    private boolean isPattern(String destination) {
+        return destination == null || pathMatcher.isPattern(destination) || destination.indexOf('#') >= 0;
     }
 
-    /**
-     * Удаление пользователя при отключении
-     */
-    public void removeUser(String sessionId) {
-        User user = authenticatedUsers.remove(sessionId);
-        if (user != null) {
-            System.out.println("WebSocket: Пользователь " + user.getName() + " отключен (sessionId: " + sessionId + ")");
+    private static Long lessonIdOf(String destination, String[] prefixes) {
+        if (destination == null) {
+            return null;
+        }
+        for (String prefix : prefixes) {
+            if (destination.startsWith(prefix)) {
+                try {
+                    return Long.valueOf(destination.substring(prefix.length()));
+                } catch (NumberFormatException e) {
+                    return INVALID_LESSON;
+                }
+            }
         }
+        return null;
     }
 
-    /**
-     * Создание временного пользователя для отладки
-     */
-    private User createTemporaryUser(String sessionId) {
-        User user = new User();
-        
-        // Создаем разных пользователей для разных сессий для тестирования
-        int userNumber = Math.abs(sessionId.hashCode() % 3);
-        
-        switch (userNumber) {
-            case 0:
-                user.setId(1L);
-                user.setName("Преподаватель " + sessionId.substring(0, 4));
-                user.setRole(UserRole.TEACHER);
-                break;
-            case 1:
-                user.setId(2L);
-                user.setName("Ученик " + sessionId.substring(0, 4));
-                user.setRole(UserRole.STUDENT);
-                break;
-            case 2:
-                user.setId(3L);
-                user.setName("Администратор " + sessionId.substring(0, 4));
-                user.setRole(UserRole.ADMIN);
-                break;
+    private static Long userIdOf(Principal principal) {
+        if (principal == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(principal.getName());
+        } catch (NumberFormatException e) {
+            return null; // сессия без пользователя (рукопожатие без HTTP-сессии)
         }
-        
-        return user;
     }
 }
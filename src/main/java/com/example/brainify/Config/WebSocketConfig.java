@@ -1,7 +1,12 @@
 package com.example.brainify.Config;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
@@ -11,10 +16,93 @@ import org.springframework.web.socket.config.annotation.WebSocketTransportRegist
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    @Autowired
+    private UserHandshakeHandler userHandshakeHandler;
+
+    @Autowired
+    private PresenceChannelInterceptor presenceChannelInterceptor;
+
+    @Autowired
+    private WebSocketAuthInterceptor webSocketAuthInterceptor;
+
+    @Autowired
+    private StompChannelExecutors channelExecutors;
+
+    // Кадры одной сессии обрабатываются и доставляются в порядке поступления
+    @Value("${app.websocket.channel.preserve-order:true}")
+    private boolean preserveOrder;
+
+    // Медленный клиент: сколько ждать отправки и сколько буферизовать, прежде чем закрыть его сессию
+    @Value("${app.websocket.send-time-limit-ms:15000}")
+    private int sendTimeLimit;
+
+    @Value("${app.websocket.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    // simple — брокер в памяти (один экземпляр приложения);
+    // relay — внешний STOMP-брокер (RabbitMQ с плагином STOMP, ActiveMQ/Artemis), общий для всех экземпляров
+    @Value("${app.websocket.broker:simple}")
+    private String brokerMode;
+
+    // Все запросы доски урока (/whiteboard/api/*/{lessonId}) балансировщик направляет
+    // на один экземпляр, например по хешу lessonId. Доска урока (LiveBoard и номера board-ops)
+    // живёт в памяти одного экземпляра, поэтому без этого режим relay не запускается
+    @Value("${app.whiteboard.lesson-affinity:false}")
+    private boolean lessonAffinity;
+
+    @Value("${app.websocket.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${app.websocket.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${app.websocket.relay.login:guest}")
+    private String relayLogin;
+
+    @Value("${app.websocket.relay.passcode:guest}")
+    private String relayPasscode;
+
+    @Value("${app.websocket.relay.virtual-host:}")
+    private String relayVirtualHost;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Включаем простой брокер сообщений
-        config.enableSimpleBroker("/topic", "/queue");
+        config.setPreservePublishOrder(preserveOrder);
+
+        if ("relay".equalsIgnoreCase(brokerMode)) {
+            if (!lessonAffinity) {
+                // Иначе два экземпляра держат каждый свою доску урока: номера board-ops
+                // перемешиваются, а отложенные записи перезаписывают снимки друг друга
+                throw new IllegalStateException("app.websocket.broker=relay требует app.whiteboard.lesson-affinity=true: " +
+                        "запросы доски урока должны обслуживаться одним экземпляром");
+            }
+            // Внешний брокер: подписчики урока могут быть подключены к разным экземплярам приложения.
+            // Heart-beat клиентов согласует сам брокер
+            StompBrokerRelayRegistration relay = config.enableStompBrokerRelay("/topic", "/queue")
+                  .setRelayHost(relayHost)
+                  .setRelayPort(relayPort)
+                  .setClientLogin(relayLogin)
+                  .setClientPasscode(relayPasscode)
+                  .setSystemLogin(relayLogin)
+                  .setSystemPasscode(relayPasscode)
+                  // Личные сообщения пользователю, подключённому к другому экземпляру,
+                  // и обмен списками подключённых пользователей между экземплярами
+                  .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                  .setUserRegistryBroadcast("/topic/simp-user-registry");
+            if (!relayVirtualHost.isBlank()) {
+                relay.setVirtualHost(relayVirtualHost);
+            }
+        } else {
+            // Простой брокер в памяти. Heart-beat в обе стороны: брокер закрывает
+            // сессии молчащих клиентов, а присутствие пользователей обновляется по кадрам heart-beat
+            ThreadPoolTaskScheduler heartbeatScheduler = new ThreadPoolTaskScheduler();
+            heartbeatScheduler.setPoolSize(1);
+            heartbeatScheduler.setThreadNamePrefix("ws-heartbeat-");
+            heartbeatScheduler.initialize();
+            config.enableSimpleBroker("/topic", "/queue")
+                  .setHeartbeatValue(new long[] {25000, 25000})
+                  .setTaskScheduler(heartbeatScheduler);
+        }
         
         // Префикс для клиентских сообщений
         config.setApplicationDestinationPrefixes("/app");
@@ -25,8 +113,11 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        registry.setPreserveReceiveOrder(preserveOrder);
+
         // Регистрируем WebSocket endpoint
         registry.addEndpoint("/ws")
+                .setHandshakeHandler(userHandshakeHandler)
                 .setAllowedOriginPatterns("*")
                 .withSockJS()
                 .setHeartbeatTime(30000)
@@ -34,14 +125,30 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         
         // Также поддерживаем чистый WebSocket
         registry.addEndpoint("/ws")
+                .setHandshakeHandler(userHandshakeHandler)
                 .setAllowedOriginPatterns("*");
     }
 
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.executor(channelExecutors.getInbound().getExecutor())
+                    .interceptors(presenceChannelInterceptor,
+                                  webSocketAuthInterceptor,
+                                  channelExecutors.progressShedding(channelExecutors.getInbound()));
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.executor(channelExecutors.getOutbound().getExecutor())
+                    .interceptors(channelExecutors.progressShedding(channelExecutors.getOutbound()));
+    }
+
     @Override
     public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Один медленный клиент копит кадры в своём буфере и не задерживает потоки исходящего канала
         registration.setMessageSizeLimit(128 * 1024) // 128KB
-                   .setSendBufferSizeLimit(1024 * 1024) // 1MB
-                   .setSendTimeLimit(30000); // 30 seconds
+                   .setSendBufferSizeLimit(sendBufferSizeLimit)
+                   .setSendTimeLimit(sendTimeLimit);
     }
 }
 
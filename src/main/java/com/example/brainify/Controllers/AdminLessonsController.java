@@ -4,6 +4,7 @@ import com.example.brainify.Model.*;
 import com.example.brainify.Repository.*;
 
 import com.example.brainify.Config.SessionManager;
+import com.example.brainify.Service.LessonAccessService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -47,6 +48,9 @@ public class AdminLessonsController {
     
     @Autowired
     private StudentTeacherRepository studentTeacherRepository;
+    
+    @Autowired
+    private LessonAccessService lessonAccessService;
 
     // Главная страница admin-lessons
     @GetMapping
@@ -507,13 +511,17 @@ public class AdminLessonsController {
                         if (lesson.getIsRecurring() && lesson.getOriginalLessonId() == null) {
                             List<Lesson> relatedLessons = lessonRepository.findByOriginalLessonId(lesson.getId());
                             lessonRepository.deleteAll(relatedLessons);
+                            lessonAccessService.evictAll(relatedLessons);
                             lessonRepository.delete(lesson);
+                            lessonAccessService.evict(lesson.getId());
                         } else if (lesson.getIsRecurring() && lesson.getOriginalLessonId() != null) {
                             // Это связанный урок, удаляем только его
                             lessonRepository.delete(lesson);
+                            lessonAccessService.evict(lesson.getId());
                         } else {
                             // Обычный урок, удаляем только его
                             lessonRepository.delete(lesson);
+                            lessonAccessService.evict(lesson.getId());
                         }
                     }
                 }
@@ -1091,6 +1099,7 @@ public class AdminLessonsController {
             }
 
             lessonRepository.deleteAll(lessonsToRemove);
+            lessonAccessService.evictAll(lessonsToRemove);
 
             return ResponseEntity.ok(Map.of("status", "success", "message", "Урок удален"));
         } catch (Exception e) {
@@ -1296,15 +1305,19 @@ public class AdminLessonsController {
                     if (lesson.getIsRecurring() && lesson.getOriginalLessonId() == null) {
                         List<Lesson> relatedLessons = lessonRepository.findByOriginalLessonId(lesson.getId());
                         lessonRepository.deleteAll(relatedLessons);
+                        lessonAccessService.evictAll(relatedLessons);
                         lessonRepository.delete(lesson);
+                        lessonAccessService.evict(lesson.getId());
                         cancelledLessons += relatedLessons.size() + 1;
                     } else if (lesson.getIsRecurring() && lesson.getOriginalLessonId() != null) {
                         // Это связанный урок, удаляем только его
                         lessonRepository.delete(lesson);
+                        lessonAccessService.evict(lesson.getId());
                         cancelledLessons++;
                     } else {
                         // Обычный урок, удаляем только его
                         lessonRepository.delete(lesson);
+                        lessonAccessService.evict(lesson.getId());
                         cancelledLessons++;
                     }
                 }
@@ -4,15 +4,20 @@ import com.example.brainify.Config.SessionManager;
 import com.example.brainify.Model.ChatMessage;
 import com.example.brainify.Model.User;
 import com.example.brainify.Service.ChatService;
+import com.example.brainify.Service.PresenceService;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
 import org.springframework.http.*;
+import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.time.LocalDateTime;
+import java.security.Principal;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/chat")
@@ -24,18 +29,25 @@ public class ChatController {
     @Autowired
     private SessionManager sessionManager;
 
+    @Autowired
+    private PresenceService presenceService;
+
     /**
-     * Получить список контактов для текущего пользователя
+     * Получить страницу списка контактов для текущего пользователя
+     * (непрочитанные и последнее сообщение уже включены)
      */
     @GetMapping("/contacts")
-    public ResponseEntity<?> getContacts(HttpServletRequest request) {
+    public ResponseEntity<?> getContacts(@RequestParam(defaultValue = "0") int page,
+                                         @RequestParam(defaultValue = "50") int size,
+                                         @RequestParam(required = false) String q,
+                                         HttpServletRequest request) {
         User currentUser = sessionManager.getCurrentUser(request);
         if (currentUser == null) {
             return ResponseEntity.status(401).body(Map.of("error", "Не авторизован"));
         }
 
         try {
-            List<Map<String, Object>> contacts = chatService.getContacts(currentUser);
+            List<Map<String, Object>> contacts = chatService.getContacts(currentUser, page, size, q);
             return ResponseEntity.ok(contacts);
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("error", "Ошибка загрузки контактов: " + e.getMessage()));
@@ -43,19 +55,25 @@ public class ChatController {
     }
 
     /**
-     * Получить историю сообщений с пользователем
+     * Получить страницу истории сообщений с пользователем.
+     * Без before — последние сообщения, с before — более старые, чем сообщение before.
      */
     @GetMapping("/messages/{userId}")
-    public ResponseEntity<?> getMessages(@PathVariable Long userId, HttpServletRequest request) {
+    public ResponseEntity<?> getMessages(@PathVariable Long userId,
+                                         @RequestParam(required = false) Long before,
+                                         @RequestParam(defaultValue = "50") int limit,
+                                         HttpServletRequest request) {
         User currentUser = sessionManager.getCurrentUser(request);
         if (currentUser == null) {
             return ResponseEntity.status(401).body(Map.of("error", "Не авторизован"));
         }
 
         try {
-            List<Map<String, Object>> messages = chatService.getMessages(currentUser.getId(), userId);
-            // Помечаем сообщения от собеседника как прочитанные
-            chatService.markAsRead(userId, currentUser.getId());
+            List<Map<String, Object>> messages = chatService.getMessages(currentUser.getId(), userId, before, limit);
+            // Сдвигаем отметку прочтения до последнего сообщения при открытии переписки
+            if (before == null && !messages.isEmpty()) {
+                chatService.markAsRead(userId, currentUser.getId(), (Long) messages.get(messages.size() - 1).get("id"));
+            }
             return ResponseEntity.ok(messages);
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("error", "Ошибка загрузки сообщений: " + e.getMessage()));
@@ -63,11 +81,11 @@ public class ChatController {
     }
 
     /**
-     * Получить новые сообщения (для polling)
+     * Получить новые сообщения после сообщения afterId (догрузка при переподключении и опросе)
      */
     @GetMapping("/messages/{userId}/new")
     public ResponseEntity<?> getNewMessages(@PathVariable Long userId,
-                                             @RequestParam String after,
+                                             @RequestParam Long afterId,
                                              HttpServletRequest request) {
         User currentUser = sessionManager.getCurrentUser(request);
         if (currentUser == null) {
@@ -75,11 +93,10 @@ public class ChatController {
         }
 
         try {
-            LocalDateTime afterTime = LocalDateTime.parse(after);
-            List<Map<String, Object>> messages = chatService.getNewMessages(currentUser.getId(), userId, afterTime);
-            // Помечаем как прочитанные
+            List<Map<String, Object>> messages = chatService.getNewMessages(currentUser.getId(), userId, afterId);
+            // Сдвигаем отметку прочтения до последнего полученного сообщения
             if (!messages.isEmpty()) {
-                chatService.markAsRead(userId, currentUser.getId());
+                chatService.markAsRead(userId, currentUser.getId(), (Long) messages.get(messages.size() - 1).get("id"));
             }
             return ResponseEntity.ok(messages);
         } catch (Exception e) {
@@ -87,6 +104,33 @@ public class ChatController {
         }
     }
 
+    /**
+     * Поиск по перепискам текущего пользователя.
+     * with — искать только в переписке с собеседником, before — следующая страница после сообщения before.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<?> searchMessages(@RequestParam String q,
+                                            @RequestParam(value = "with", required = false) Long withUserId,
+                                            @RequestParam(required = false) Long before,
+                                            @RequestParam(defaultValue = "20") int limit,
+                                            HttpServletRequest request) {
+        User currentUser = sessionManager.getCurrentUser(request);
+        if (currentUser == null) {
+            return ResponseEntity.status(401).body(Map.of("error", "Не авторизован"));
+        }
+
+        String query = q.trim();
+        if (query.length() < 2) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Слишком короткий запрос"));
+        }
+
+        try {
+            return ResponseEntity.ok(chatService.searchMessages(currentUser, query, withUserId, before, limit));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(Map.of("error", "Ошибка поиска: " + e.getMessage()));
+        }
+    }
+
     /**
      * Отправить текстовое сообщение
      */
@@ -130,7 +174,8 @@ public class ChatController {
         }
 
         try {
-            Map<String, Object> message = chatService.sendMessageWithFile(currentUser, receiverId, content, file);
+            ChatMessage attachment = chatService.prepareAttachment(file);
+            Map<String, Object> message = chatService.sendMessageWithFile(currentUser, receiverId, content, attachment);
             return ResponseEntity.ok(message);
         } catch (RuntimeException e) {
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
@@ -140,10 +185,29 @@ public class ChatController {
     }
 
     /**
-     * Скачать файл из сообщения
+     * Скачать файл из сообщения.
+     * Содержимое отдаётся потоком из хранилища, с поддержкой Range-запросов;
+     * вложение сообщения не меняется, поэтому кэшируется браузером надолго.
      */
     @GetMapping("/file/{messageId}")
-    public ResponseEntity<?> downloadFile(@PathVariable Long messageId, HttpServletRequest request) {
+    public ResponseEntity<?> downloadFile(@PathVariable Long messageId,
+                                          HttpServletRequest request,
+                                          WebRequest webRequest) {
+        return serveFile(messageId, false, request, webRequest);
+    }
+
+    /**
+     * Уменьшенная копия изображения из сообщения (для списка сообщений)
+     */
+    @GetMapping("/file/{messageId}/thumb")
+    public ResponseEntity<?> downloadThumbnail(@PathVariable Long messageId,
+                                               HttpServletRequest request,
+                                               WebRequest webRequest) {
+        return serveFile(messageId, true, request, webRequest);
+    }
+
+    private ResponseEntity<?> serveFile(Long messageId, boolean thumbnail,
+                                        HttpServletRequest request, WebRequest webRequest) {
         User currentUser = sessionManager.getCurrentUser(request);
         if (currentUser == null) {
             return ResponseEntity.status(401).body(Map.of("error", "Не авторизован"));
@@ -158,39 +222,63 @@ public class ChatController {
                 return ResponseEntity.status(403).body(Map.of("error", "Нет доступа к файлу"));
             }
 
-            if (!msg.hasFile()) {
+            if (!msg.hasFile() || (thumbnail && !msg.isImage())) {
                 return ResponseEntity.notFound().build();
             }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType(msg.getMimeType()));
-            headers.setContentLength(msg.getFileSize());
+            // Отдельная копия есть, только если её ключ отличается от ключа оригинала
+            boolean ownThumbnail = thumbnail && msg.getThumbKey() != null && !msg.getThumbKey().equals(msg.getFileKey());
+            String key = ownThumbnail ? msg.getThumbKey()
+                    : (msg.getFileKey() != null ? msg.getFileKey() : "m" + msg.getId());
+            String eTag = "\"" + key + "\"";
 
-            // Для изображений — inline, для документов — attachment
-            if (msg.isImage()) {
-                headers.setContentDisposition(ContentDisposition.inline().filename(msg.getFileName()).build());
-            } else {
-                headers.setContentDisposition(ContentDisposition.attachment().filename(msg.getFileName()).build());
+            // Пока копия не построена фоновой задачей, оригинал по адресу копии надолго не кэшируем
+            CacheControl cacheControl = thumbnail && msg.getThumbKey() == null
+                    ? CacheControl.noCache().cachePrivate()
+                    : CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable();
+            if (webRequest.checkNotModified(eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(eTag)
+                        .cacheControl(cacheControl)
+                        .build();
+            }
+
+            Resource resource = thumbnail ? chatService.openThumbnail(msg) : chatService.openAttachment(msg);
+            if (resource == null) {
+                return ResponseEntity.notFound().build();
             }
 
-            return new ResponseEntity<>(msg.getFileData(), headers, HttpStatus.OK);
+            // Для изображений — inline, для документов — attachment
+            ContentDisposition disposition = msg.isImage()
+                    ? ContentDisposition.inline().filename(msg.getFileName()).build()
+                    : ContentDisposition.attachment().filename(msg.getFileName()).build();
+
+            return ResponseEntity.ok()
+                    .contentType(ownThumbnail ? MediaType.IMAGE_JPEG : MediaType.parseMediaType(msg.getMimeType()))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, disposition.toString())
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .eTag(eTag)
+                    .cacheControl(cacheControl)
+                    .body(resource);
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("error", "Ошибка загрузки файла: " + e.getMessage()));
         }
     }
 
     /**
-     * Пометить сообщения как прочитанные
+     * Пометить сообщения как прочитанные до сообщения upTo (без upTo — до последнего)
      */
     @PostMapping("/read/{senderId}")
-    public ResponseEntity<?> markAsRead(@PathVariable Long senderId, HttpServletRequest request) {
+    public ResponseEntity<?> markAsRead(@PathVariable Long senderId,
+                                        @RequestParam(required = false) Long upTo,
+                                        HttpServletRequest request) {
         User currentUser = sessionManager.getCurrentUser(request);
         if (currentUser == null) {
             return ResponseEntity.status(401).body(Map.of("error", "Не авторизован"));
         }
 
         try {
-            chatService.markAsRead(senderId, currentUser.getId());
+            chatService.markAsRead(senderId, currentUser.getId(), upTo);
             return ResponseEntity.ok(Map.of("success", true));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(Map.of("error", e.getMessage()));
@@ -214,4 +302,20 @@ public class ChatController {
             return ResponseEntity.status(500).body(Map.of("error", e.getMessage()));
         }
     }
+
+    /**
+     * Признак набора текста: STOMP /app/chat.typing с телом {to, typing}
+     */
+    @MessageMapping("/chat.typing")
+    public void typing(Map<String, Object> payload, Principal principal) {
+        if (principal == null || !(payload.get("to") instanceof Number to)) {
+            return;
+        }
+        try {
+            Long fromUserId = Long.valueOf(principal.getName());
+            presenceService.sendTyping(fromUserId, to.longValue(), Boolean.TRUE.equals(payload.get("typing")));
+        } catch (NumberFormatException e) {
+            // сессия без пользователя
+        }
+    }
 }
@@ -1,8 +1,12 @@
 package com.example.brainify.Controllers;
 
+import com.example.brainify.Service.DrawEventRelay;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.stereotype.Controller;
 
 import java.util.Map;
@@ -14,6 +18,9 @@ import java.util.Map;
 @Controller
 public class WebRTCSignalingController {
 
+    @Autowired
+    private DrawEventRelay drawEventRelay;
+
     @MessageMapping("/webrtc/signal/{lessonId}")
     @SendTo("/topic/webrtc/{lessonId}")
     public Map<String, Object> relaySignal(@DestinationVariable Long lessonId,
@@ -25,11 +32,11 @@ public class WebRTCSignalingController {
      * Ретранслирует промежуточные события рисования на доске
      * (path-progress, shape-progress, draw-done) для отображения
      * рисования в реальном времени у собеседника.
+     * Тело пересылается как есть; промежуточные события собираются в кадры (см. DrawEventRelay).
      */
     @MessageMapping("/whiteboard/draw/{lessonId}")
-    @SendTo("/topic/whiteboard/{lessonId}")
-    public Map<String, Object> relayDrawing(@DestinationVariable Long lessonId,
-                                            Map<String, Object> data) {
-        return data;
+    public void relayDrawing(@DestinationVariable Long lessonId, Message<byte[]> message) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        drawEventRelay.relay(lessonId, sessionId, message.getPayload());
     }
 }
@@ -1,6 +1,10 @@
 package com.example.brainify.Controllers;
 
 import com.example.brainify.Model.Lesson;
+import com.example.brainify.DTO.LessonParticipants;
+import com.example.brainify.Service.BoardHistoryService;
+import com.example.brainify.Service.LessonAccessService;
+import com.example.brainify.Service.WhiteboardImageStore;
 import com.example.brainify.Service.WhiteboardService;
 import com.example.brainify.Repository.LessonRepository;
 import com.example.brainify.Config.SessionManager;
@@ -8,26 +12,37 @@ import com.example.brainify.Model.User;
 import com.example.brainify.Model.UserRole;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpSession;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.Base64;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 @Controller
 @RequestMapping("/whiteboard")
@@ -43,8 +58,15 @@ public class WhiteboardController {
     
     @Autowired
     private SessionManager sessionManager;
-
-    private static final String IMAGE_STORAGE_DIR = "uploads/whiteboard-images";
+    
+    @Autowired
+    private BoardHistoryService boardHistoryService;
+    
+    @Autowired
+    private WhiteboardImageStore whiteboardImageStore;
+    
+    @Autowired
+    private LessonAccessService lessonAccessService;
     
     /**
      * Отображает страницу с доской для урока
@@ -78,16 +100,7 @@ public class WhiteboardController {
             Lesson lesson = lessonOpt.get();
             
             // Проверяем права доступа
-            boolean hasAccess = false;
-            if (currentUser.getRole().equals(UserRole.ADMIN) || currentUser.getRole().equals(UserRole.MANAGER)) {
-                hasAccess = true;
-            } else if (lesson.getStudent() != null && lesson.getStudent().getId().equals(currentUser.getId())) {
-                hasAccess = true;
-            } else if (lesson.getTeacher() != null && lesson.getTeacher().getId().equals(currentUser.getId())) {
-                hasAccess = true;
-            }
-            
-            if (!hasAccess) {
+            if (!hasLessonAccess(currentUser, lessonId)) {
                 logger.error("Пользователь {} не имеет доступа к уроку {}", currentUser.getId(), lessonId);
                 model.addAttribute("error", "Нет доступа к этому уроку");
                 return "error";
@@ -107,11 +120,14 @@ public class WhiteboardController {
     }
     
     /**
-     * API для получения состояния доски
+     * API для получения состояния доски.
+     * Поддерживает условные запросы: ETag строится из версии доски в памяти,
+     * и если у клиента та же версия, отвечаем 304 без чтения БД и без тела.
      */
     @GetMapping("/api/state/{lessonId}")
     @ResponseBody
-    public ResponseEntity<Map<String, Object>> getBoardState(@PathVariable Long lessonId, HttpSession session) {
+    public ResponseEntity<Map<String, Object>> getBoardState(@PathVariable Long lessonId, HttpSession session,
+                                                             WebRequest webRequest) {
         Map<String, Object> response = new HashMap<>();
         
         try {
@@ -122,13 +138,27 @@ public class WhiteboardController {
                 return ResponseEntity.status(401).body(response);
             }
             
-            var boardState = whiteboardService.getBoardState(lessonId);
+            var boardState = whiteboardService.getLiveBoard(lessonId);
             if (boardState == null) {
                 response.put("success", false);
                 response.put("message", "Урок не найден");
                 return ResponseEntity.badRequest().body(response);
             }
             
+            // ETag и время берём одним чтением, чтобы они соответствовали одной версии
+            String eTag;
+            long lastModified;
+            synchronized (boardState) {
+                eTag = boardState.getETag();
+                lastModified = boardState.getLastModified();
+            }
+            if (webRequest.checkNotModified(eTag, lastModified)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(eTag)
+                        .cacheControl(CacheControl.noCache().cachePrivate())
+                        .build();
+            }
+            
             String boardData = boardState.getBoardData();
             if (boardData == null || boardData.isEmpty()) {
                 boardData = "{\"elements\":[],\"appState\":{}}";
@@ -136,9 +166,14 @@ public class WhiteboardController {
             
             response.put("success", true);
             response.put("boardData", boardData);
-            response.put("version", boardState.getVersion() != null ? boardState.getVersion() : 1L);
+            response.put("version", boardState.getVersion());
             
-            return ResponseEntity.ok(response);
+            // Браузер хранит ответ и перепроверяет его по ETag при каждом запросе
+            return ResponseEntity.ok()
+                    .eTag(eTag)
+                    .lastModified(lastModified)
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .body(response);
         } catch (Exception e) {
             logger.error("Ошибка при получении состояния доски: {}", e.getMessage(), e);
             response.put("success", false);
@@ -147,6 +182,49 @@ public class WhiteboardController {
         }
     }
     
+    /**
+     * API для догрузки изменений доски после версии since
+     * (переподключение к STOMP-каналу или пропуск номера изменения)
+     */
+    @GetMapping("/api/changes/{lessonId}")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> getChanges(@PathVariable Long lessonId,
+                                                          @RequestParam(defaultValue = "0") long since,
+                                                          HttpSession session) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            User currentUser = sessionManager.getCurrentUser(session);
+            if (currentUser == null) {
+                response.put("success", false);
+                response.put("message", "Не авторизован");
+                return ResponseEntity.status(401).body(response);
+            }
+            if (!hasLessonAccess(currentUser, lessonId)) {
+                response.put("success", false);
+                response.put("message", "Нет доступа к уроку");
+                return ResponseEntity.status(403).body(response);
+            }
+            
+            var changes = whiteboardService.getChanges(lessonId, since);
+            if (changes == null) {
+                response.put("success", false);
+                response.put("message", "Урок не найден");
+                return ResponseEntity.badRequest().body(response);
+            }
+            
+            response.put("success", true);
+            response.put("version", changes.getVersion());
+            response.put("elements", changes.getElements());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Ошибка при получении изменений доски: {}", e.getMessage(), e);
+            response.put("success", false);
+            response.put("message", "Ошибка: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+    
     /**
      * API для сохранения состояния доски
      */
@@ -189,10 +267,12 @@ public class WhiteboardController {
                 }
             }
             
-            var boardState = whiteboardService.saveBoardState(lessonId, boardData, clientVersion);
+            var result = whiteboardService.saveBoardState(lessonId, boardData, clientVersion);
             
             response.put("success", true);
-            response.put("version", boardState.getVersion());
+            response.put("version", result.getVersion());
+            // Только элементы, которых у клиента нет или которые у него устарели
+            response.put("elements", result.getElements());
             response.put("message", "Состояние доски сохранено");
             
             return ResponseEntity.ok(response);
@@ -205,17 +285,19 @@ public class WhiteboardController {
     }
 
     /**
-     * API для загрузки изображения доски в файловое хранилище.
-     * Возвращает URL, который можно хранить в board_data вместо base64.
+     * API для инкрементального сохранения доски: клиент присылает только
+     * изменённые/удалённые элементы, сервер дописывает их в журнал операций.
      */
-    @PostMapping("/api/upload-image/{lessonId}")
+    @PostMapping("/api/ops/{lessonId}")
     @ResponseBody
-    public ResponseEntity<Map<String, Object>> uploadImage(
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<Map<String, Object>> appendOperations(
             @PathVariable Long lessonId,
             @RequestBody Map<String, Object> request,
             HttpSession session) {
 
         Map<String, Object> response = new HashMap<>();
+
         try {
             User currentUser = sessionManager.getCurrentUser(session);
             if (currentUser == null) {
@@ -224,75 +306,241 @@ public class WhiteboardController {
                 return ResponseEntity.status(401).body(response);
             }
 
-            Optional<Lesson> lessonOpt = lessonRepository.findById(lessonId);
-            if (lessonOpt.isEmpty()) {
+            if (!hasLessonAccess(currentUser, lessonId)) {
                 response.put("success", false);
-                response.put("message", "Урок не найден");
+                response.put("message", "Нет доступа к уроку");
+                return ResponseEntity.status(403).body(response);
+            }
+
+            Object operationsObj = request.get("operations");
+            Object appStateObj = request.get("appState");
+            if (operationsObj != null && !(operationsObj instanceof List)) {
+                response.put("success", false);
+                response.put("message", "Некорректный список операций");
                 return ResponseEntity.badRequest().body(response);
             }
 
-            Lesson lesson = lessonOpt.get();
-            boolean hasAccess = false;
-            if (currentUser.getRole().equals(UserRole.ADMIN) || currentUser.getRole().equals(UserRole.MANAGER)) {
-                hasAccess = true;
-            } else if (lesson.getStudent() != null && lesson.getStudent().getId().equals(currentUser.getId())) {
-                hasAccess = true;
-            } else if (lesson.getTeacher() != null && lesson.getTeacher().getId().equals(currentUser.getId())) {
-                hasAccess = true;
-            }
-            if (!hasAccess) {
+            List<Map<String, Object>> operations = (List<Map<String, Object>>) operationsObj;
+            Map<String, Object> appState = appStateObj instanceof Map ? (Map<String, Object>) appStateObj : null;
+
+            Long since = request.get("since") instanceof Number ? ((Number) request.get("since")).longValue() : null;
+
+            var result = whiteboardService.appendOperations(lessonId, operations, appState, currentUser.getId(), since);
+
+            response.put("success", true);
+            response.put("version", result.getVersion());
+            response.put("elements", result.getElements());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Ошибка при сохранении операций доски: {}", e.getMessage(), e);
+            response.put("success", false);
+            response.put("message", "Ошибка: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    /**
+     * API истории доски: оглавление записей (версия, вид, время)
+     */
+    @GetMapping("/api/history/{lessonId}")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> getHistory(@PathVariable Long lessonId, HttpSession session) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            User currentUser = sessionManager.getCurrentUser(session);
+            if (currentUser == null) {
+                response.put("success", false);
+                response.put("message", "Не авторизован");
+                return ResponseEntity.status(401).body(response);
+            }
+            if (!hasLessonAccess(currentUser, lessonId)) {
                 response.put("success", false);
                 response.put("message", "Нет доступа к уроку");
                 return ResponseEntity.status(403).body(response);
             }
-
-            String dataUrl = (String) request.get("dataUrl");
-            if (dataUrl == null || dataUrl.isBlank() || !dataUrl.startsWith("data:image/")) {
+            
+            response.put("success", true);
+            response.put("history", boardHistoryService.getTimeline(lessonId));
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Ошибка при получении истории доски: {}", e.getMessage(), e);
+            response.put("success", false);
+            response.put("message", "Ошибка: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+    
+    /**
+     * API истории доски: состояние доски на момент time
+     */
+    @GetMapping("/api/history/{lessonId}/at")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> getBoardAt(
+            @PathVariable Long lessonId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime time,
+            HttpSession session) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            User currentUser = sessionManager.getCurrentUser(session);
+            if (currentUser == null) {
                 response.put("success", false);
-                response.put("message", "Некорректные данные изображения");
-                return ResponseEntity.badRequest().body(response);
+                response.put("message", "Не авторизован");
+                return ResponseEntity.status(401).body(response);
             }
-
-            int commaIdx = dataUrl.indexOf(',');
-            if (commaIdx < 0) {
+            if (!hasLessonAccess(currentUser, lessonId)) {
                 response.put("success", false);
-                response.put("message", "Некорректный формат data URL");
-                return ResponseEntity.badRequest().body(response);
+                response.put("message", "Нет доступа к уроку");
+                return ResponseEntity.status(403).body(response);
             }
+            
+            var board = boardHistoryService.getBoardAt(lessonId, time);
+            if (board == null) {
+                response.put("success", false);
+                response.put("message", "На этот момент истории доски нет");
+                return ResponseEntity.status(404).body(response);
+            }
+            
+            response.put("success", true);
+            response.put("boardData", board.getBoardData());
+            response.put("version", board.getVersion());
+            response.put("time", board.getTime());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Ошибка при получении доски на момент времени: {}", e.getMessage(), e);
+            response.put("success", false);
+            response.put("message", "Ошибка: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+    
+    /**
+     * API истории доски: воспроизведение урока с момента from до момента to
+     */
+    @GetMapping("/api/history/{lessonId}/replay")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> replayBoard(
+            @PathVariable Long lessonId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "500") int limit,
+            HttpSession session) {
+        Map<String, Object> response = new HashMap<>();
+        
+        try {
+            User currentUser = sessionManager.getCurrentUser(session);
+            if (currentUser == null) {
+                response.put("success", false);
+                response.put("message", "Не авторизован");
+                return ResponseEntity.status(401).body(response);
+            }
+            if (!hasLessonAccess(currentUser, lessonId)) {
+                response.put("success", false);
+                response.put("message", "Нет доступа к уроку");
+                return ResponseEntity.status(403).body(response);
+            }
+            
+            response.putAll(boardHistoryService.replay(lessonId, from, to != null ? to : LocalDateTime.now(), limit));
+            response.put("success", true);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Ошибка при воспроизведении доски: {}", e.getMessage(), e);
+            response.put("success", false);
+            response.put("message", "Ошибка: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    /**
+     * API для загрузки изображения доски: тело запроса — сам файл (Content-Type: image/*).
+     * Файл пишется на диск потоком, без буферизации в памяти.
+     */
+    @PostMapping(value = "/api/upload-image/{lessonId}",
+            consumes = {MediaType.IMAGE_PNG_VALUE, MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_GIF_VALUE, "image/webp"})
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> uploadImageStream(
+            @PathVariable Long lessonId,
+            HttpServletRequest request,
+            HttpSession session) {
+        return storeImage(lessonId, session, request::getInputStream);
+    }
+
+    /**
+     * API для загрузки изображения доски формой (multipart/form-data, поле file)
+     */
+    @PostMapping(value = "/api/upload-image/{lessonId}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> uploadImageMultipart(
+            @PathVariable Long lessonId,
+            @RequestParam("file") MultipartFile file,
+            HttpSession session) {
+        return storeImage(lessonId, session, file::getInputStream);
+    }
+
+    /**
+     * API для загрузки изображения доски как base64 data URL в JSON (для старых клиентов)
+     */
+    @PostMapping(value = "/api/upload-image/{lessonId}", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> uploadImage(
+            @PathVariable Long lessonId,
+            @RequestBody Map<String, Object> request,
+            HttpSession session) {
 
-            String meta = dataUrl.substring(0, commaIdx);
-            String base64Data = dataUrl.substring(commaIdx + 1);
+        Object dataUrlObj = request.get("dataUrl");
+        String dataUrl = dataUrlObj instanceof String ? (String) dataUrlObj : null;
+        int commaIdx = dataUrl != null && dataUrl.startsWith("data:image/") ? dataUrl.indexOf(',') : -1;
+        if (commaIdx < 0) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "Некорректные данные изображения");
+            return ResponseEntity.badRequest().body(response);
+        }
 
-            String ext = ".bin";
-            if (meta.contains("image/png")) ext = ".png";
-            else if (meta.contains("image/jpeg")) ext = ".jpg";
-            else if (meta.contains("image/webp")) ext = ".webp";
-            else if (meta.contains("image/gif")) ext = ".gif";
+        // Декодируем base64 потоком прямо из строки запроса, без копии data URL в массив байтов
+        return storeImage(lessonId, session, () -> new Base64DataStream(dataUrl, commaIdx + 1));
+    }
 
-            byte[] bytes = Base64.getDecoder().decode(base64Data);
-            if (bytes.length > 20 * 1024 * 1024) {
+    private ResponseEntity<Map<String, Object>> storeImage(Long lessonId, HttpSession session,
+                                                           Callable<InputStream> source) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            User currentUser = sessionManager.getCurrentUser(session);
+            if (currentUser == null) {
                 response.put("success", false);
-                response.put("message", "Изображение слишком большое");
-                return ResponseEntity.badRequest().body(response);
+                response.put("message", "Не авторизован");
+                return ResponseEntity.status(401).body(response);
             }
 
-            Path lessonDir = Paths.get(IMAGE_STORAGE_DIR, String.valueOf(lessonId)).toAbsolutePath().normalize();
-            Files.createDirectories(lessonDir);
+            if (lessonAccessService.getParticipants(lessonId) == null) {
+                response.put("success", false);
+                response.put("message", "Урок не найден");
+                return ResponseEntity.badRequest().body(response);
+            }
+            if (!hasLessonAccess(currentUser, lessonId)) {
+                response.put("success", false);
+                response.put("message", "Нет доступа к уроку");
+                return ResponseEntity.status(403).body(response);
+            }
 
-            String fileName = UUID.randomUUID() + ext;
-            Path filePath = lessonDir.resolve(fileName);
-            Files.write(filePath, bytes);
+            WhiteboardImageStore.StoredImage image;
+            try (InputStream in = source.call()) {
+                image = whiteboardImageStore.store(lessonId, in);
+            }
 
-            String imageUrl = "/whiteboard-images/" + lessonId + "/" + fileName;
-            // Возвращаем URL через контроллер, чтобы исключить проблемы с относительными путями
-            // и гарантировать доступ только участникам урока.
-            imageUrl = "/whiteboard/api/image/" + lessonId + "/" + fileName;
+            // Отдаём через контроллер, чтобы изображение видели только участники урока
+            String baseUrl = "/whiteboard/api/image/" + lessonId + "/";
             response.put("success", true);
-            response.put("url", imageUrl);
+            response.put("url", baseUrl + image.getFileName());
+            if (image.getPreviewFileName() != null) {
+                response.put("previewUrl", baseUrl + image.getPreviewFileName());
+            }
+            response.put("duplicate", image.isDuplicate());
             return ResponseEntity.ok(response);
         } catch (IllegalArgumentException e) {
             response.put("success", false);
-            response.put("message", "Некорректный base64 изображения");
+            response.put("message", e.getMessage() != null ? e.getMessage() : "Некорректные данные изображения");
             return ResponseEntity.badRequest().body(response);
         } catch (IOException e) {
             logger.error("Ошибка сохранения изображения доски: {}", e.getMessage(), e);
@@ -307,6 +555,10 @@ public class WhiteboardController {
         }
     }
 
+    /**
+     * Выдача изображения доски. Имена файлов — хеш содержимого, поэтому файл
+     * кешируется как неизменяемый; Range-запросы обрабатываются Spring по FileSystemResource.
+     */
     @GetMapping("/api/image/{lessonId}/{fileName:.+}")
     @ResponseBody
     public ResponseEntity<Resource> getWhiteboardImage(
@@ -319,49 +571,26 @@ public class WhiteboardController {
                 return ResponseEntity.status(401).build();
             }
 
-            Optional<Lesson> lessonOpt = lessonRepository.findById(lessonId);
-            if (lessonOpt.isEmpty()) {
-                return ResponseEntity.notFound().build();
-            }
-
-            Lesson lesson = lessonOpt.get();
-            boolean hasAccess = false;
-            if (currentUser.getRole().equals(UserRole.ADMIN) || currentUser.getRole().equals(UserRole.MANAGER)) {
-                hasAccess = true;
-            } else if (lesson.getStudent() != null && lesson.getStudent().getId().equals(currentUser.getId())) {
-                hasAccess = true;
-            } else if (lesson.getTeacher() != null && lesson.getTeacher().getId().equals(currentUser.getId())) {
-                hasAccess = true;
-            }
-
-            if (!hasAccess) {
+            if (!hasLessonAccess(currentUser, lessonId)) {
                 return ResponseEntity.status(403).build();
             }
 
-            Path lessonDir = Paths.get(IMAGE_STORAGE_DIR, String.valueOf(lessonId)).toAbsolutePath().normalize();
-            Path filePath = lessonDir.resolve(fileName).normalize();
-
             // Защита от path traversal
-            if (!filePath.startsWith(lessonDir)) {
+            Path filePath = whiteboardImageStore.resolve(lessonId, fileName);
+            if (filePath == null) {
                 return ResponseEntity.badRequest().build();
             }
-            if (!Files.exists(filePath) || !Files.isRegularFile(filePath)) {
+            if (!Files.isRegularFile(filePath)) {
                 return ResponseEntity.notFound().build();
             }
 
-            Resource resource = new UrlResource(filePath.toUri());
-            String contentType = Files.probeContentType(filePath);
-            MediaType mediaType = MediaType.APPLICATION_OCTET_STREAM;
-            if (contentType != null) {
-                try {
-                    mediaType = MediaType.parseMediaType(contentType);
-                } catch (Exception ignored) {
-                }
-            }
+            Resource resource = new FileSystemResource(filePath);
+            MediaType mediaType = MediaTypeFactory.getMediaType(resource).orElse(MediaType.APPLICATION_OCTET_STREAM);
 
             return ResponseEntity.ok()
                     .contentType(mediaType)
-                    .header(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000")
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .cacheControl(CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable())
                     .body(resource);
         } catch (Exception e) {
             logger.error("Ошибка выдачи изображения доски: {}", e.getMessage(), e);
@@ -398,5 +627,87 @@ public class WhiteboardController {
             return ResponseEntity.status(500).body(response);
         }
     }
-}
+    
+    /**
+     * Участник урока (ученик или преподаватель), администратор или менеджер.
+     * Участники берутся из кеша, поэтому частые запросы (изображения доски) не обращаются к БД.
+     */
+    private boolean hasLessonAccess(User user, Long lessonId) {
+        if (user.getRole().equals(UserRole.ADMIN) || user.getRole().equals(UserRole.MANAGER)) {
+            return true;
+        }
+        LessonParticipants participants = lessonAccessService.getParticipants(lessonId);
+        return participants != null && participants.includes(user.getId());
+    }
+
+    /**
+     * Декодированные байты base64 из строки. Ошибка декодера (недопустимый символ, обрыв)
+     * — это некорректные данные клиента, поэтому она выдаётся как IllegalArgumentException (ответ 400)
+     */
+    private static class Base64DataStream extends FilterInputStream {
+
+        Base64DataStream(String text, int start) {
+            super(Base64.getDecoder().wrap(new AsciiInputStream(text, start)));
+        }
+
+        @Override
+        public int read() {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            try {
+                return super.read(buffer, offset, length);
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+
+        private static IllegalArgumentException invalid(IOException e) {
+            return new IllegalArgumentException("Некорректный base64 изображения", e);
+        }
+    }
 
+    /**
+     * Поток байтов ASCII-строки начиная с позиции start (base64 состоит только из ASCII).
+     * Символ вне ASCII отдаётся как '?', чтобы декодер base64 отклонил его, а не принял усечённый байт.
+     */
+    private static class AsciiInputStream extends InputStream {
+        private final String text;
+        private int position;
+
+        AsciiInputStream(String text, int start) {
+            this.text = text;
+            this.position = start;
+        }
+
+        @Override
+        public int read() {
+            return position < text.length() ? asciiByte(text.charAt(position++)) : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int count = Math.min(length, text.length() - position);
+            if (count <= 0) {
+                return -1;
+            }
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) asciiByte(text.charAt(position++));
+            }
+            return count;
+        }
+
+        private static int asciiByte(char c) {
+            return c < 0x80 ? c : '?';
+        }
+    }
+}
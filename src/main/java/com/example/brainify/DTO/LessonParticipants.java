@@ -0,0 +1,36 @@
+package com.example.brainify.DTO;
+
+/**
+ * Участники урока для проверки доступа (кешируется по ID урока)
+ */
+public class LessonParticipants {
+    private final Long lessonId;
+    private final Long studentId;
+    private final Long teacherId;
+    
+    public LessonParticipants(Long lessonId, Long studentId, Long teacherId) {
+        this.lessonId = lessonId;
+        this.studentId = studentId;
+        this.teacherId = teacherId;
+    }
+    
+    /**
+     * Является ли пользователь учеником или преподавателем урока
+     */
+    public boolean includes(Long userId) {
+        return userId != null && (userId.equals(studentId) || userId.equals(teacherId));
+    }
+    
+    // Геттеры
+    public Long getLessonId() {
+        return lessonId;
+    }
+    
+    public Long getStudentId() {
+        return studentId;
+    }
+    
+    public Long getTeacherId() {
+        return teacherId;
+    }
+}
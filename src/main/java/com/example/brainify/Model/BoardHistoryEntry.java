@@ -0,0 +1,73 @@
+package com.example.brainify.Model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Запись истории доски (только добавление).
+ * FULL — полный снимок доски, DELTA — элементы, изменившиеся с предыдущей записи.
+ * Состояние на момент T = последний FULL до T + все DELTA после него до T.
+ */
+@Entity
+@Table(name = "board_history", indexes = {
+    @Index(name = "idx_board_history_lesson", columnList = "lesson_id, board_version"),
+    @Index(name = "idx_board_history_created", columnList = "created_at")
+})
+public class BoardHistoryEntry {
+
+    public enum Kind {
+        FULL,   // полный снимок доски
+        DELTA   // изменения с предыдущей записи
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "lesson_id", nullable = false)
+    private Long lessonId;
+
+    @Column(name = "board_version", nullable = false)
+    private Long boardVersion;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "kind", nullable = false, length = 8)
+    private Kind kind;
+
+    // {elements, appState} в формате BoardSnapshotCodec
+    @Column(name = "data", nullable = false, columnDefinition = "BYTEA")
+    private byte[] data;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    // Конструкторы
+    public BoardHistoryEntry() {}
+
+    public BoardHistoryEntry(Long lessonId, Long boardVersion, Kind kind, byte[] data) {
+        this.lessonId = lessonId;
+        this.boardVersion = boardVersion;
+        this.kind = kind;
+        this.data = data;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    // Геттеры и сеттеры
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getLessonId() { return lessonId; }
+    public void setLessonId(Long lessonId) { this.lessonId = lessonId; }
+
+    public Long getBoardVersion() { return boardVersion; }
+    public void setBoardVersion(Long boardVersion) { this.boardVersion = boardVersion; }
+
+    public Kind getKind() { return kind; }
+    public void setKind(Kind kind) { this.kind = kind; }
+
+    public byte[] getData() { return data; }
+    public void setData(byte[] data) { this.data = data; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,85 @@
+package com.example.brainify.Model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Операция над одним элементом доски (журнал изменений).
+ * Клиент присылает только изменённые элементы, сервер дописывает их сюда,
+ * а компактор периодически сворачивает журнал в снимок BoardState.
+ */
+@Entity
+@Table(name = "board_operations", indexes = {
+    @Index(name = "idx_board_ops_lesson", columnList = "lesson_id, id")
+})
+public class BoardOperation {
+
+    public enum OpType {
+        UPSERT,     // элемент добавлен или изменён
+        DELETE,     // элемент удалён
+        APP_STATE   // изменились настройки доски (appState)
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "lesson_id", nullable = false)
+    private Long lessonId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "op_type", nullable = false, length = 16)
+    private OpType opType;
+
+    @Column(name = "element_id", length = 64)
+    private String elementId;
+
+    @Column(name = "element_version")
+    private Long elementVersion;
+
+    @Column(name = "payload", columnDefinition = "TEXT")
+    private String payload; // JSON элемента (или appState), null для DELETE
+
+    @Column(name = "author_id")
+    private Long authorId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    // Конструкторы
+    public BoardOperation() {}
+
+    public BoardOperation(Long lessonId, OpType opType, String elementId, Long elementVersion, String payload) {
+        this.lessonId = lessonId;
+        this.opType = opType;
+        this.elementId = elementId;
+        this.elementVersion = elementVersion;
+        this.payload = payload;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    // Геттеры и сеттеры
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getLessonId() { return lessonId; }
+    public void setLessonId(Long lessonId) { this.lessonId = lessonId; }
+
+    public OpType getOpType() { return opType; }
+    public void setOpType(OpType opType) { this.opType = opType; }
+
+    public String getElementId() { return elementId; }
+    public void setElementId(String elementId) { this.elementId = elementId; }
+
+    public Long getElementVersion() { return elementVersion; }
+    public void setElementVersion(Long elementVersion) { this.elementVersion = elementVersion; }
+
+    public String getPayload() { return payload; }
+    public void setPayload(String payload) { this.payload = payload; }
+
+    public Long getAuthorId() { return authorId; }
+    public void setAuthorId(Long authorId) { this.authorId = authorId; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
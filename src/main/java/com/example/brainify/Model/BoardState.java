@@ -2,6 +2,7 @@ package com.example.brainify.Model;
 
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 @Entity
@@ -25,6 +26,11 @@ public class BoardState {
     @Column(name = "board_content", columnDefinition = "TEXT")
     private String boardContent; // Альтернативное поле (для совместимости)
     
+    // Сжатый снимок доски (см. BoardSnapshotCodec); заменяет board_data/board_content
+    @Column(name = "snapshot", columnDefinition = "BYTEA")
+    @JsonIgnore
+    private byte[] snapshot;
+    
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt = LocalDateTime.now();
     
@@ -32,7 +38,7 @@ public class BoardState {
     private LocalDateTime updatedAt = LocalDateTime.now();
     
     @Column(name = "version")
-    private Long version = 1L; // Версия для оптимистичной блокировки
+    private Long version = 1L; // Версия доски (растёт с каждым изменением)
     
     // Конструкторы
     public BoardState() {}
@@ -88,6 +94,20 @@ public class BoardState {
         this.updatedAt = LocalDateTime.now();
     }
     
+    public byte[] getSnapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * Записывает сжатый снимок и очищает устаревшие текстовые колонки
+     */
+    public void setSnapshot(byte[] snapshot) {
+        this.snapshot = snapshot;
+        this.boardData = null;
+        this.boardContent = null;
+        this.updatedAt = LocalDateTime.now();
+    }
+    
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -115,10 +135,9 @@ public class BoardState {
     @PreUpdate
     protected void onUpdate() {
         updatedAt = LocalDateTime.now();
+        // Версию ведёт WhiteboardService (доска в памяти), здесь только страхуемся от null
         if (version == null) {
             version = 1L;
-        } else {
-            version++;
         }
     }
 }
@@ -0,0 +1,113 @@
+package com.example.brainify.Model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Сводка переписки двух пользователей.
+ * Пара хранится упорядоченной: userLowId < userHighId. Строка обновляется в той же
+ * транзакции, что и отправка/прочтение сообщений, поэтому счётчики непрочитанных,
+ * список контактов и выбор сотрудника поддержки не сканируют chat_messages.
+ */
+@Entity
+@Table(name = "chat_conversations",
+       uniqueConstraints = @UniqueConstraint(name = "uk_chat_conversation_pair", columnNames = {"user_low_id", "user_high_id"}),
+       indexes = {
+           @Index(name = "idx_chat_conversation_low", columnList = "user_low_id"),
+           @Index(name = "idx_chat_conversation_high", columnList = "user_high_id")
+       })
+public class ChatConversation {
+
+    // Длина сохраняемого превью последнего сообщения
+    public static final int PREVIEW_LENGTH = 200;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_low_id", nullable = false)
+    private Long userLowId;
+
+    @Column(name = "user_high_id", nullable = false)
+    private Long userHighId;
+
+    @Column(name = "last_message_id", nullable = false)
+    private Long lastMessageId;
+
+    @Column(name = "last_message_at", nullable = false)
+    private LocalDateTime lastMessageAt;
+
+    @Column(name = "last_message_preview", length = 255)
+    private String lastMessagePreview;
+
+    // Непрочитанные сообщения, адресованные userLowId
+    @Column(name = "unread_low", nullable = false)
+    private Integer unreadLow = 0;
+
+    // Непрочитанные сообщения, адресованные userHighId
+    @Column(name = "unread_high", nullable = false)
+    private Integer unreadHigh = 0;
+
+    // Отметки прочтения: ID последнего сообщения переписки, которое видел userLowId / userHighId.
+    // Сообщение прочитано получателем, если его ID не больше отметки получателя.
+    @Column(name = "read_low_id", nullable = false, columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private Long readLowId = 0L;
+
+    @Column(name = "read_high_id", nullable = false, columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private Long readHighId = 0L;
+
+    // Конструкторы
+    public ChatConversation() {}
+
+    /**
+     * ID собеседника пользователя userId в этой переписке
+     */
+    public Long getPartnerId(Long userId) {
+        return userLowId.equals(userId) ? userHighId : userLowId;
+    }
+
+    /**
+     * Число непрочитанных сообщений, адресованных пользователю userId
+     */
+    public int getUnreadFor(Long userId) {
+        return userLowId.equals(userId) ? unreadLow : unreadHigh;
+    }
+
+    /**
+     * Отметка прочтения пользователя userId
+     */
+    public long getReadWatermarkFor(Long userId) {
+        return userLowId.equals(userId) ? readLowId : readHighId;
+    }
+
+    // Геттеры и сеттеры
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Long getUserLowId() { return userLowId; }
+    public void setUserLowId(Long userLowId) { this.userLowId = userLowId; }
+
+    public Long getUserHighId() { return userHighId; }
+    public void setUserHighId(Long userHighId) { this.userHighId = userHighId; }
+
+    public Long getLastMessageId() { return lastMessageId; }
+    public void setLastMessageId(Long lastMessageId) { this.lastMessageId = lastMessageId; }
+
+    public LocalDateTime getLastMessageAt() { return lastMessageAt; }
+    public void setLastMessageAt(LocalDateTime lastMessageAt) { this.lastMessageAt = lastMessageAt; }
+
+    public String getLastMessagePreview() { return lastMessagePreview; }
+    public void setLastMessagePreview(String lastMessagePreview) { this.lastMessagePreview = lastMessagePreview; }
+
+    public Integer getUnreadLow() { return unreadLow; }
+    public void setUnreadLow(Integer unreadLow) { this.unreadLow = unreadLow; }
+
+    public Integer getUnreadHigh() { return unreadHigh; }
+    public void setUnreadHigh(Integer unreadHigh) { this.unreadHigh = unreadHigh; }
+
+    public Long getReadLowId() { return readLowId; }
+    public void setReadLowId(Long readLowId) { this.readLowId = readLowId; }
+
+    public Long getReadHighId() { return readHighId; }
+    public void setReadHighId(Long readHighId) { this.readHighId = readHighId; }
+}
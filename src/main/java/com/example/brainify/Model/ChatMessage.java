@@ -5,12 +5,14 @@ import java.time.LocalDateTime;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
+// Индекс по упорядоченной паре для постраничной истории — выражение, создаётся
+// в add-chat-pair-time-index.sql: (LEAST(sender_id, receiver_id), GREATEST(...), created_at, id)
 @Entity
 @Table(name = "chat_messages", indexes = {
     @Index(name = "idx_chat_sender", columnList = "sender_id"),
     @Index(name = "idx_chat_receiver", columnList = "receiver_id"),
     @Index(name = "idx_chat_created", columnList = "created_at"),
-    @Index(name = "idx_chat_pair", columnList = "sender_id, receiver_id")
+    @Index(name = "idx_chat_direction_id", columnList = "sender_id, receiver_id, id")
 })
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 public class ChatMessage {
@@ -30,11 +32,23 @@ public class ChatMessage {
     @Column(columnDefinition = "TEXT")
     private String content;
 
-    // Файловое вложение (хранится в БД как BLOB)
-    @Lob
-    @Column(name = "file_data")
+    // Ключ вложения в ChatAttachmentStore; само содержимое в строке сообщения не хранится.
+    // У старых сообщений содержимое ещё может лежать в колонке file_data до переноса.
+    @Column(name = "file_key", length = 64)
     @JsonIgnore
-    private byte[] fileData;
+    private String fileKey;
+
+    // Уменьшенная копия изображения для списка сообщений (ключ в ChatAttachmentStore).
+    // Если копию построить нельзя, ключ совпадает с fileKey — показывается оригинал.
+    @Column(name = "thumb_key", length = 64)
+    @JsonIgnore
+    private String thumbKey;
+
+    @Column(name = "thumb_width")
+    private Integer thumbWidth;
+
+    @Column(name = "thumb_height")
+    private Integer thumbHeight;
 
     @Column(name = "file_name")
     private String fileName;
@@ -48,6 +62,7 @@ public class ChatMessage {
     @Column(name = "file_size")
     private Long fileSize;
 
+    // Прочтение хранится отметкой в chat_conversations; флаг остаётся для сообщений до её появления
     @Column(name = "is_read", nullable = false)
     private Boolean isRead = false;
 
@@ -77,8 +92,17 @@ public class ChatMessage {
     public String getContent() { return content; }
     public void setContent(String content) { this.content = content; }
 
-    public byte[] getFileData() { return fileData; }
-    public void setFileData(byte[] fileData) { this.fileData = fileData; }
+    public String getFileKey() { return fileKey; }
+    public void setFileKey(String fileKey) { this.fileKey = fileKey; }
+
+    public String getThumbKey() { return thumbKey; }
+    public void setThumbKey(String thumbKey) { this.thumbKey = thumbKey; }
+
+    public Integer getThumbWidth() { return thumbWidth; }
+    public void setThumbWidth(Integer thumbWidth) { this.thumbWidth = thumbWidth; }
+
+    public Integer getThumbHeight() { return thumbHeight; }
+    public void setThumbHeight(Integer thumbHeight) { this.thumbHeight = thumbHeight; }
 
     public String getFileName() { return fileName; }
     public void setFileName(String fileName) { this.fileName = fileName; }
@@ -100,7 +124,7 @@ public class ChatMessage {
 
     // Утилиты
     public boolean hasFile() {
-        return fileData != null && fileData.length > 0;
+        return fileName != null;
     }
 
     public boolean isImage() {
@@ -0,0 +1,51 @@
+package com.example.brainify.Repository;
+
+import com.example.brainify.Model.BoardHistoryEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface BoardHistoryRepository extends JpaRepository<BoardHistoryEntry, Long> {
+
+    // Оглавление истории урока без самих снимков: id, версия, вид, время
+    @Query("SELECT h.id, h.boardVersion, h.kind, h.createdAt FROM BoardHistoryEntry h " +
+           "WHERE h.lessonId = :lessonId ORDER BY h.boardVersion ASC")
+    List<Object[]> findTimelineByLessonId(@Param("lessonId") Long lessonId);
+
+    // Последний полный снимок не позже момента time
+    Optional<BoardHistoryEntry> findFirstByLessonIdAndKindAndCreatedAtLessThanEqualOrderByBoardVersionDesc(
+            Long lessonId, BoardHistoryEntry.Kind kind, LocalDateTime time);
+
+    // Записи после версии fromVersion (не включая) и не позже момента time
+    List<BoardHistoryEntry> findByLessonIdAndBoardVersionGreaterThanAndCreatedAtLessThanEqualOrderByBoardVersionAsc(
+            Long lessonId, Long fromVersion, LocalDateTime time, Pageable pageable);
+
+    // Записи урока старше cutoff (прореживание)
+    List<BoardHistoryEntry> findByLessonIdAndCreatedAtBeforeOrderByBoardVersionAsc(Long lessonId, LocalDateTime cutoff);
+
+    // Уроки, у которых есть дельты старше cutoff
+    @Query("SELECT DISTINCT h.lessonId FROM BoardHistoryEntry h " +
+           "WHERE h.kind = com.example.brainify.Model.BoardHistoryEntry.Kind.DELTA AND h.createdAt < :cutoff")
+    List<Long> findLessonIdsWithDeltasBefore(@Param("cutoff") LocalDateTime cutoff);
+
+    // Уроки, у которых старше cutoff больше одной записи (архивация)
+    @Query("SELECT h.lessonId FROM BoardHistoryEntry h WHERE h.createdAt < :cutoff " +
+           "GROUP BY h.lessonId HAVING COUNT(h) > 1")
+    List<Long> findLessonIdsWithSeveralEntriesBefore(@Param("cutoff") LocalDateTime cutoff);
+
+    // Удалить записи урока старше cutoff, кроме keepId
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM BoardHistoryEntry h WHERE h.lessonId = :lessonId AND h.createdAt < :cutoff AND h.id <> :keepId")
+    int deleteBeforeExcept(@Param("lessonId") Long lessonId, @Param("cutoff") LocalDateTime cutoff,
+                           @Param("keepId") Long keepId);
+}
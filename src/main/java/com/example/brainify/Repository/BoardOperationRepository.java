@@ -0,0 +1,29 @@
+package com.example.brainify.Repository;
+
+import com.example.brainify.Model.BoardOperation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface BoardOperationRepository extends JpaRepository<BoardOperation, Long> {
+
+    // Несвёрнутые операции урока в порядке записи
+    List<BoardOperation> findByLessonIdOrderByIdAsc(Long lessonId);
+
+    // Уроки, у которых есть операции для компактора и последняя из них старше cutoff
+    @Query("SELECT o.lessonId FROM BoardOperation o GROUP BY o.lessonId HAVING MAX(o.createdAt) < :cutoff")
+    List<Long> findLessonIdsWithOperationsBefore(@Param("cutoff") LocalDateTime cutoff);
+
+    // Удалить операции, уже свёрнутые в снимок
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM BoardOperation o WHERE o.lessonId = :lessonId AND o.id <= :maxId")
+    void deleteCompacted(@Param("lessonId") Long lessonId, @Param("maxId") Long maxId);
+}
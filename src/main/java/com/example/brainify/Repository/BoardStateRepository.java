@@ -26,6 +26,9 @@ public interface BoardStateRepository extends JpaRepository<BoardState, Long> {
     @Query("SELECT bs FROM BoardState bs WHERE bs.lesson.id = :lessonId ORDER BY bs.updatedAt DESC, bs.version DESC")
     List<BoardState> findByLessonIdOrderByUpdatedAtDesc(@Param("lessonId") Long lessonId);
     
+    // Записи, ещё не переведённые в сжатый снимок, после afterId (миграция пачками)
+    List<BoardState> findTop50BySnapshotIsNullAndIdGreaterThanOrderByIdAsc(Long afterId);
+    
     // Удалить состояние доски для урока
     void deleteByLesson(Lesson lesson);
 }
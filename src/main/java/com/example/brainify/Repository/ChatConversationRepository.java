@@ -0,0 +1,123 @@
+package com.example.brainify.Repository;
+
+import com.example.brainify.Model.ChatConversation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ChatConversationRepository extends JpaRepository<ChatConversation, Long> {
+
+    // Переписка упорядоченной пары (lowId < highId)
+    Optional<ChatConversation> findByUserLowIdAndUserHighId(Long userLowId, Long userHighId);
+
+    // Переписки пользователя с собеседниками из списка
+    @Query("SELECT c FROM ChatConversation c " +
+           "WHERE (c.userLowId = :userId AND c.userHighId IN :partnerIds) " +
+           "   OR (c.userHighId = :userId AND c.userLowId IN :partnerIds)")
+    List<ChatConversation> findByUserAndPartners(@Param("userId") Long userId,
+                                                 @Param("partnerIds") Collection<Long> partnerIds);
+
+    // Самая свежая переписка пользователя с кем-то из списка (назначенный сотрудник поддержки)
+    @Query("SELECT c FROM ChatConversation c " +
+           "WHERE (c.userLowId = :userId AND c.userHighId IN :partnerIds) " +
+           "   OR (c.userHighId = :userId AND c.userLowId IN :partnerIds) " +
+           "ORDER BY c.lastMessageAt DESC LIMIT 1")
+    Optional<ChatConversation> findLatestWithPartners(@Param("userId") Long userId,
+                                                      @Param("partnerIds") Collection<Long> partnerIds);
+
+    // Общее число непрочитанных сообщений пользователя
+    @Query("SELECT COALESCE(SUM(CASE WHEN c.userLowId = :userId THEN c.unreadLow ELSE c.unreadHigh END), 0) " +
+           "FROM ChatConversation c WHERE c.userLowId = :userId OR c.userHighId = :userId")
+    long sumUnread(@Param("userId") Long userId);
+
+    // Число собеседников у каждого пользователя из списка: [userId, count]
+    @Query(value = "SELECT u.id, " +
+           "  (SELECT COUNT(*) FROM chat_conversations c WHERE c.user_low_id = u.id) + " +
+           "  (SELECT COUNT(*) FROM chat_conversations c WHERE c.user_high_id = u.id) " +
+           "FROM users u WHERE u.id IN (:userIds)", nativeQuery = true)
+    List<Object[]> countPartners(@Param("userIds") Collection<Long> userIds);
+
+    // Новое сообщение: создать или обновить сводку пары одним запросом (атомарно при параллельной отправке).
+    // Сообщение не выше отметки прочтения (записалось уже после того, как читатель её сдвинул)
+    // считается прочитанным и счётчик не увеличивает
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO chat_conversations (user_low_id, user_high_id, last_message_id, last_message_at, " +
+           "    last_message_preview, unread_low, unread_high) " +
+           "VALUES (:lowId, :highId, :messageId, :messageAt, :preview, :unreadLow, :unreadHigh) " +
+           "ON CONFLICT (user_low_id, user_high_id) DO UPDATE SET " +
+           "  unread_low = chat_conversations.unread_low + CASE WHEN EXCLUDED.last_message_id > chat_conversations.read_low_id " +
+           "    THEN EXCLUDED.unread_low ELSE 0 END, " +
+           "  unread_high = chat_conversations.unread_high + CASE WHEN EXCLUDED.last_message_id > chat_conversations.read_high_id " +
+           "    THEN EXCLUDED.unread_high ELSE 0 END, " +
+           "  last_message_at = CASE WHEN EXCLUDED.last_message_id > chat_conversations.last_message_id " +
+           "    THEN EXCLUDED.last_message_at ELSE chat_conversations.last_message_at END, " +
+           "  last_message_preview = CASE WHEN EXCLUDED.last_message_id > chat_conversations.last_message_id " +
+           "    THEN EXCLUDED.last_message_preview ELSE chat_conversations.last_message_preview END, " +
+           "  last_message_id = GREATEST(EXCLUDED.last_message_id, chat_conversations.last_message_id)",
+           nativeQuery = true)
+    int recordMessage(@Param("lowId") Long lowId,
+                      @Param("highId") Long highId,
+                      @Param("messageId") Long messageId,
+                      @Param("messageAt") LocalDateTime messageAt,
+                      @Param("preview") String preview,
+                      @Param("unreadLow") int unreadLow,
+                      @Param("unreadHigh") int unreadHigh);
+
+    // Прочтение: сдвинуть отметку читателя до watermark и уменьшить его счётчик непрочитанных
+    // на число сообщений собеседника между старой и новой отметкой. Счётчик уменьшается, а не
+    // пересчитывается, поэтому параллельная отправка (инкремент той же строки) не теряется.
+    // Отметка не уходит дальше last_message_id: присланное клиентом значение не должно
+    // «закрыть» ещё не записанные сообщения (см. условие инкремента в recordMessage).
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE chat_conversations c SET " +
+           "  unread_low = CASE WHEN c.user_low_id = :readerId AND LEAST(:watermark, c.last_message_id) > c.read_low_id " +
+           "    THEN GREATEST(c.unread_low - (SELECT COUNT(*) FROM chat_messages m " +
+           "         WHERE m.sender_id = :partnerId AND m.receiver_id = :readerId " +
+           "           AND m.id > c.read_low_id AND m.id <= LEAST(:watermark, c.last_message_id)), 0) " +
+           "    ELSE c.unread_low END, " +
+           "  unread_high = CASE WHEN c.user_high_id = :readerId AND LEAST(:watermark, c.last_message_id) > c.read_high_id " +
+           "    THEN GREATEST(c.unread_high - (SELECT COUNT(*) FROM chat_messages m " +
+           "         WHERE m.sender_id = :partnerId AND m.receiver_id = :readerId " +
+           "           AND m.id > c.read_high_id AND m.id <= LEAST(:watermark, c.last_message_id)), 0) " +
+           "    ELSE c.unread_high END, " +
+           "  read_low_id = CASE WHEN c.user_low_id = :readerId " +
+           "    THEN GREATEST(c.read_low_id, LEAST(:watermark, c.last_message_id)) ELSE c.read_low_id END, " +
+           "  read_high_id = CASE WHEN c.user_high_id = :readerId " +
+           "    THEN GREATEST(c.read_high_id, LEAST(:watermark, c.last_message_id)) ELSE c.read_high_id END " +
+           "WHERE c.user_low_id = LEAST(:readerId, :partnerId) AND c.user_high_id = GREATEST(:readerId, :partnerId)",
+           nativeQuery = true)
+    int advanceReadWatermark(@Param("readerId") Long readerId,
+                             @Param("partnerId") Long partnerId,
+                             @Param("watermark") Long watermark);
+
+    // Заполнение сводок по уже существующим сообщениям (пары, для которых сводки ещё нет)
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO chat_conversations (user_low_id, user_high_id, last_message_id, last_message_at, " +
+           "    last_message_preview, unread_low, unread_high) " +
+           "SELECT DISTINCT ON (t.low_id, t.high_id) t.low_id, t.high_id, t.id, t.created_at, t.preview, " +
+           "       t.unread_low, t.unread_high " +
+           "FROM (SELECT LEAST(m.sender_id, m.receiver_id) AS low_id, GREATEST(m.sender_id, m.receiver_id) AS high_id, " +
+           "             m.id, m.created_at, " +
+           "             CASE WHEN m.file_name IS NOT NULL THEN LEFT('📎 ' || m.file_name, 200) " +
+           "                  ELSE LEFT(m.content, 200) END AS preview, " +
+           "             COUNT(*) FILTER (WHERE m.is_read = false AND m.receiver_id < m.sender_id) OVER p AS unread_low, " +
+           "             COUNT(*) FILTER (WHERE m.is_read = false AND m.receiver_id > m.sender_id) OVER p AS unread_high " +
+           "      FROM chat_messages m " +
+           "      WHERE m.sender_id <> m.receiver_id " +
+           "      WINDOW p AS (PARTITION BY LEAST(m.sender_id, m.receiver_id), GREATEST(m.sender_id, m.receiver_id))) t " +
+           "ORDER BY t.low_id, t.high_id, t.created_at DESC, t.id DESC " +
+           "ON CONFLICT (user_low_id, user_high_id) DO NOTHING", nativeQuery = true)
+    int backfillFromMessages();
+}
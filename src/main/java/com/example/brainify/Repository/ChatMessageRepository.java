@@ -1,7 +1,6 @@
 package com.example.brainify.Repository;
 
 import com.example.brainify.Model.ChatMessage;
-import com.example.brainify.Model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -15,66 +14,110 @@ import java.util.List;
 @Repository
 public interface ChatMessageRepository extends JpaRepository<ChatMessage, Long> {
 
-    // Получить сообщения между двумя пользователями (отсортированные по времени)
-    @Query("SELECT m FROM ChatMessage m " +
-           "WHERE (m.sender.id = :userId1 AND m.receiver.id = :userId2) " +
-           "   OR (m.sender.id = :userId2 AND m.receiver.id = :userId1) " +
-           "ORDER BY m.createdAt ASC")
-    List<ChatMessage> findMessagesBetweenUsers(@Param("userId1") Long userId1,
-                                                @Param("userId2") Long userId2);
+    // Колонки сущности без file_data и условие на упорядоченную пару (lowId < highId).
+    // Условие совпадает с индексом idx_chat_pair_time (add-chat-pair-time-index.sql),
+    // поэтому страница переписки — один проход по индексу в любую сторону.
+    // Таблица секционирована по месяцам created_at (add-chat-messages-partitioning.sql):
+    // каждый запрос ограничивает created_at, чтобы планировщик отбрасывал ненужные секции,
+    // а сортировка по created_at читает секции по порядку и останавливается на LIMIT.
+    String MESSAGE_COLUMNS = "m.id, m.sender_id, m.receiver_id, m.content, m.file_key, m.thumb_key, " +
+                             "m.thumb_width, m.thumb_height, m.file_name, m.file_type, m.mime_type, m.file_size, " +
+                             "m.is_read, m.created_at";
+    String PAIR_CONDITION = "LEAST(m.sender_id, m.receiver_id) = :lowId " +
+                            "AND GREATEST(m.sender_id, m.receiver_id) = :highId";
 
-    // Получить новые сообщения после определённого времени (для polling)
-    @Query("SELECT m FROM ChatMessage m " +
-           "WHERE ((m.sender.id = :userId1 AND m.receiver.id = :userId2) " +
-           "    OR (m.sender.id = :userId2 AND m.receiver.id = :userId1)) " +
-           "  AND m.createdAt > :after " +
-           "ORDER BY m.createdAt ASC")
-    List<ChatMessage> findNewMessages(@Param("userId1") Long userId1,
-                                       @Param("userId2") Long userId2,
-                                       @Param("after") LocalDateTime after);
+    // Последняя страница переписки (от новых к старым); untilAt отсекает заранее созданные будущие секции
+    @Query(value = "SELECT " + MESSAGE_COLUMNS + " FROM chat_messages m WHERE " + PAIR_CONDITION + " " +
+           "AND m.created_at <= :untilAt " +
+           "ORDER BY m.created_at DESC, m.id DESC LIMIT :limit", nativeQuery = true)
+    List<ChatMessage> findLatestPage(@Param("lowId") Long lowId,
+                                     @Param("highId") Long highId,
+                                     @Param("untilAt") LocalDateTime untilAt,
+                                     @Param("limit") int limit);
 
-    // Пометить все сообщения от пользователя как прочитанные
-    @Modifying
-    @Transactional
-    @Query("UPDATE ChatMessage m SET m.isRead = true " +
-           "WHERE m.sender.id = :senderId AND m.receiver.id = :receiverId AND m.isRead = false")
-    void markAsRead(@Param("senderId") Long senderId, @Param("receiverId") Long receiverId);
+    // Страница сообщений старше курсора (createdAt, id), от новых к старым
+    @Query(value = "SELECT " + MESSAGE_COLUMNS + " FROM chat_messages m WHERE " + PAIR_CONDITION + " " +
+           "AND m.created_at <= :beforeAt AND (m.created_at, m.id) < (:beforeAt, :beforeId) " +
+           "ORDER BY m.created_at DESC, m.id DESC LIMIT :limit", nativeQuery = true)
+    List<ChatMessage> findPageBefore(@Param("lowId") Long lowId,
+                                     @Param("highId") Long highId,
+                                     @Param("beforeAt") LocalDateTime beforeAt,
+                                     @Param("beforeId") Long beforeId,
+                                     @Param("limit") int limit);
+
+    // Сообщения после курсора afterId (догрузка); since ограничивает просмотр индекса по времени
+    @Query(value = "SELECT " + MESSAGE_COLUMNS + " FROM chat_messages m WHERE " + PAIR_CONDITION + " " +
+           "AND m.created_at >= :since AND m.id > :afterId " +
+           "ORDER BY m.created_at ASC, m.id ASC", nativeQuery = true)
+    List<ChatMessage> findAfterId(@Param("lowId") Long lowId,
+                                  @Param("highId") Long highId,
+                                  @Param("afterId") Long afterId,
+                                  @Param("since") LocalDateTime since);
+
+    // Сообщения, вложение которых ещё лежит в колонке file_data
+    // (@Lob byte[] на PostgreSQL хранился как large object, в колонке — его oid)
+    @Query(value = "SELECT m.id FROM chat_messages m " +
+           "WHERE m.file_data IS NOT NULL AND m.file_key IS NULL ORDER BY m.id LIMIT :limit", nativeQuery = true)
+    List<Long> findIdsWithLegacyFile(@Param("limit") int limit);
+
+    // oid large object со старым вложением
+    @Query(value = "SELECT CAST(m.file_data AS BIGINT) FROM chat_messages m WHERE m.id = :messageId", nativeQuery = true)
+    Long findLegacyFileOid(@Param("messageId") Long messageId);
 
-    // Количество непрочитанных сообщений от конкретного пользователя
-    @Query("SELECT COUNT(m) FROM ChatMessage m " +
-           "WHERE m.sender.id = :senderId AND m.receiver.id = :receiverId AND m.isRead = false")
-    long countUnreadFrom(@Param("senderId") Long senderId, @Param("receiverId") Long receiverId);
+    // Содержимое старого вложения
+    @Query(value = "SELECT lo_get(CAST(:oid AS OID))", nativeQuery = true)
+    byte[] readLargeObject(@Param("oid") Long oid);
 
-    // Общее количество непрочитанных сообщений для пользователя
-    @Query("SELECT COUNT(m) FROM ChatMessage m WHERE m.receiver.id = :userId AND m.isRead = false")
-    long countTotalUnread(@Param("userId") Long userId);
+    // Вложение перенесено в хранилище: запоминаем ключ и отвязываем large object
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE chat_messages SET file_key = :fileKey, file_data = NULL WHERE id = :messageId",
+           nativeQuery = true)
+    int moveLegacyFile(@Param("messageId") Long messageId, @Param("fileKey") String fileKey);
 
-    // Последнее сообщение между двумя пользователями
-    @Query("SELECT m FROM ChatMessage m " +
-           "WHERE (m.sender.id = :userId1 AND m.receiver.id = :userId2) " +
-           "   OR (m.sender.id = :userId2 AND m.receiver.id = :userId1) " +
-           "ORDER BY m.createdAt DESC LIMIT 1")
-    ChatMessage findLastMessage(@Param("userId1") Long userId1, @Param("userId2") Long userId2);
+    // Удаление отвязанного large object
+    @Transactional
+    @Query(value = "SELECT lo_unlink(CAST(:oid AS OID))", nativeQuery = true)
+    Integer unlinkLargeObject(@Param("oid") Long oid);
 
-    // Все уникальные собеседники пользователя (кто писал или кому писал)
-    @Query("SELECT DISTINCT u FROM User u WHERE u.id IN (" +
-           "  SELECT m.receiver.id FROM ChatMessage m WHERE m.sender.id = :userId " +
-           "  UNION " +
-           "  SELECT m.sender.id FROM ChatMessage m WHERE m.receiver.id = :userId" +
-           ")")
-    List<User> findChatPartners(@Param("userId") Long userId);
+    // Полнотекстовый поиск по перепискам пользователя (колонка search_vector и GIN-индекс —
+    // add-chat-search-vector.sql). Результаты от новых к старым не позже untilAt, курсор (untilAt, beforeId);
+    // фрагмент с подсветкой строится только для строк страницы.
+    // Строка: id, sender_id, receiver_id, created_at, file_name, snippet, partner_id, partner_name, partner_role
+    @Query(value = "SELECT p.id, p.sender_id, p.receiver_id, p.created_at, p.file_name, " +
+           "       ts_headline('russian', COALESCE(p.content, ''), websearch_to_tsquery('russian', :query), :headlineOptions), " +
+           "       u.id, u.name, u.role " +
+           "FROM (SELECT m.id, m.sender_id, m.receiver_id, m.created_at, m.file_name, m.content " +
+           "      FROM chat_messages m " +
+           "      WHERE m.search_vector @@ websearch_to_tsquery('russian', :query) " +
+           "        AND (m.sender_id = :userId OR m.receiver_id = :userId) " +
+           "        AND (CAST(:partnerId AS BIGINT) IS NULL " +
+           "             OR (LEAST(m.sender_id, m.receiver_id) = LEAST(:userId, CAST(:partnerId AS BIGINT)) " +
+           "                 AND GREATEST(m.sender_id, m.receiver_id) = GREATEST(:userId, CAST(:partnerId AS BIGINT)))) " +
+           "        AND m.created_at <= :untilAt " +
+           "        AND (CAST(:beforeId AS BIGINT) IS NULL " +
+           "             OR (m.created_at, m.id) < (:untilAt, CAST(:beforeId AS BIGINT))) " +
+           "      ORDER BY m.created_at DESC, m.id DESC LIMIT :limit) p " +
+           "JOIN users u ON u.id = CASE WHEN p.sender_id = :userId THEN p.receiver_id ELSE p.sender_id END " +
+           "ORDER BY p.created_at DESC, p.id DESC", nativeQuery = true)
+    List<Object[]> searchMessages(@Param("userId") Long userId,
+                                  @Param("query") String query,
+                                  @Param("partnerId") Long partnerId,
+                                  @Param("untilAt") LocalDateTime untilAt,
+                                  @Param("beforeId") Long beforeId,
+                                  @Param("headlineOptions") String headlineOptions,
+                                  @Param("limit") int limit);
 
-    // Количество сообщений между двумя пользователями (для проверки существования переписки)
-    @Query("SELECT COUNT(m) FROM ChatMessage m " +
-           "WHERE (m.sender.id = :userId1 AND m.receiver.id = :userId2) " +
-           "   OR (m.sender.id = :userId2 AND m.receiver.id = :userId1)")
-    long countMessagesBetween(@Param("userId1") Long userId1, @Param("userId2") Long userId2);
+    // Изображения, для которых ещё не построена уменьшенная копия
+    List<ChatMessage> findTop20ByMimeTypeStartingWithAndFileKeyIsNotNullAndThumbKeyIsNullOrderByIdAsc(String mimePrefix);
 
-    // Количество уникальных собеседников пользователя
-    @Query("SELECT COUNT(DISTINCT CASE " +
-           "WHEN m.sender.id = :userId THEN m.receiver.id " +
-           "ELSE m.sender.id END) " +
-           "FROM ChatMessage m " +
-           "WHERE m.sender.id = :userId OR m.receiver.id = :userId")
-    long countUniqueChatPartners(@Param("userId") Long userId);
+    // Сохранить уменьшенную копию изображения
+    @Modifying
+    @Transactional
+    @Query("UPDATE ChatMessage m SET m.thumbKey = :thumbKey, m.thumbWidth = :width, m.thumbHeight = :height " +
+           "WHERE m.id = :messageId")
+    int setThumbnail(@Param("messageId") Long messageId,
+                     @Param("thumbKey") String thumbKey,
+                     @Param("width") Integer width,
+                     @Param("height") Integer height);
 }
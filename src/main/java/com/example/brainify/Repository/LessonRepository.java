@@ -15,6 +15,10 @@ import java.util.Optional;
 @Repository
 public interface LessonRepository extends JpaRepository<Lesson, Long> {
     
+    // ID ученика и преподавателя урока (проверка доступа без загрузки пользователей)
+    @Query("SELECT s.id, t.id FROM Lesson l LEFT JOIN l.student s LEFT JOIN l.teacher t WHERE l.id = :lessonId")
+    List<Object[]> findParticipantIds(@Param("lessonId") Long lessonId);
+    
     // Найти уроки студента
     List<Lesson> findByStudentOrderByLessonDateAsc(User student);
     
@@ -39,6 +39,11 @@ public interface StudentTeacherRepository extends JpaRepository<StudentTeacher,
     @Query("SELECT st FROM StudentTeacher st WHERE st.student = :student AND st.teacher = :teacher AND st.subject = :subject AND st.isActive = true")
     Optional<StudentTeacher> findActiveByStudentTeacherAndSubject(@Param("student") User student, @Param("teacher") User teacher, @Param("subject") Subject subject);
     
+    // ID учеников и преподавателей, связанных с пользователем активными связями (в любую сторону)
+    @Query("SELECT DISTINCT CASE WHEN st.student.id = :userId THEN st.teacher.id ELSE st.student.id END " +
+           "FROM StudentTeacher st WHERE (st.student.id = :userId OR st.teacher.id = :userId) AND st.isActive = true")
+    List<Long> findRelatedUserIds(@Param("userId") Long userId);
+    
     // Деактивировать все связи студента по предмету (для смены преподавателя)
     @Modifying
     @Transactional
@@ -9,6 +9,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -75,6 +76,17 @@ public interface UserRepository extends JpaRepository<User, Long> {
     // Поиск пользователей без установленного часового пояса
     List<User> findByTimezoneIsNull();
 
+    // Собеседники админа/менеджера: активные пользователи ролей activeRoles и все пользователи
+    // ролей staffRoles, кроме себя; query — необязательный фильтр по имени
+    @Query("SELECT u FROM User u WHERE u.id <> :userId AND " +
+           "(u.role IN :staffRoles OR (u.role IN :activeRoles AND u.isActive = true)) AND " +
+           "(:query IS NULL OR LOWER(u.name) LIKE LOWER(CONCAT('%', :query, '%')))")
+    List<User> findChatContactsForStaff(@Param("userId") Long userId,
+                                        @Param("activeRoles") Collection<UserRole> activeRoles,
+                                        @Param("staffRoles") Collection<UserRole> staffRoles,
+                                        @Param("query") String query,
+                                        Pageable pageable);
+
     @Query("SELECT DISTINCT u FROM User u JOIN u.subjects s " +
            "WHERE u.role = :role AND s.id = :subjectId AND u.isActive = true")
     List<User> findActiveByRoleAndSubject(@Param("role") UserRole role,
@@ -0,0 +1,297 @@
+package com.example.brainify.Service;
+
+import com.example.brainify.Model.BoardHistoryEntry;
+import com.example.brainify.Repository.BoardHistoryRepository;
+import com.example.brainify.Utils.BoardSnapshotCodec;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * История досок уроков: журнал полных снимков и дельт в board_history.
+ *
+ * Записи пишутся из фоновой записи досок (WhiteboardService.flushDirtyBoards),
+ * чтения идут напрямую в БД и не затрагивают доски в памяти, поэтому
+ * просмотр истории не влияет на задержки активного урока.
+ */
+@Service
+public class BoardHistoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoardHistoryService.class);
+
+    private static final int MAX_REPLAY_FRAMES = 2000;
+
+    /**
+     * Состояние доски на момент времени
+     */
+    public static class HistoricBoard {
+        private final long version;
+        private final LocalDateTime time;
+        private final String boardData;
+
+        HistoricBoard(long version, LocalDateTime time, String boardData) {
+            this.version = version;
+            this.time = time;
+            this.boardData = boardData;
+        }
+
+        public long getVersion() { return version; }
+        public LocalDateTime getTime() { return time; }
+        public String getBoardData() { return boardData; }
+    }
+
+    @Autowired
+    private BoardHistoryRepository boardHistoryRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Каждая какая по счёту запись истории сохраняется полным снимком
+    @Value("${app.whiteboard.history.full-every:50}")
+    private int fullEvery;
+
+    // Сколько дней хранится подробная история; дальше — один снимок на день
+    @Value("${app.whiteboard.history.retention-days:14}")
+    private long retentionDays;
+
+    // Через сколько дней от истории урока остаётся только последний снимок
+    @Value("${app.whiteboard.history.archive-days:180}")
+    private long archiveDays;
+
+    /**
+     * Дописывает в историю изменения доски с предыдущей записи
+     */
+    public void record(LiveBoard board) {
+        LiveBoard.HistoryRecord record = board.takeHistoryRecord(fullEvery);
+        if (record == null) {
+            return;
+        }
+        try {
+            boardHistoryRepository.save(new BoardHistoryEntry(board.getLessonId(), record.getVersion(),
+                    record.isFull() ? BoardHistoryEntry.Kind.FULL : BoardHistoryEntry.Kind.DELTA,
+                    BoardSnapshotCodec.encode(record.getData())));
+        } catch (Exception e) {
+            board.resetHistory();
+            logger.error("Ошибка записи истории доски урока {}: {}", board.getLessonId(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Оглавление истории урока: версии и время записей без данных
+     */
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> getTimeline(Long lessonId) {
+        List<Map<String, Object>> timeline = new ArrayList<>();
+        for (Object[] row : boardHistoryRepository.findTimelineByLessonId(lessonId)) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("id", row[0]);
+            item.put("version", row[1]);
+            item.put("kind", row[2]);
+            item.put("time", row[3]);
+            timeline.add(item);
+        }
+        return timeline;
+    }
+
+    /**
+     * Состояние доски на момент time: последний полный снимок до него плюс последующие дельты
+     * @return доска или null, если на тот момент истории ещё не было
+     */
+    @Transactional(readOnly = true)
+    public HistoricBoard getBoardAt(Long lessonId, LocalDateTime time) {
+        Optional<BoardHistoryEntry> fullOpt = boardHistoryRepository
+                .findFirstByLessonIdAndKindAndCreatedAtLessThanEqualOrderByBoardVersionDesc(
+                        lessonId, BoardHistoryEntry.Kind.FULL, time);
+        if (fullOpt.isEmpty()) {
+            return null;
+        }
+
+        BoardHistoryEntry full = fullOpt.get();
+        BoardBuilder builder = new BoardBuilder(decode(full));
+        BoardHistoryEntry last = full;
+        for (BoardHistoryEntry delta : boardHistoryRepository
+                .findByLessonIdAndBoardVersionGreaterThanAndCreatedAtLessThanEqualOrderByBoardVersionAsc(
+                        lessonId, full.getBoardVersion(), time, Pageable.unpaged())) {
+            builder.apply(decode(delta));
+            last = delta;
+        }
+        return new HistoricBoard(last.getBoardVersion(), last.getCreatedAt(), builder.toJson());
+    }
+
+    /**
+     * Воспроизведение урока: доска на момент from и кадры изменений до момента to.
+     * Каждый кадр — {version, kind, time, elements, appState}; элементы кадра
+     * заменяют одноимённые элементы доски (удалённые приходят с isDeleted = true).
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Object> replay(Long lessonId, LocalDateTime from, LocalDateTime to, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_REPLAY_FRAMES));
+        HistoricBoard initial = getBoardAt(lessonId, from);
+        long fromVersion = initial != null ? initial.getVersion() : 0L;
+
+        List<BoardHistoryEntry> entries = boardHistoryRepository
+                .findByLessonIdAndBoardVersionGreaterThanAndCreatedAtLessThanEqualOrderByBoardVersionAsc(
+                        lessonId, fromVersion, to, PageRequest.of(0, pageSize + 1));
+        boolean truncated = entries.size() > pageSize;
+
+        List<Map<String, Object>> frames = new ArrayList<>();
+        for (BoardHistoryEntry entry : entries.subList(0, Math.min(entries.size(), pageSize))) {
+            JsonNode data = decode(entry);
+            Map<String, Object> frame = new HashMap<>();
+            frame.put("version", entry.getBoardVersion());
+            frame.put("kind", entry.getKind());
+            frame.put("time", entry.getCreatedAt());
+            frame.put("elements", data.path("elements"));
+            frame.put("appState", data.path("appState"));
+            frames.add(frame);
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("initialVersion", fromVersion);
+        result.put("initialBoardData", initial != null ? initial.getBoardData() : null);
+        result.put("frames", frames);
+        result.put("truncated", truncated);
+        return result;
+    }
+
+    /**
+     * Прореживание истории (ежедневно ночью):
+     * старше retention-days — остаётся один полный снимок на день,
+     * старше archive-days — только последний снимок урока до этой границы.
+     */
+    @Scheduled(cron = "${app.whiteboard.history.retention-cron:0 30 3 * * *}")
+    public void thinHistory() {
+        LocalDateTime retentionCutoff = LocalDate.now().minusDays(retentionDays).atStartOfDay();
+        int thinned = 0;
+        for (Long lessonId : boardHistoryRepository.findLessonIdsWithDeltasBefore(retentionCutoff)) {
+            try {
+                thinned += thinToDaily(lessonId, retentionCutoff);
+            } catch (Exception e) {
+                logger.error("Ошибка прореживания истории доски урока {}: {}", lessonId, e.getMessage(), e);
+            }
+        }
+
+        LocalDateTime archiveCutoff = LocalDate.now().minusDays(archiveDays).atStartOfDay();
+        int archived = 0;
+        for (Long lessonId : boardHistoryRepository.findLessonIdsWithSeveralEntriesBefore(archiveCutoff)) {
+            try {
+                List<BoardHistoryEntry> old = boardHistoryRepository
+                        .findByLessonIdAndCreatedAtBeforeOrderByBoardVersionAsc(lessonId, archiveCutoff);
+                BoardHistoryEntry keep = old.get(old.size() - 1);
+                if (keep.getKind() == BoardHistoryEntry.Kind.FULL) {
+                    archived += boardHistoryRepository.deleteBeforeExcept(lessonId, archiveCutoff, keep.getId());
+                }
+            } catch (Exception e) {
+                logger.error("Ошибка архивации истории доски урока {}: {}", lessonId, e.getMessage(), e);
+            }
+        }
+
+        if (thinned > 0 || archived > 0) {
+            logger.info("История досок: прорежено записей {}, архивировано {}", thinned, archived);
+        }
+    }
+
+    /**
+     * Сворачивает записи урока старше cutoff в один полный снимок на конец каждого дня
+     * @return число удалённых записей
+     */
+    private int thinToDaily(Long lessonId, LocalDateTime cutoff) {
+        List<BoardHistoryEntry> old = boardHistoryRepository
+                .findByLessonIdAndCreatedAtBeforeOrderByBoardVersionAsc(lessonId, cutoff);
+
+        Map<LocalDate, List<BoardHistoryEntry>> byDay = new LinkedHashMap<>();
+        for (BoardHistoryEntry entry : old) {
+            byDay.computeIfAbsent(entry.getCreatedAt().toLocalDate(), day -> new ArrayList<>()).add(entry);
+        }
+
+        // Дни идут по порядку: снимок конца дня строится от уже свёрнутого предыдущего дня
+        int removed = 0;
+        for (List<BoardHistoryEntry> day : byDay.values()) {
+            BoardHistoryEntry last = day.get(day.size() - 1);
+            List<BoardHistoryEntry> toDelete = new ArrayList<>(day);
+            if (last.getKind() == BoardHistoryEntry.Kind.FULL) {
+                toDelete.remove(last);
+            } else {
+                HistoricBoard board = getBoardAt(lessonId, last.getCreatedAt());
+                if (board == null) {
+                    continue; // нет полного снимка, от которого строить — оставляем день как есть
+                }
+                BoardHistoryEntry full = new BoardHistoryEntry(lessonId, last.getBoardVersion(),
+                        BoardHistoryEntry.Kind.FULL, BoardSnapshotCodec.encode(board.getBoardData()));
+                full.setCreatedAt(last.getCreatedAt());
+                boardHistoryRepository.save(full);
+            }
+            boardHistoryRepository.deleteAll(toDelete);
+            removed += toDelete.size();
+        }
+        return removed;
+    }
+
+    private JsonNode decode(BoardHistoryEntry entry) {
+        try {
+            return objectMapper.readTree(BoardSnapshotCodec.decode(entry.getData()));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Повреждённая запись истории доски " + entry.getId(), e);
+        }
+    }
+
+    /**
+     * Собирает доску из полного снимка и дельт: элементы заменяются по id
+     */
+    private class BoardBuilder {
+        private final List<JsonNode> elementsWithoutId = new ArrayList<>();
+        private final Map<String, JsonNode> elements = new LinkedHashMap<>();
+        private JsonNode appState;
+
+        BoardBuilder(JsonNode full) {
+            apply(full);
+        }
+
+        void apply(JsonNode data) {
+            for (JsonNode element : data.path("elements")) {
+                String key = LiveBoard.elementKey(element.get("id"));
+                if (key != null) {
+                    elements.put(key, element);
+                } else {
+                    elementsWithoutId.add(element);
+                }
+            }
+            if (data.hasNonNull("appState")) {
+                appState = data.get("appState");
+            }
+        }
+
+        String toJson() {
+            ObjectNode board = objectMapper.createObjectNode();
+            ArrayNode array = board.putArray("elements");
+            elementsWithoutId.forEach(array::add);
+            elements.values().forEach(array::add);
+            board.set("appState", appState != null ? appState : objectMapper.createObjectNode());
+            try {
+                return objectMapper.writeValueAsString(board);
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("Ошибка сериализации доски: " + e.getOriginalMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.brainify.Service;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Хранилище вложений чата. В строке сообщения остаются только метаданные и ключ,
+ * содержимое пишется и читается потоком. Реализация по умолчанию — локальная
+ * файловая система (LocalChatAttachmentStore); объектное хранилище подключается
+ * отдельной реализацией этого интерфейса.
+ */
+public interface ChatAttachmentStore {
+
+    /**
+     * Результат сохранения вложения
+     */
+    class StoredAttachment {
+        private final String key;
+        private final long size;
+
+        public StoredAttachment(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+
+        public String getKey() { return key; }
+        public long getSize() { return size; }
+    }
+
+    /**
+     * Сохраняет содержимое из потока
+     * @throws IllegalArgumentException если содержимое больше maxBytes
+     */
+    StoredAttachment store(InputStream in, long maxBytes) throws IOException;
+
+    /**
+     * Вложение по ключу
+     * @return ресурс или null, если вложения нет
+     */
+    Resource load(String key);
+}
@@ -0,0 +1,279 @@
+package com.example.brainify.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Помесячные секции chat_messages (таблица секционируется скриптом add-chat-messages-partitioning.sql).
+ *
+ * Раз в сутки создаёт секции на ahead-months месяцев вперёд, чтобы новые сообщения
+ * не попадали в секцию по умолчанию, и переносит секции старше archive.after-months
+ * в сжатые файлы JSON Lines в archive.dir, после чего отсоединяет и удаляет их.
+ * Сообщения, успевшие попасть в секцию по умолчанию до создания секции своего месяца,
+ * переносятся в неё при создании.
+ * Вложения остаются в ChatAttachmentStore — в архиве сохраняются их ключи.
+ * Пока таблица не секционирована, задача ничего не делает.
+ */
+@Service
+public class ChatPartitionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatPartitionService.class);
+
+    private static final String PARTITION_PREFIX = "chat_messages_p";
+    private static final String DEFAULT_PARTITION = "chat_messages_default";
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    // Колонки, которые попадают в архив (без search_vector и старой колонки file_data)
+    private static final String ARCHIVE_COLUMNS = "id, sender_id, receiver_id, content, file_key, " +
+            "thumb_key, thumb_width, thumb_height, file_name, file_type, mime_type, file_size, is_read, created_at";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // На сколько месяцев вперёд держать готовые секции
+    @Value("${app.chat.partitions.ahead-months:3}")
+    private int aheadMonths;
+
+    // Секции старше стольких месяцев уходят в архив; 0 — не архивировать
+    @Value("${app.chat.archive.after-months:0}")
+    private int archiveAfterMonths;
+
+    @Value("${app.chat.archive.dir:archive/chat-messages}")
+    private String archiveDir;
+
+    /**
+     * Создаёт недостающие секции сразу после запуска (например, после долгого простоя)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createPartitionsOnStartup() {
+        try {
+            if (isPartitioned()) {
+                createUpcomingPartitions();
+            }
+        } catch (Exception e) {
+            logger.error("Ошибка создания секций сообщений чата: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Обслуживание секций (ежедневно ночью): новые секции вперёд и архивация старых
+     */
+    @Scheduled(cron = "${app.chat.partitions.cron:0 15 3 * * *}")
+    public void maintainPartitions() {
+        try {
+            if (!isPartitioned()) {
+                return;
+            }
+            createUpcomingPartitions();
+        } catch (Exception e) {
+            logger.error("Ошибка создания секций сообщений чата: {}", e.getMessage(), e);
+            return;
+        }
+        if (archiveAfterMonths <= 0) {
+            return;
+        }
+
+        YearMonth cutoff = YearMonth.now().minusMonths(archiveAfterMonths);
+        for (String partition : findMonthlyPartitions()) {
+            YearMonth month = YearMonth.parse(partition.substring(PARTITION_PREFIX.length()), PARTITION_SUFFIX);
+            if (!month.isBefore(cutoff)) {
+                continue;
+            }
+            try {
+                archivePartition(partition);
+            } catch (Exception e) {
+                logger.error("Ошибка архивации секции {}: {}", partition, e.getMessage(), e);
+            }
+        }
+    }
+
+    private boolean isPartitioned() {
+        Boolean partitioned = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table pt JOIN pg_class c ON c.oid = pt.partrelid " +
+                "WHERE c.relname = 'chat_messages' AND pg_table_is_visible(c.oid))", Boolean.class);
+        return Boolean.TRUE.equals(partitioned);
+    }
+
+    private void createUpcomingPartitions() {
+        YearMonth current = YearMonth.now();
+        for (int i = 0; i <= aheadMonths; i++) {
+            YearMonth month = current.plusMonths(i);
+            // Ошибка одного месяца не мешает создать следующие
+            try {
+                createPartition(month);
+            } catch (Exception e) {
+                logger.error("Секция {} за {} не создана, сообщения месяца остаются в {}: {}",
+                        partitionName(month), month, DEFAULT_PARTITION, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Создаёт секцию месяца. Если сообщения этого месяца уже попали в секцию по умолчанию
+     * (задача не успела вовремя), PostgreSQL не создаст секцию поверх них: тогда секция
+     * по умолчанию отсоединяется, строки месяца переносятся в новую секцию и секция
+     * по умолчанию подсоединяется обратно — одним блоком DO, то есть в одной транзакции.
+     */
+    private void createPartition(YearMonth month) {
+        String partition = partitionName(month);
+        if (relationExists(partition)) {
+            return;
+        }
+        // Имя и границы строятся из даты, а не из пользовательского ввода
+        String from = month.atDay(1).toString();
+        String to = month.plusMonths(1).atDay(1).toString();
+        if (!hasDefaultRows(month)) {
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partition +
+                    " PARTITION OF chat_messages FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            return;
+        }
+
+        logger.warn("Сообщения за {} лежат в {}, переносим их в новую секцию {}", month, DEFAULT_PARTITION, partition);
+        jdbcTemplate.execute(
+                "DO $$\n" +
+                "DECLARE\n" +
+                "    cols TEXT;\n" +
+                "BEGIN\n" +
+                // Вычисляемая search_vector пересчитывается сама
+                "    SELECT string_agg(quote_ident(column_name), ', ' ORDER BY ordinal_position) INTO cols\n" +
+                "    FROM information_schema.columns\n" +
+                "    WHERE table_schema = current_schema() AND table_name = 'chat_messages' AND is_generated = 'NEVER';\n" +
+                "    ALTER TABLE chat_messages DETACH PARTITION " + DEFAULT_PARTITION + ";\n" +
+                "    CREATE TABLE " + partition + " PARTITION OF chat_messages FOR VALUES FROM ('" + from + "') TO ('" + to + "');\n" +
+                "    EXECUTE format('INSERT INTO chat_messages (%s) OVERRIDING SYSTEM VALUE SELECT %s FROM " + DEFAULT_PARTITION +
+                " WHERE created_at >= %L AND created_at < %L', cols, cols, '" + from + "', '" + to + "');\n" +
+                "    DELETE FROM " + DEFAULT_PARTITION + " WHERE created_at >= '" + from + "' AND created_at < '" + to + "';\n" +
+                "    ALTER TABLE chat_messages ATTACH PARTITION " + DEFAULT_PARTITION + " DEFAULT;\n" +
+                "END $$");
+        logger.info("Секция {} создана, сообщения за {} перенесены из {}", partition, month, DEFAULT_PARTITION);
+    }
+
+    private boolean relationExists(String name) {
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, name);
+        return Boolean.TRUE.equals(exists);
+    }
+
+    /**
+     * Есть ли в секции по умолчанию сообщения за месяц
+     */
+    private boolean hasDefaultRows(YearMonth month) {
+        if (!relationExists(DEFAULT_PARTITION)) {
+            return false;
+        }
+        Boolean exists = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION + " WHERE created_at >= ? AND created_at < ?)",
+                Boolean.class, month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay());
+        return Boolean.TRUE.equals(exists);
+    }
+
+    /**
+     * Помесячные секции chat_messages по возрастанию (секция по умолчанию не входит)
+     */
+    private List<String> findMonthlyPartitions() {
+        return jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_inherits i " +
+                "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent " +
+                "WHERE p.relname = 'chat_messages' AND pg_table_is_visible(p.oid) " +
+                "AND c.relname ~ '^" + PARTITION_PREFIX + "[0-9]{6}$' ORDER BY c.relname", String.class);
+    }
+
+    /**
+     * Выгружает секцию в archive.dir/&lt;секция&gt;.jsonl.gz, затем отсоединяет и удаляет её.
+     * Если в секции появились строки во время выгрузки, секция остаётся до следующего запуска.
+     */
+    private void archivePartition(String partition) throws IOException {
+        if (hasLegacyFiles(partition)) {
+            // Вложения в file_data ещё не перенесены в хранилище — архивировать рано
+            logger.warn("Секция {} содержит неперенесённые вложения, архивация отложена", partition);
+            return;
+        }
+
+        Path dir = Paths.get(archiveDir).toAbsolutePath().normalize();
+        Files.createDirectories(dir);
+        Path target = dir.resolve(partition + ".jsonl.gz");
+        Path temp = Files.createTempFile(dir, partition + "-", ".tmp");
+        try {
+            long exported = exportPartition(partition, temp);
+            Long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + partition, Long.class);
+            if (rows == null || rows != exported) {
+                logger.warn("Секция {} изменилась во время выгрузки, архивация отложена", partition);
+                return;
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            jdbcTemplate.execute("ALTER TABLE chat_messages DETACH PARTITION " + partition);
+            jdbcTemplate.execute("DROP TABLE " + partition);
+            logger.info("Секция {} перенесена в архив {}: сообщений {}", partition, target, exported);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private long exportPartition(String partition, Path file) throws IOException {
+        long[] count = {0};
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+            jdbcTemplate.query("SELECT " + ARCHIVE_COLUMNS + " FROM " + partition + " ORDER BY created_at, id", rs -> {
+                ResultSetMetaData meta = rs.getMetaData();
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    Object value = rs.getObject(i);
+                    row.put(meta.getColumnLabel(i),
+                            value instanceof Timestamp timestamp ? timestamp.toLocalDateTime().toString() : value);
+                }
+                try {
+                    out.write(objectMapper.writeValueAsString(row).getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            });
+        }
+        return count[0];
+    }
+
+    private boolean hasLegacyFiles(String partition) {
+        Boolean hasColumn = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM information_schema.columns " +
+                "WHERE table_schema = current_schema() AND table_name = 'chat_messages' AND column_name = 'file_data')",
+                Boolean.class);
+        if (!Boolean.TRUE.equals(hasColumn)) {
+            return false;
+        }
+        Boolean hasFiles = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + partition + " WHERE file_data IS NOT NULL)", Boolean.class);
+        return Boolean.TRUE.equals(hasFiles);
+    }
+
+    private static String partitionName(YearMonth month) {
+        return PARTITION_PREFIX + month.format(PARTITION_SUFFIX);
+    }
+}
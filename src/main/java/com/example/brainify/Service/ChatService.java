@@ -2,28 +2,78 @@ package com.example.brainify.Service;
 
 import com.example.brainify.Model.*;
 import com.example.brainify.Repository.*;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
-
+import org.springframework.web.util.HtmlUtils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Service
 public class ChatService {
 
+    private static final Logger logger = LoggerFactory.getLogger(ChatService.class);
+
+    // Личная очередь событий чата: /user/queue/chat
+    public static final String CHAT_QUEUE = "/queue/chat";
+
     @Autowired
     private ChatMessageRepository chatMessageRepository;
 
+    @Autowired
+    private ChatConversationRepository chatConversationRepository;
+
+    @Autowired
+    private ChatAttachmentStore chatAttachmentStore;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    // Наибольшая сторона уменьшенной копии изображения (с запасом для экранов высокой плотности)
+    @Value("${app.chat.thumbnail-max-dim:560}")
+    private int thumbnailMaxDim;
+
     @Autowired
     private UserRepository userRepository;
 
     @Autowired
     private StudentTeacherRepository studentTeacherRepository;
 
+    @Autowired
+    private PresenceService presenceService;
+
     // Допустимые MIME-типы для вложений
     private static final Set<String> ALLOWED_MIME_TYPES = Set.of(
         // Изображения
@@ -42,14 +92,44 @@ public class ChatService {
 
     private static final long MAX_FILE_SIZE = 20 * 1024 * 1024; // 20 MB
 
+    // Наибольший размер страницы истории сообщений
+    private static final int MAX_MESSAGES_PAGE = 200;
+
+    // Запас по времени для курсора по ID
+    private static final Duration CURSOR_CLOCK_SKEW = Duration.ofMinutes(1);
+
+    // Поиск по сообщениям: размер страницы и параметры фрагмента с подсветкой.
+    // Подсветка размечается управляющими символами, которых нет в тексте, и превращается
+    // в <mark> уже после экранирования HTML
+    private static final int MAX_SEARCH_PAGE = 100;
+    private static final String HIGHLIGHT_START = "\u0001";
+    private static final String HIGHLIGHT_END = "\u0002";
+    private static final String SEARCH_HEADLINE_OPTIONS = "StartSel=" + HIGHLIGHT_START + ", StopSel=" + HIGHLIGHT_END
+            + ", MaxWords=24, MinWords=8, MaxFragments=2, FragmentDelimiter=\" … \"";
+
+    // Сколько старых вложений переносится за один запуск
+    private static final int LEGACY_ATTACHMENT_BATCH = 20;
+
+    // Наибольший размер страницы контактов
+    private static final int MAX_CONTACTS_PAGE = 500;
+
+    // Отметки прочтения, ещё не записанные в БД: "читатель:собеседник" -> ID последнего увиденного сообщения.
+    // Опросы и открытия переписки только сдвигают отметку в памяти, в БД она попадает пачкой при flushReadMarks
+    private final Map<String, Long> pendingReadMarks = new ConcurrentHashMap<>();
+
     /**
-     * Получить список контактов для текущего пользователя.
+     * Получить страницу списка контактов для текущего пользователя.
      * Логика:
      * - STUDENT: «Техподдержка» (закреплена) + все преподаватели
      * - TEACHER: «Техподдержка» (закреплена) + все ученики
      * - ADMIN/MANAGER: все ученики + все преподаватели + другие админы/менеджеры
+     * Непрочитанные и последнее сообщение для всей страницы берутся одним запросом.
+     * @param query необязательный фильтр по имени
      */
-    public List<Map<String, Object>> getContacts(User currentUser) {
+    public List<Map<String, Object>> getContacts(User currentUser, int page, int size, String query) {
+        int pageSize = Math.max(1, Math.min(size, MAX_CONTACTS_PAGE));
+        int pageNumber = Math.max(0, page);
+        String filter = query != null && !query.isBlank() ? query.trim().toLowerCase() : null;
         List<Map<String, Object>> contacts = new ArrayList<>();
 
         switch (currentUser.getRole()) {
@@ -57,7 +137,7 @@ public class ChatService {
                 // Техподдержка — один назначенный админ/менеджер
                 User support = getAssignedSupportStaff(currentUser);
                 if (support != null) {
-                    addSupportContact(contacts, support, currentUser);
+                    addSupportContact(contacts, support);
                 }
 
                 // Преподаватели ученика
@@ -66,7 +146,7 @@ public class ChatService {
                 for (StudentTeacher st : links) {
                     User teacher = st.getTeacher();
                     if (addedTeachers.add(teacher.getId())) {
-                        addContact(contacts, teacher, currentUser, false, "Преподаватель — " + st.getSubject().getName());
+                        addContact(contacts, teacher, false, "Преподаватель — " + st.getSubject().getName());
                     }
                 }
             }
@@ -74,7 +154,7 @@ public class ChatService {
                 // Техподдержка — один назначенный админ/менеджер
                 User support = getAssignedSupportStaff(currentUser);
                 if (support != null) {
-                    addSupportContact(contacts, support, currentUser);
+                    addSupportContact(contacts, support);
                 }
 
                 // Ученики преподавателя
@@ -83,33 +163,29 @@ public class ChatService {
                 for (StudentTeacher st : links) {
                     User student = st.getStudent();
                     if (addedStudents.add(student.getId())) {
-                        addContact(contacts, student, currentUser, false, "Ученик — " + st.getSubject().getName());
+                        addContact(contacts, student, false, "Ученик — " + st.getSubject().getName());
                     }
                 }
             }
             case ADMIN, MANAGER -> {
-                // Все ученики
-                List<User> students = userRepository.findByRoleAndIsActiveTrue(UserRole.STUDENT);
-                for (User s : students) addContact(contacts, s, currentUser, false, "Ученик");
-
-                // Все преподаватели
-                List<User> teachers = userRepository.findByRoleAndIsActiveTrue(UserRole.TEACHER);
-                for (User t : teachers) addContact(contacts, t, currentUser, false, "Преподаватель");
-
-                // Другие менеджеры/админы
-                List<User> managers = userRepository.findByRole(UserRole.MANAGER);
-                List<User> admins = userRepository.findByRole(UserRole.ADMIN);
-                for (User m : managers) {
-                    if (!m.getId().equals(currentUser.getId()))
-                        addContact(contacts, m, currentUser, false, "Менеджер");
-                }
-                for (User a : admins) {
-                    if (!a.getId().equals(currentUser.getId()))
-                        addContact(contacts, a, currentUser, false, "Администратор");
+                // Собеседников может быть вся школа — страница выбирается в БД
+                List<User> users = userRepository.findChatContactsForStaff(currentUser.getId(),
+                        List.of(UserRole.STUDENT, UserRole.TEACHER),
+                        List.of(UserRole.MANAGER, UserRole.ADMIN),
+                        filter,
+                        PageRequest.of(pageNumber, pageSize, Sort.by(Sort.Order.asc("name").ignoreCase())));
+                for (User u : users) {
+                    addContact(contacts, u, false, staffSubtitle(u.getRole()));
                 }
+                fillConversationSummaries(contacts, currentUser);
+                return contacts;
             }
         }
 
+        if (filter != null) {
+            contacts.removeIf(c -> !((String) c.get("name")).toLowerCase().contains(filter));
+        }
+
         // Сортировка: закреплённые сверху, потом по имени
         contacts.sort((a, b) -> {
             boolean pinA = (boolean) a.get("pinned");
@@ -118,7 +194,48 @@ public class ChatService {
             return ((String) a.get("name")).compareToIgnoreCase((String) b.get("name"));
         });
 
-        return contacts;
+        int from = (int) Math.min((long) pageNumber * pageSize, contacts.size());
+        List<Map<String, Object>> pageContacts = new ArrayList<>(
+                contacts.subList(from, Math.min(from + pageSize, contacts.size())));
+        fillConversationSummaries(pageContacts, currentUser);
+        return pageContacts;
+    }
+
+    private String staffSubtitle(UserRole role) {
+        return switch (role) {
+            case STUDENT -> "Ученик";
+            case TEACHER -> "Преподаватель";
+            case MANAGER -> "Менеджер";
+            case ADMIN -> "Администратор";
+        };
+    }
+
+    /**
+     * Дописывает в контакты число непрочитанных и последнее сообщение из сводок переписок
+     */
+    private void fillConversationSummaries(List<Map<String, Object>> contacts, User currentUser) {
+        Long userId = currentUser.getId();
+        Map<Long, ChatConversation> summaries = new HashMap<>();
+        if (!contacts.isEmpty()) {
+            List<Long> ids = contacts.stream().map(c -> (Long) c.get("id")).collect(Collectors.toList());
+            for (ChatConversation conversation : chatConversationRepository.findByUserAndPartners(userId, ids)) {
+                summaries.put(conversation.getPartnerId(userId), conversation);
+            }
+        }
+
+        for (Map<String, Object> contact : contacts) {
+            contact.put("online", presenceService.isOnline((Long) contact.get("id")));
+            ChatConversation conversation = summaries.get((Long) contact.get("id"));
+            if (conversation != null) {
+                contact.put("unread", (long) conversation.getUnreadFor(userId));
+                contact.put("lastMessage", conversation.getLastMessagePreview());
+                contact.put("lastMessageTime", conversation.getLastMessageAt().toString());
+            } else {
+                contact.put("unread", 0L);
+                contact.put("lastMessage", null);
+                contact.put("lastMessageTime", null);
+            }
+        }
     }
 
     /**
@@ -134,18 +251,27 @@ public class ChatService {
         if (supportStaff.isEmpty()) return null;
         if (supportStaff.size() == 1) return supportStaff.get(0);
 
+        Map<Long, User> staffById = new LinkedHashMap<>();
+        for (User staff : supportStaff) staffById.put(staff.getId(), staff);
+
         // Если уже есть переписка — закрепляем за этим сотрудником
-        for (User staff : supportStaff) {
-            long msgCount = chatMessageRepository.countMessagesBetween(currentUser.getId(), staff.getId());
-            if (msgCount > 0) return staff;
+        Optional<ChatConversation> existing = chatConversationRepository
+                .findLatestWithPartners(currentUser.getId(), staffById.keySet());
+        if (existing.isPresent()) {
+            return staffById.get(existing.get().getPartnerId(currentUser.getId()));
         }
 
         // Нет переписки — выбираем наименее загруженного
+        Map<Long, Long> partnersByStaff = new HashMap<>();
+        for (Object[] row : chatConversationRepository.countPartners(staffById.keySet())) {
+            partnersByStaff.put(((Number) row[0]).longValue(), ((Number) row[1]).longValue());
+        }
+
         User leastBusy = supportStaff.get(0);
         long minPartners = Long.MAX_VALUE;
 
         for (User staff : supportStaff) {
-            long partners = chatMessageRepository.countUniqueChatPartners(staff.getId());
+            long partners = partnersByStaff.getOrDefault(staff.getId(), 0L);
             if (partners < minPartners) {
                 minPartners = partners;
                 leastBusy = staff;
@@ -158,7 +284,7 @@ public class ChatService {
     /**
      * Добавить контакт «Техподдержка» — закреплённый, без настоящего имени.
      */
-    private void addSupportContact(List<Map<String, Object>> contacts, User user, User currentUser) {
+    private void addSupportContact(List<Map<String, Object>> contacts, User user) {
         Map<String, Object> contact = new LinkedHashMap<>();
         contact.put("id", user.getId());
         contact.put("name", "Техподдержка");
@@ -167,24 +293,10 @@ public class ChatService {
         contact.put("subtitle", "Поддержка");
         contact.put("pinned", true);
         contact.put("isSupport", true);
-
-        long unread = chatMessageRepository.countUnreadFrom(user.getId(), currentUser.getId());
-        contact.put("unread", unread);
-
-        ChatMessage lastMsg = chatMessageRepository.findLastMessage(currentUser.getId(), user.getId());
-        if (lastMsg != null) {
-            contact.put("lastMessage", lastMsg.hasFile() ? "📎 " + lastMsg.getFileName() : lastMsg.getContent());
-            contact.put("lastMessageTime", lastMsg.getCreatedAt().toString());
-        } else {
-            contact.put("lastMessage", null);
-            contact.put("lastMessageTime", null);
-        }
-
         contacts.add(contact);
     }
 
-    private void addContact(List<Map<String, Object>> contacts, User user, User currentUser,
-                            boolean pinned, String subtitle) {
+    private void addContact(List<Map<String, Object>> contacts, User user, boolean pinned, String subtitle) {
         Map<String, Object> contact = new LinkedHashMap<>();
         contact.put("id", user.getId());
         contact.put("name", user.getName());
@@ -193,38 +305,133 @@ public class ChatService {
         contact.put("subtitle", subtitle);
         contact.put("pinned", pinned);
         contact.put("isSupport", false);
+        contacts.add(contact);
+    }
 
-        // Непрочитанные
-        long unread = chatMessageRepository.countUnreadFrom(user.getId(), currentUser.getId());
-        contact.put("unread", unread);
-
-        // Последнее сообщение
-        ChatMessage lastMsg = chatMessageRepository.findLastMessage(currentUser.getId(), user.getId());
-        if (lastMsg != null) {
-            contact.put("lastMessage", lastMsg.hasFile() ? "📎 " + lastMsg.getFileName() : lastMsg.getContent());
-            contact.put("lastMessageTime", lastMsg.getCreatedAt().toString());
+    /**
+     * Получить страницу истории сообщений между двумя пользователями (от старых к новым).
+     * Без курсора — последняя страница, с курсором beforeId — сообщения старше него.
+     */
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> getMessages(Long userId1, Long userId2, Long beforeId, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_MESSAGES_PAGE));
+        Long lowId = Math.min(userId1, userId2);
+        Long highId = Math.max(userId1, userId2);
+
+        List<ChatMessage> messages;
+        if (beforeId == null) {
+            messages = chatMessageRepository.findLatestPage(lowId, highId,
+                    LocalDateTime.now().plus(CURSOR_CLOCK_SKEW), pageSize);
         } else {
-            contact.put("lastMessage", null);
-            contact.put("lastMessageTime", null);
+            ChatMessage cursor = chatMessageRepository.findById(beforeId)
+                    .orElseThrow(() -> new RuntimeException("Сообщение не найдено"));
+            messages = chatMessageRepository.findPageBefore(lowId, highId,
+                    cursor.getCreatedAt(), cursor.getId(), pageSize);
         }
 
-        contacts.add(contact);
+        List<Map<String, Object>> result = new ArrayList<>(messages.size());
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            result.add(messageToMap(messages.get(i)));
+        }
+        applyReadMarks(result, lowId, highId);
+        return result;
     }
 
     /**
-     * Получить историю сообщений между двумя пользователями
+     * Полнотекстовый поиск по перепискам пользователя (от новых к старым).
+     * @param partnerId необязательно — искать только в переписке с этим собеседником
+     * @param beforeId необязательно — курсор: результаты старше этого сообщения
      */
-    public List<Map<String, Object>> getMessages(Long userId1, Long userId2) {
-        List<ChatMessage> messages = chatMessageRepository.findMessagesBetweenUsers(userId1, userId2);
-        return messages.stream().map(this::messageToMap).collect(Collectors.toList());
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> searchMessages(User currentUser, String query, Long partnerId,
+                                                    Long beforeId, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_SEARCH_PAGE));
+        // Верхняя граница по времени нужна всегда: по ней отбрасываются секции таблицы
+        LocalDateTime untilAt = LocalDateTime.now().plus(CURSOR_CLOCK_SKEW);
+        if (beforeId != null) {
+            untilAt = chatMessageRepository.findById(beforeId)
+                    .orElseThrow(() -> new RuntimeException("Сообщение не найдено"))
+                    .getCreatedAt();
+        }
+
+        // Ученики и преподаватели видят сотрудников поддержки без настоящего имени
+        boolean hideStaffNames = currentUser.getRole() == UserRole.STUDENT || currentUser.getRole() == UserRole.TEACHER;
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Object[] row : chatMessageRepository.searchMessages(currentUser.getId(), query, partnerId,
+                untilAt, beforeId, SEARCH_HEADLINE_OPTIONS, pageSize)) {
+            String partnerRole = (String) row[8];
+            boolean support = hideStaffNames
+                    && (UserRole.ADMIN.name().equals(partnerRole) || UserRole.MANAGER.name().equals(partnerRole));
+
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", ((Number) row[0]).longValue());
+            m.put("senderId", ((Number) row[1]).longValue());
+            m.put("receiverId", ((Number) row[2]).longValue());
+            m.put("createdAt", toLocalDateTime(row[3]).toString());
+            m.put("fileName", row[4]);
+            m.put("snippetHtml", highlightToHtml((String) row[5]));
+            m.put("partnerId", ((Number) row[6]).longValue());
+            m.put("partnerName", support ? "Техподдержка" : row[7]);
+            m.put("isSupport", support);
+            results.add(m);
+        }
+        return results;
     }
 
     /**
-     * Получить новые сообщения (для polling)
+     * Фрагмент ts_headline в безопасный HTML: текст экранируется, маркеры становятся <mark>
      */
-    public List<Map<String, Object>> getNewMessages(Long userId1, Long userId2, LocalDateTime after) {
-        List<ChatMessage> messages = chatMessageRepository.findNewMessages(userId1, userId2, after);
-        return messages.stream().map(this::messageToMap).collect(Collectors.toList());
+    private static String highlightToHtml(String headline) {
+        if (headline == null) {
+            return "";
+        }
+        return HtmlUtils.htmlEscape(headline)
+                .replace(HIGHLIGHT_START, "<mark>")
+                .replace(HIGHLIGHT_END, "</mark>");
+    }
+
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime();
+        }
+        return (LocalDateTime) value;
+    }
+
+    /**
+     * Получить сообщения после сообщения afterId (догрузка при переподключении и опросе)
+     */
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> getNewMessages(Long userId1, Long userId2, Long afterId) {
+        // Время создания и ID могут расходиться на время между созданием и сохранением сообщения,
+        // поэтому окно по времени берётся с запасом, а точная граница — по ID
+        LocalDateTime since = chatMessageRepository.findById(afterId)
+                .map(cursor -> cursor.getCreatedAt().minus(CURSOR_CLOCK_SKEW))
+                .orElse(LocalDateTime.of(1970, 1, 1, 0, 0));
+        Long lowId = Math.min(userId1, userId2);
+        Long highId = Math.max(userId1, userId2);
+        List<ChatMessage> messages = chatMessageRepository.findAfterId(lowId, highId, afterId, since);
+        List<Map<String, Object>> result = messages.stream().map(this::messageToMap).collect(Collectors.toList());
+        applyReadMarks(result, lowId, highId);
+        return result;
+    }
+
+    /**
+     * Проставляет isRead по отметкам прочтения переписки: сообщение прочитано,
+     * если его ID не больше отметки получателя (или оно помечено флагом до появления отметок)
+     */
+    private void applyReadMarks(List<Map<String, Object>> messages, Long lowId, Long highId) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        chatConversationRepository.findByUserLowIdAndUserHighId(lowId, highId).ifPresent(conversation -> {
+            for (Map<String, Object> m : messages) {
+                long watermark = conversation.getReadWatermarkFor((Long) m.get("receiverId"));
+                if ((Long) m.get("id") <= watermark) {
+                    m.put("isRead", true);
+                }
+            }
+        });
     }
 
     private Map<String, Object> messageToMap(ChatMessage msg) {
@@ -238,6 +445,10 @@ public class ChatService {
         m.put("isRead", msg.getIsRead());
         m.put("hasFile", msg.hasFile());
         if (msg.hasFile()) {
+            if (msg.isImage()) {
+                m.put("thumbWidth", msg.getThumbWidth());
+                m.put("thumbHeight", msg.getThumbHeight());
+            }
             m.put("fileName", msg.getFileName());
             m.put("fileType", msg.getFileType());
             m.put("mimeType", msg.getMimeType());
@@ -259,18 +470,19 @@ public class ChatService {
 
         ChatMessage msg = new ChatMessage(sender, receiver, content);
         msg = chatMessageRepository.save(msg);
-        return messageToMap(msg);
+        recordConversation(msg);
+        Map<String, Object> message = messageToMap(msg);
+        notifyNewMessage(message, sender.getId(), receiverId);
+        return message;
     }
 
     /**
-     * Отправить сообщение с файлом
+     * Проверяет и сохраняет вложение в хранилище, для изображений строит уменьшенную копию.
+     * Вызывается до транзакции отправки, чтобы запись файла и обработка изображения
+     * не держали соединение с БД.
+     * @return несохранённое сообщение с заполненными полями вложения
      */
-    @Transactional
-    public Map<String, Object> sendMessageWithFile(User sender, Long receiverId, String content,
-                                                     MultipartFile file) throws IOException {
-        User receiver = userRepository.findById(receiverId)
-                .orElseThrow(() -> new RuntimeException("Получатель не найден"));
-
+    public ChatMessage prepareAttachment(MultipartFile file) throws IOException {
         // Валидация файла
         if (file.getSize() > MAX_FILE_SIZE) {
             throw new RuntimeException("Файл слишком большой. Максимум: 20 МБ");
@@ -281,11 +493,17 @@ public class ChatService {
             throw new RuntimeException("Недопустимый тип файла. Разрешены: изображения, Word, Excel, PDF");
         }
 
-        ChatMessage msg = new ChatMessage(sender, receiver, content);
-        msg.setFileData(file.getBytes());
+        // Содержимое пишется в хранилище потоком, в строке сообщения — только ключ и метаданные
+        ChatAttachmentStore.StoredAttachment stored;
+        try (InputStream in = file.getInputStream()) {
+            stored = chatAttachmentStore.store(in, MAX_FILE_SIZE);
+        }
+
+        ChatMessage msg = new ChatMessage();
+        msg.setFileKey(stored.getKey());
         msg.setFileName(file.getOriginalFilename());
         msg.setMimeType(mimeType);
-        msg.setFileSize(file.getSize());
+        msg.setFileSize(stored.getSize());
 
         // Определяем расширение
         String originalName = file.getOriginalFilename();
@@ -293,12 +511,34 @@ public class ChatService {
             msg.setFileType(originalName.substring(originalName.lastIndexOf(".") + 1).toLowerCase());
         }
 
+        if (msg.isImage()) {
+            createThumbnail(msg);
+        }
+        return msg;
+    }
+
+    /**
+     * Отправить сообщение с файлом, подготовленным prepareAttachment
+     */
+    @Transactional
+    public Map<String, Object> sendMessageWithFile(User sender, Long receiverId, String content,
+                                                     ChatMessage msg) {
+        User receiver = userRepository.findById(receiverId)
+                .orElseThrow(() -> new RuntimeException("Получатель не найден"));
+
+        msg.setSender(sender);
+        msg.setReceiver(receiver);
+        msg.setContent(content);
+        msg.setCreatedAt(LocalDateTime.now());
         msg = chatMessageRepository.save(msg);
-        return messageToMap(msg);
+        recordConversation(msg);
+        Map<String, Object> message = messageToMap(msg);
+        notifyNewMessage(message, sender.getId(), receiverId);
+        return message;
     }
 
     /**
-     * Получить файл из сообщения
+     * Получить сообщение (метаданные вложения без содержимого)
      */
     public ChatMessage getMessageWithFile(Long messageId) {
         return chatMessageRepository.findById(messageId)
@@ -306,17 +546,321 @@ public class ChatService {
     }
 
     /**
-     * Пометить сообщения как прочитанные
+     * Содержимое вложения сообщения: из хранилища, а для ещё не перенесённых — из file_data
+     * @return ресурс или null, если содержимое не найдено
      */
-    @Transactional
-    public void markAsRead(Long senderId, Long receiverId) {
-        chatMessageRepository.markAsRead(senderId, receiverId);
+    public Resource openAttachment(ChatMessage msg) {
+        if (msg.getFileKey() != null) {
+            return chatAttachmentStore.load(msg.getFileKey());
+        }
+        Long oid = chatMessageRepository.findLegacyFileOid(msg.getId());
+        if (oid == null) {
+            return null;
+        }
+        return new ByteArrayResource(chatMessageRepository.readLargeObject(oid));
+    }
+
+    /**
+     * Уменьшенная копия изображения сообщения
+     * @return ресурс или null, если содержимое не найдено
+     */
+    public Resource openThumbnail(ChatMessage msg) {
+        if (msg.getThumbKey() != null) {
+            Resource thumb = chatAttachmentStore.load(msg.getThumbKey());
+            if (thumb != null) {
+                return thumb;
+            }
+        }
+        return openAttachment(msg);
+    }
+
+    /**
+     * Строит уменьшенную копию изображения msg и запоминает её ключ и размеры.
+     * Небольшие изображения и форматы, которые не читает ImageIO (WebP),
+     * показываются оригиналом: thumbKey = fileKey.
+     */
+    private void createThumbnail(ChatMessage msg) {
+        msg.setThumbKey(msg.getFileKey());
+        Resource source = chatAttachmentStore.load(msg.getFileKey());
+        if (source == null) {
+            return;
+        }
+
+        try (InputStream in = source.getInputStream();
+             ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                return;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int maxSide = Math.max(width, height);
+                if (maxSide <= thumbnailMaxDim) {
+                    msg.setThumbWidth(width);
+                    msg.setThumbHeight(height);
+                    return;
+                }
+
+                // Читаем с прореживанием: полноразмерный кадр (десятки МБ для фото с телефона) в память не попадает
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, maxSide / (thumbnailMaxDim * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage image = reader.read(0, param);
+
+                double ratio = (double) thumbnailMaxDim / maxSide;
+                int thumbWidth = Math.max(1, (int) Math.round(width * ratio));
+                int thumbHeight = Math.max(1, (int) Math.round(height * ratio));
+                BufferedImage scaled = new BufferedImage(thumbWidth, thumbHeight, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = scaled.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                // Прозрачный фон PNG заливаем белым
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, thumbWidth, thumbHeight);
+                g.drawImage(image, 0, 0, thumbWidth, thumbHeight, null);
+                g.dispose();
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(scaled, "jpg", out);
+                ChatAttachmentStore.StoredAttachment stored =
+                        chatAttachmentStore.store(new ByteArrayInputStream(out.toByteArray()), Long.MAX_VALUE);
+                msg.setThumbKey(stored.getKey());
+                msg.setThumbWidth(thumbWidth);
+                msg.setThumbHeight(thumbHeight);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Без копии список покажет оригинал
+            logger.warn("Не удалось создать уменьшенную копию вложения {}: {}", msg.getFileKey(), e.getMessage());
+        }
+    }
+
+    /**
+     * Строит уменьшенные копии для изображений, загруженных до их появления.
+     * Обрабатывает небольшую пачку за раз; старые вложения — после переноса в хранилище.
+     */
+    @Scheduled(initialDelay = 120000, fixedDelay = 600000)
+    public void backfillThumbnails() {
+        List<ChatMessage> images = chatMessageRepository
+                .findTop20ByMimeTypeStartingWithAndFileKeyIsNotNullAndThumbKeyIsNullOrderByIdAsc("image/");
+        for (ChatMessage msg : images) {
+            try {
+                createThumbnail(msg);
+                chatMessageRepository.setThumbnail(msg.getId(), msg.getThumbKey(),
+                        msg.getThumbWidth(), msg.getThumbHeight());
+            } catch (Exception e) {
+                logger.error("Ошибка создания уменьшенной копии сообщения {}: {}", msg.getId(), e.getMessage(), e);
+            }
+        }
+        if (!images.isEmpty()) {
+            logger.info("Созданы уменьшенные копии изображений чата: {}", images.size());
+        }
+    }
+
+    /**
+     * Переносит вложения старых сообщений из колонки file_data в хранилище.
+     * Обрабатывает небольшую пачку за раз, пока такие сообщения не закончатся.
+     */
+    @Scheduled(initialDelay = 60000, fixedDelay = 600000)
+    public void migrateLegacyAttachments() {
+        List<Long> ids = chatMessageRepository.findIdsWithLegacyFile(LEGACY_ATTACHMENT_BATCH);
+        int moved = 0;
+        for (Long id : ids) {
+            try {
+                Long oid = chatMessageRepository.findLegacyFileOid(id);
+                byte[] data = chatMessageRepository.readLargeObject(oid);
+                ChatAttachmentStore.StoredAttachment stored =
+                        chatAttachmentStore.store(new ByteArrayInputStream(data), Long.MAX_VALUE);
+                chatMessageRepository.moveLegacyFile(id, stored.getKey());
+                // Содержимое уже в хранилище; если удалить не удалось, остаётся лишь неиспользуемый large object
+                chatMessageRepository.unlinkLargeObject(oid);
+                moved++;
+            } catch (Exception e) {
+                logger.error("Ошибка переноса вложения сообщения {}: {}", id, e.getMessage(), e);
+            }
+        }
+        if (moved > 0) {
+            logger.info("Перенесено вложений чата в хранилище: {}", moved);
+        }
+    }
+
+    /**
+     * Пометить сообщения от senderId как прочитанные получателем receiverId.
+     * Отметка только сдвигается в памяти; в БД она попадает при ближайшем flushReadMarks.
+     * @param upToMessageId ID последнего увиденного сообщения; null — последнее сообщение переписки
+     */
+    public void markAsRead(Long senderId, Long receiverId, Long upToMessageId) {
+        if (upToMessageId == null) {
+            upToMessageId = chatConversationRepository
+                    .findByUserLowIdAndUserHighId(Math.min(senderId, receiverId), Math.max(senderId, receiverId))
+                    .map(ChatConversation::getLastMessageId)
+                    .orElse(null);
+            if (upToMessageId == null) {
+                return;
+            }
+        }
+        pendingReadMarks.merge(receiverId + ":" + senderId, upToMessageId, Math::max);
+    }
+
+    /**
+     * Записывает накопленные отметки прочтения: по одному UPDATE на переписку,
+     * сколько бы раз её ни опрашивали за интервал
+     */
+    @Scheduled(fixedDelayString = "${app.chat.read-flush-interval-ms:2000}")
+    public void flushReadMarks() {
+        for (String key : new ArrayList<>(pendingReadMarks.keySet())) {
+            Long watermark = pendingReadMarks.remove(key);
+            if (watermark == null) {
+                continue;
+            }
+            int separator = key.indexOf(':');
+            Long readerId = Long.valueOf(key.substring(0, separator));
+            Long partnerId = Long.valueOf(key.substring(separator + 1));
+            try {
+                applyReadMark(readerId, partnerId, watermark);
+            } catch (Exception e) {
+                // Вернём отметку, чтобы записать её в следующий раз
+                pendingReadMarks.merge(key, watermark, Math::max);
+                logger.error("Ошибка записи отметки прочтения {}: {}", key, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Сбрасывает отметки прочтения при остановке приложения
+     */
+    @PreDestroy
+    public void flushReadMarksOnShutdown() {
+        flushReadMarks();
+    }
+
+    private void applyReadMark(Long readerId, Long partnerId, long watermark) {
+        Long lowId = Math.min(readerId, partnerId);
+        Long highId = Math.max(readerId, partnerId);
+        Optional<ChatConversation> before = chatConversationRepository.findByUserLowIdAndUserHighId(lowId, highId);
+        if (before.isEmpty()) {
+            return;
+        }
+        // Та же граница, что и в advanceReadWatermark: отметка клиента не дальше последнего сообщения
+        Long lastMessageId = before.get().getLastMessageId();
+        if (lastMessageId != null) {
+            watermark = Math.min(watermark, lastMessageId);
+        }
+        if (watermark <= before.get().getReadWatermarkFor(readerId)) {
+            return;
+        }
+        int unreadBefore = before.get().getUnreadFor(readerId);
+        chatConversationRepository.advanceReadWatermark(readerId, partnerId, watermark);
+        int unreadAfter = chatConversationRepository.findByUserLowIdAndUserHighId(lowId, highId)
+                .map(conversation -> conversation.getUnreadFor(readerId))
+                .orElse(0);
+
+        // Другим вкладкам читателя — уменьшить счётчик, собеседнику — отметка о прочтении
+        if (unreadAfter != unreadBefore) {
+            Map<String, Object> unread = new LinkedHashMap<>();
+            unread.put("type", "unread");
+            unread.put("contactId", partnerId);
+            unread.put("delta", unreadAfter - unreadBefore);
+            pushAfterCommit(readerId, unread);
+        }
+        if (!readerId.equals(partnerId)) {
+            Map<String, Object> receipt = new LinkedHashMap<>();
+            receipt.put("type", "read");
+            receipt.put("readerId", readerId);
+            receipt.put("upToId", watermark);
+            pushAfterCommit(partnerId, receipt);
+        }
     }
 
     /**
      * Общее количество непрочитанных
      */
     public long getTotalUnread(Long userId) {
-        return chatMessageRepository.countTotalUnread(userId);
+        return chatConversationRepository.sumUnread(userId);
+    }
+
+    /**
+     * Обновляет сводку переписки в транзакции отправки сообщения
+     */
+    private void recordConversation(ChatMessage msg) {
+        Long senderId = msg.getSender().getId();
+        Long receiverId = msg.getReceiver().getId();
+        Long lowId = Math.min(senderId, receiverId);
+        Long highId = Math.max(senderId, receiverId);
+        String preview = msg.getFileName() != null ? "📎 " + msg.getFileName() : msg.getContent();
+        if (preview != null && preview.length() > ChatConversation.PREVIEW_LENGTH) {
+            preview = preview.substring(0, ChatConversation.PREVIEW_LENGTH);
+        }
+        boolean toSelf = senderId.equals(receiverId);
+        chatConversationRepository.recordMessage(lowId, highId, msg.getId(), msg.getCreatedAt(), preview,
+                !toSelf && receiverId.equals(lowId) ? 1 : 0,
+                !toSelf && receiverId.equals(highId) ? 1 : 0);
+    }
+
+    /**
+     * Заполняет сводки переписок по существующим сообщениям при первом запуске с таблицей chat_conversations
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillConversations() {
+        try {
+            if (chatConversationRepository.count() == 0) {
+                int created = chatConversationRepository.backfillFromMessages();
+                if (created > 0) {
+                    logger.info("Сводки переписок заполнены по истории сообщений: {}", created);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Ошибка заполнения сводок переписок: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Рассылает новое сообщение получателю (с приростом непрочитанных) и другим вкладкам отправителя.
+     * Сообщение самому себе непрочитанных не добавляет — как и в сводке переписки (recordConversation).
+     */
+    private void notifyNewMessage(Map<String, Object> message, Long senderId, Long receiverId) {
+        boolean toSelf = senderId.equals(receiverId);
+        Map<String, Object> toReceiver = new LinkedHashMap<>();
+        toReceiver.put("type", "message");
+        toReceiver.put("message", message);
+        toReceiver.put("unreadDelta", toSelf ? 0 : 1);
+        pushAfterCommit(receiverId, toReceiver);
+
+        if (!toSelf) {
+            Map<String, Object> toSender = new LinkedHashMap<>();
+            toSender.put("type", "message");
+            toSender.put("message", message);
+            toSender.put("unreadDelta", 0);
+            pushAfterCommit(senderId, toSender);
+        }
+    }
+
+    /**
+     * Отправляет событие в личную очередь пользователя после фиксации транзакции,
+     * чтобы клиент, догружающий данные по HTTP, уже видел изменения в БД
+     */
+    private void pushAfterCommit(Long userId, Map<String, Object> event) {
+        Runnable send = () -> {
+            try {
+                messagingTemplate.convertAndSendToUser(String.valueOf(userId), CHAT_QUEUE, event);
+            } catch (Exception e) {
+                // Клиент догонит изменения по HTTP при переподключении
+                logger.warn("Не удалось отправить событие чата пользователю {}: {}", userId, e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    send.run();
+                }
+            });
+        } else {
+            send.run();
+        }
     }
 }
@@ -0,0 +1,353 @@
+package com.example.brainify.Service;
+
+import com.example.brainify.Utils.StrokePointCodec;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ретрансляция событий рисования доски в /topic/whiteboard/{lessonId}.
+ *
+ * Промежуточные события (path-progress, shape-progress) копятся по уроку и уходят
+ * одним кадром на такт (app.whiteboard.draw-relay-hz, по умолчанию 30 Гц); из нескольких
+ * shape-progress одной сессии остаётся последний — предыдущие им уже перекрыты.
+ * Остальные события (draw-done, erase и т.д.) отправляются сразу вместе с накопленными,
+ * чтобы получатель видел их в исходном порядке.
+ *
+ * Тела событий не превращаются в объекты: каждое проверяется потоковым разбором
+ * (ровно один JSON-объект), тип читается из начала JSON, а пачка
+ * {"type":"progress-batch"|"batch","events":[...]} склеивается из исходных байтов.
+ * Кадры отправляются вне блокировки буфера, поэтому приём событий не ждёт брокер.
+ *
+ * Точки path-progress клиент может передавать компактно (поле packed, см. StrokePointCodec).
+ * Клиент, понимающий эту запись, подписывается с заголовком draw-encoding: packed;
+ * пока на урок подписан хоть один клиент без него, packed перед рассылкой
+ * разворачивается обратно в массив points. При внешнем брокере учитываются
+ * только подписки этого экземпляра.
+ */
+@Service
+public class DrawEventRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(DrawEventRelay.class);
+
+    private static final String TOPIC_PREFIX = "/topic/whiteboard/";
+    private static final byte[] TYPE_PREFIX = "{\"type\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_TYPE_LENGTH = 32;
+
+    public static final String ENCODING_HEADER = "draw-encoding";
+    public static final String ENCODING_PACKED = "packed";
+
+    // Буфер урока без событий дольше этого времени удаляется
+    private static final long IDLE_BUFFER_MS = 60_000;
+
+    /**
+     * Промежуточные события урока до ближайшего такта
+     */
+    private static class LessonBuffer {
+        // Отправка кадров урока: держится поверх выборки из буфера, чтобы кадры уходили
+        // в порядке выборки, а приём новых событий не ждал брокер
+        private final Object sendLock = new Object();
+        private final List<byte[]> events = new ArrayList<>();
+        // Позиция последнего shape-progress сессии — его заменяет следующий
+        private final Map<String, Integer> shapeProgressIndex = new HashMap<>();
+        private long lastActivity = System.currentTimeMillis();
+        private boolean closed;
+
+        List<byte[]> drain() {
+            List<byte[]> drained = new ArrayList<>(events);
+            events.clear();
+            shapeProgressIndex.clear();
+            return drained;
+        }
+    }
+
+    private final Map<Long, LessonBuffer> buffers = new ConcurrentHashMap<>();
+
+    // Подписки без поддержки packed: "sessionId:subscriptionId" -> урок, и их число по урокам
+    private final Map<String, Long> plainSubscriptions = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> plainSubscribers = new ConcurrentHashMap<>();
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.whiteboard.draw-relay-hz:30}")
+    private int relayHz;
+
+    private ScheduledExecutorService ticker;
+
+    @PostConstruct
+    public void start() {
+        long periodMs = Math.max(1, 1000 / Math.max(1, relayHz));
+        ticker = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "draw-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::flushAll, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * Принимает событие рисования участника урока
+     * @param sessionId STOMP-сессия отправителя
+     * @param payload исходный JSON события
+     */
+    public void relay(Long lessonId, String sessionId, byte[] payload) {
+        if (!isJsonObject(payload)) {
+            // Один испорченный элемент сломал бы JSON.parse всей пачки у получателей
+            logger.debug("Отброшено некорректное событие рисования урока {} от сессии {}", lessonId, sessionId);
+            return;
+        }
+        String type = eventType(payload);
+        if ("path-progress".equals(type) && hasPlainSubscribers(lessonId)) {
+            payload = unpackPoints(payload);
+        }
+        boolean progress = type != null && type.endsWith("-progress");
+
+        while (true) {
+            LessonBuffer buffer = progress
+                    ? buffers.computeIfAbsent(lessonId, id -> new LessonBuffer())
+                    : buffers.get(lessonId);
+            if (buffer == null) {
+                send(lessonId, List.of(payload), "batch");
+                return;
+            }
+            if (progress) {
+                synchronized (buffer) {
+                    if (buffer.closed) {
+                        continue; // буфер только что удалён тактом — берём новый
+                    }
+                    buffer.lastActivity = System.currentTimeMillis();
+                    if ("shape-progress".equals(type) && sessionId != null
+                            && buffer.shapeProgressIndex.containsKey(sessionId)) {
+                        buffer.events.set(buffer.shapeProgressIndex.get(sessionId), payload);
+                    } else {
+                        if ("shape-progress".equals(type) && sessionId != null) {
+                            buffer.shapeProgressIndex.put(sessionId, buffer.events.size());
+                        }
+                        buffer.events.add(payload);
+                    }
+                }
+                return;
+            }
+            // Итоговое событие уходит сразу, после накопленных промежуточных
+            synchronized (buffer.sendLock) {
+                List<byte[]> events;
+                synchronized (buffer) {
+                    if (buffer.closed) {
+                        continue;
+                    }
+                    buffer.lastActivity = System.currentTimeMillis();
+                    events = buffer.drain();
+                }
+                events.add(payload);
+                send(lessonId, events, "batch");
+            }
+            return;
+        }
+    }
+
+    /**
+     * Тело события — ровно один JSON-объект (проверка потоковым разбором без построения дерева)
+     */
+    private boolean isJsonObject(byte[] payload) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            parser.skipChildren();
+            return parser.nextToken() == null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        Long lessonId = lessonIdOf(accessor.getDestination());
+        if (lessonId == null || ENCODING_PACKED.equals(accessor.getFirstNativeHeader(ENCODING_HEADER))) {
+            return;
+        }
+        if (plainSubscriptions.put(accessor.getSessionId() + ":" + accessor.getSubscriptionId(), lessonId) == null) {
+            plainSubscribers.merge(lessonId, 1, Integer::sum);
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        removePlainSubscription(accessor.getSessionId() + ":" + accessor.getSubscriptionId());
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        String prefix = event.getSessionId() + ":";
+        for (String key : plainSubscriptions.keySet()) {
+            if (key.startsWith(prefix)) {
+                removePlainSubscription(key);
+            }
+        }
+    }
+
+    private void removePlainSubscription(String key) {
+        Long lessonId = plainSubscriptions.remove(key);
+        if (lessonId != null) {
+            plainSubscribers.computeIfPresent(lessonId, (id, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private boolean hasPlainSubscribers(Long lessonId) {
+        return plainSubscribers.containsKey(lessonId);
+    }
+
+    /**
+     * Заменяет поле packed массивом points для клиентов без поддержки компактной записи
+     */
+    private byte[] unpackPoints(byte[] payload) {
+        try {
+            JsonNode node = objectMapper.readTree(payload);
+            if (!(node instanceof ObjectNode event) || !event.hasNonNull("packed")) {
+                return payload;
+            }
+            double[] coords = StrokePointCodec.decode(event.remove("packed").asText());
+            ArrayNode points = event.putArray("points");
+            for (int i = 0; i < coords.length; i += 2) {
+                points.addObject().put("x", coords[i]).put("y", coords[i + 1]);
+            }
+            return objectMapper.writeValueAsBytes(event);
+        } catch (Exception e) {
+            logger.debug("Не удалось развернуть точки штриха: {}", e.getMessage());
+            return payload;
+        }
+    }
+
+    private static Long lessonIdOf(String destination) {
+        if (destination == null || !destination.startsWith(TOPIC_PREFIX)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(destination.substring(TOPIC_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Такт: отправляет накопленные промежуточные события всех уроков
+     */
+    private void flushAll() {
+        long now = System.currentTimeMillis();
+        buffers.forEach((lessonId, buffer) -> {
+            try {
+                synchronized (buffer.sendLock) {
+                    List<byte[]> events;
+                    synchronized (buffer) {
+                        events = buffer.drain();
+                        if (events.isEmpty() && now - buffer.lastActivity > IDLE_BUFFER_MS) {
+                            buffer.closed = true;
+                            buffers.remove(lessonId, buffer);
+                        }
+                    }
+                    if (!events.isEmpty()) {
+                        send(lessonId, events, "progress-batch");
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("Ошибка рассылки событий рисования урока {}: {}", lessonId, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Отправляет события одним кадром: одно событие — как есть, несколько — пачкой
+     */
+    private void send(Long lessonId, List<byte[]> events, String batchType) {
+        byte[] payload;
+        if (events.size() == 1) {
+            payload = events.get(0);
+        } else {
+            int size = 32 + batchType.length();
+            for (byte[] event : events) {
+                size += event.length + 1;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+            out.writeBytes(("{\"type\":\"" + batchType + "\",\"events\":[").getBytes(StandardCharsets.US_ASCII));
+            for (int i = 0; i < events.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.writeBytes(events.get(i));
+            }
+            out.writeBytes("]}".getBytes(StandardCharsets.US_ASCII));
+            payload = out.toByteArray();
+        }
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        messagingTemplate.send(TOPIC_PREFIX + lessonId, MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+    }
+
+    /**
+     * Тип события из начала JSON ({"type":"..."}), как его формирует whiteboard.js
+     * @return тип или null, если тело начинается не с поля type
+     */
+    public static String eventType(byte[] payload) {
+        if (payload.length <= TYPE_PREFIX.length) {
+            return null;
+        }
+        for (int i = 0; i < TYPE_PREFIX.length; i++) {
+            if (payload[i] != TYPE_PREFIX[i]) {
+                return null;
+            }
+        }
+        int end = TYPE_PREFIX.length;
+        int limit = Math.min(payload.length, TYPE_PREFIX.length + MAX_TYPE_LENGTH);
+        while (end < limit && payload[end] != '"') {
+            end++;
+        }
+        if (end == limit) {
+            return null;
+        }
+        return new String(payload, TYPE_PREFIX.length, end - TYPE_PREFIX.length, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.brainify.Service;
+
+import com.example.brainify.DTO.LessonParticipants;
+import com.example.brainify.Model.Lesson;
+import com.example.brainify.Repository.LessonRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Участники уроков для проверки доступа к доске и её изображениям.
+ * Результат кешируется по ID урока, поэтому повторные запросы (например, каждая
+ * картинка на доске) не обращаются к БД. Кеш сбрасывается при изменении
+ * или удалении урока — см. вызовы evict; вместе с ним сбрасываются решения
+ * о доступе к комнатам урока в LessonRoomRegistry.
+ */
+@Service
+public class LessonAccessService {
+    
+    public static final String LESSON_PARTICIPANTS_CACHE = "lessonParticipants";
+    
+    @Autowired
+    private LessonRepository lessonRepository;
+    
+    @Autowired
+    private CacheManager cacheManager;
+    
+    // Ленивая ссылка: реестр комнат сам зависит от этого сервиса
+    @Autowired
+    @Lazy
+    private LessonRoomRegistry lessonRoomRegistry;
+    
+    /**
+     * Ученик и преподаватель урока одним запросом ID, без загрузки пользователей
+     * @return участники или null, если урок не найден (не кешируется)
+     */
+    @Cacheable(value = LESSON_PARTICIPANTS_CACHE, key = "#lessonId", unless = "#result == null")
+    public LessonParticipants getParticipants(Long lessonId) {
+        List<Object[]> rows = lessonRepository.findParticipantIds(lessonId);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Object[] row = rows.get(0);
+        return new LessonParticipants(lessonId, (Long) row[0], (Long) row[1]);
+    }
+    
+    /**
+     * Сбрасывает кеш участников урока
+     */
+    // Кеш сбрасывается до реестра, чтобы тот не перечитал прежних участников
+    @CacheEvict(value = LESSON_PARTICIPANTS_CACHE, key = "#lessonId", beforeInvocation = true)
+    public void evict(Long lessonId) {
+        lessonRoomRegistry.evictLesson(lessonId);
+    }
+    
+    /**
+     * Сбрасывает кеш участников для набора уроков (удаление серии повторяющихся уроков)
+     */
+    public void evictAll(Collection<Lesson> lessons) {
+        Cache cache = cacheManager.getCache(LESSON_PARTICIPANTS_CACHE);
+        for (Lesson lesson : lessons) {
+            if (lesson.getId() != null) {
+                if (cache != null) {
+                    cache.evict(lesson.getId());
+                }
+                lessonRoomRegistry.evictLesson(lesson.getId());
+            }
+        }
+    }
+}
@@ -29,6 +29,9 @@ public class LessonAutoCompletionService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private WhiteboardService whiteboardService;
+
     // Буфер в минутах: допуск сверх 15 минут для компенсации
     // задержки сети и рассинхронизации часов клиента и сервера
     private static final int JOIN_BUFFER_MINUTES = 2;
@@ -118,6 +121,9 @@ public class LessonAutoCompletionService {
                     applyAutoPenalty(lesson);
                 }
             }
+
+            // Урок окончен — сохраняем доску и выгружаем её из памяти
+            whiteboardService.releaseBoard(lesson.getId());
         }
     }
 
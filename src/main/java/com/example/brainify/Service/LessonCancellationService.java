@@ -25,6 +25,9 @@ public class LessonCancellationService {
     @Autowired
     private LessonRepository lessonRepository;
     
+    @Autowired
+    private LessonAccessService lessonAccessService;
+    
     private static final int FREE_CANCELLATIONS_PER_MONTH = 5;
     private static final double PENALTY_FOR_EXCESS_CANCELLATIONS = 120.0;
     private static final double PENALTY_FOR_LATE_CANCELLATION = 600.0;
@@ -142,6 +145,7 @@ public class LessonCancellationService {
             // Обновляем статус урока
             lesson.setStatus(Lesson.LessonStatus.CANCELLED);
             lessonRepository.save(lesson);
+            lessonAccessService.evict(lesson.getId());
             
             result.put("success", true);
             result.put("message", "Урок успешно отменен");
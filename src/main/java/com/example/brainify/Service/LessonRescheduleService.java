@@ -25,6 +25,9 @@ public class LessonRescheduleService {
     @Autowired
     private LessonRepository lessonRepository;
     
+    @Autowired
+    private LessonAccessService lessonAccessService;
+    
     private static final double PENALTY_FOR_LATE_RESCHEDULE = 120.0;
     private static final int LATE_RESCHEDULE_HOURS = 12;
     
@@ -151,6 +154,7 @@ public class LessonRescheduleService {
             // Обновляем дату урока
             lesson.setLessonDate(newDate);
             lessonRepository.save(lesson);
+            lessonAccessService.evict(lesson.getId());
             
             result.put("success", true);
             result.put("message", "Урок успешно перенесен");
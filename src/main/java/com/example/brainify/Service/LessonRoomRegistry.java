@@ -0,0 +1,102 @@
+package com.example.brainify.Service;
+
+import com.example.brainify.DTO.LessonParticipants;
+import com.example.brainify.Model.User;
+import com.example.brainify.Model.UserRole;
+import com.example.brainify.Repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Комнаты уроков для WebSocket: какие уроки доступны каждой STOMP-сессии.
+ *
+ * Доступ для пары (сессия, урок) вычисляется один раз — по участникам урока из
+ * LessonAccessService и роли пользователя — и дальше проверяется по памяти,
+ * без обращения к БД на каждом кадре. Записи сессии удаляются при DISCONNECT,
+ * решения по уроку — при изменении его участников (LessonAccessService.evict).
+ */
+@Service
+public class LessonRoomRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(LessonRoomRegistry.class);
+
+    /**
+     * Сессия: пользователь и решения по урокам, к которым она обращалась
+     */
+    private static class SessionRooms {
+        private final Long userId;
+        private final boolean staff;
+        private final Map<Long, Boolean> lessons = new ConcurrentHashMap<>();
+
+        SessionRooms(Long userId, boolean staff) {
+            this.userId = userId;
+            this.staff = staff;
+        }
+    }
+
+    private final Map<String, SessionRooms> sessions = new ConcurrentHashMap<>();
+
+    @Autowired
+    private LessonAccessService lessonAccessService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    /**
+     * Может ли пользователь сессии участвовать в комнате урока
+     * @param userId ID пользователя сессии (имя Principal) или null для сессии без пользователя
+     */
+    public boolean canAccess(String sessionId, Long userId, Long lessonId) {
+        if (sessionId == null || userId == null) {
+            return false;
+        }
+        SessionRooms rooms = sessions.get(sessionId);
+        if (rooms == null || !rooms.userId.equals(userId)) {
+            rooms = new SessionRooms(userId, isStaff(userId));
+            sessions.put(sessionId, rooms);
+        }
+        SessionRooms session = rooms;
+        // Ошибка проверки не запоминается: следующий кадр проверит доступ заново
+        return Boolean.TRUE.equals(rooms.lessons.computeIfAbsent(lessonId, id -> resolve(session, id)));
+    }
+
+    /**
+     * Сбрасывает решения по уроку во всех сессиях (изменились участники урока)
+     */
+    public void evictLesson(Long lessonId) {
+        for (SessionRooms rooms : sessions.values()) {
+            rooms.lessons.remove(lessonId);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        sessions.remove(event.getSessionId());
+    }
+
+    private Boolean resolve(SessionRooms session, Long lessonId) {
+        if (session.staff) {
+            return true;
+        }
+        try {
+            LessonParticipants participants = lessonAccessService.getParticipants(lessonId);
+            return participants != null && participants.includes(session.userId);
+        } catch (Exception e) {
+            logger.warn("Не удалось проверить доступ пользователя {} к уроку {}: {}",
+                    session.userId, lessonId, e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isStaff(Long userId) {
+        User user = userRepository.findById(userId).orElse(null);
+        return user != null && (user.getRole() == UserRole.ADMIN || user.getRole() == UserRole.MANAGER);
+    }
+}
@@ -0,0 +1,428 @@
+package com.example.brainify.Service;
+
+import com.example.brainify.Model.BoardOperation;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Авторитетное состояние доски активного урока в памяти.
+ * Чтения и изменения обслуживаются отсюда, а WhiteboardService
+ * периодически сбрасывает изменённые доски в board_states.
+ *
+ * Элементы сливаются по правилам Excalidraw: побеждает большая version,
+ * при равных версиях — меньший versionNonce. Удаление хранится как
+ * «надгробие» с isDeleted = true, чтобы отставший клиент не воскресил элемент.
+ */
+public class LiveBoard {
+
+    /**
+     * Снимок доски для записи в БД
+     */
+    public static class Snapshot {
+        private final String boardData;
+        private final long version;
+        private final long lastOperationId;
+
+        Snapshot(String boardData, long version, long lastOperationId) {
+            this.boardData = boardData;
+            this.version = version;
+            this.lastOperationId = lastOperationId;
+        }
+
+        public String getBoardData() { return boardData; }
+        public long getVersion() { return version; }
+        public long getLastOperationId() { return lastOperationId; }
+    }
+
+    /**
+     * Результат слияния: новая версия доски и элементы, которых нет у клиента
+     */
+    public static class MergeResult {
+        private final long version;
+        private final List<JsonNode> elements;
+
+        MergeResult(long version, List<JsonNode> elements) {
+            this.version = version;
+            this.elements = elements;
+        }
+
+        public long getVersion() { return version; }
+        public List<JsonNode> getElements() { return elements; }
+    }
+
+    /**
+     * Запись истории доски: полный снимок или изменения с предыдущей записи
+     */
+    public static class HistoryRecord {
+        private final boolean full;
+        private final long version;
+        private final String data;
+
+        HistoryRecord(boolean full, long version, String data) {
+            this.full = full;
+            this.version = version;
+            this.data = data;
+        }
+
+        public boolean isFull() { return full; }
+        public long getVersion() { return version; }
+        public String getData() { return data; }
+    }
+
+    private final Long lessonId;
+    private final ObjectMapper objectMapper;
+    // Запись доски в БД (снимок, сохранение, компакция журнала) идёт строго по одной
+    private final Object flushLock = new Object();
+
+    private Long boardStateId;
+    private final Map<String, JsonNode> elements = new LinkedHashMap<>();
+    // Версия доски, в которой элемент менялся последний раз
+    private final Map<String, Long> changedAt = new HashMap<>();
+    private final List<JsonNode> elementsWithoutId = new ArrayList<>();
+    private JsonNode appState;
+
+    private long version;
+    private long baseVersion; // версия на момент загрузки снимка
+    private long lastOperationId;
+    private boolean dirty;
+    private String cachedJson;
+    private long historyVersion;       // версия доски в последней записи истории
+    private int recordsSinceFull = -1; // -1: следующая запись истории — полный снимок
+    private volatile long lastAccess = System.currentTimeMillis();
+    private long lastModified = System.currentTimeMillis();
+
+    public LiveBoard(Long lessonId, Long boardStateId, ObjectNode board, long version, ObjectMapper objectMapper) {
+        this.lessonId = lessonId;
+        this.boardStateId = boardStateId;
+        this.version = version;
+        this.baseVersion = version;
+        this.historyVersion = version;
+        this.objectMapper = objectMapper;
+        load(board);
+    }
+
+    /**
+     * Применяет операции из журнала
+     * @return ключи элементов, принятых без конфликта
+     */
+    public synchronized Set<String> apply(List<BoardOperation> operations) {
+        Set<String> accepted = new HashSet<>();
+        if (operations.isEmpty()) {
+            return accepted;
+        }
+        long next = version + 1;
+        boolean changed = false;
+        for (BoardOperation operation : operations) {
+            switch (operation.getOpType()) {
+                case UPSERT:
+                    if (merge(operation.getElementId(), readJson(operation.getPayload()), next)) {
+                        accepted.add(operation.getElementId());
+                        changed = true;
+                    }
+                    break;
+                case DELETE:
+                    long deleteVersion = operation.getElementVersion() != null ? operation.getElementVersion() : 0L;
+                    if (merge(operation.getElementId(), tombstone(operation.getElementId(), deleteVersion), next)) {
+                        accepted.add(operation.getElementId());
+                        changed = true;
+                    }
+                    break;
+                case APP_STATE: {
+                    JsonNode incoming = readJson(operation.getPayload());
+                    if (!incoming.equals(appState)) {
+                        appState = incoming;
+                        changed = true;
+                    }
+                    break;
+                }
+            }
+            if (operation.getId() != null) {
+                lastOperationId = Math.max(lastOperationId, operation.getId());
+            }
+        }
+        if (changed) {
+            changed(next);
+        } else {
+            // Даже отклонённые операции лежат в журнале — снимок нужен, чтобы его подрезать
+            dirty = true;
+        }
+        return accepted;
+    }
+
+    /**
+     * Сливает целый документ доски, присланный клиентом.
+     * Отсутствие элемента в документе не считается удалением.
+     * @return элементы сервера, которых у клиента нет или которые у него устарели
+     */
+    public synchronized MergeResult mergeDocument(ObjectNode board) {
+        long next = version + 1;
+        boolean changed = false;
+        Set<String> upToDate = new HashSet<>();
+
+        JsonNode array = board.path("elements");
+        if (array.isArray()) {
+            for (JsonNode element : array) {
+                String key = elementKey(element.get("id"));
+                if (key == null) {
+                    continue;
+                }
+                if (merge(key, element, next)) {
+                    changed = true;
+                }
+                // У клиента актуальная копия: его элемент принят или совпадает с серверным по версии
+                JsonNode stored = elements.get(key);
+                if (stored == element || (!wins(stored, element) && !wins(element, stored))) {
+                    upToDate.add(key);
+                }
+            }
+        }
+        // Клиент присылает appState с каждым сохранением — версия растёт, только если он изменился
+        if (board.hasNonNull("appState") && !board.get("appState").equals(appState)) {
+            appState = board.get("appState");
+            changed = true;
+        }
+        if (changed) {
+            changed(next);
+        }
+
+        List<JsonNode> missing = new ArrayList<>();
+        elements.forEach((key, element) -> {
+            if (!upToDate.contains(key)) {
+                missing.add(element);
+            }
+        });
+        return new MergeResult(version, missing);
+    }
+
+    /**
+     * Помечает все элементы удалёнными (очистка доски)
+     */
+    public synchronized void clear() {
+        long next = version + 1;
+        for (String key : new ArrayList<>(elements.keySet())) {
+            JsonNode existing = elements.get(key);
+            if (!existing.path("isDeleted").asBoolean(false)) {
+                merge(key, tombstone(key, elementVersion(existing) + 1), next);
+            }
+        }
+        elementsWithoutId.clear();
+        changed(next);
+    }
+
+    /**
+     * Элементы, изменившиеся после версии since, кроме уже известных клиенту
+     */
+    public synchronized MergeResult changesSince(long since, Set<String> known) {
+        List<JsonNode> result = new ArrayList<>();
+        // Историю изменений до загрузки снимка мы не знаем — отдаём всё
+        boolean full = since < baseVersion;
+        elements.forEach((key, element) -> {
+            if (known.contains(key)) {
+                return;
+            }
+            if (full || changedAt.getOrDefault(key, baseVersion) > since) {
+                result.add(element);
+            }
+        });
+        return new MergeResult(version, result);
+    }
+
+    /**
+     * Правило слияния Excalidraw: входящий элемент побеждает, если его версия больше,
+     * а при равных версиях — если его versionNonce меньше
+     */
+    public static boolean wins(JsonNode incoming, JsonNode existing) {
+        long incomingVersion = elementVersion(incoming);
+        long existingVersion = elementVersion(existing);
+        if (incomingVersion != existingVersion) {
+            return incomingVersion > existingVersion;
+        }
+        return incoming.path("versionNonce").asLong(0L) < existing.path("versionNonce").asLong(0L);
+    }
+
+    /**
+     * JSON доски для отдачи клиенту; сериализуется только после изменений
+     */
+    public synchronized String getBoardData() {
+        if (cachedJson == null) {
+            ObjectNode board = objectMapper.createObjectNode();
+            ArrayNode array = board.putArray("elements");
+            elementsWithoutId.forEach(array::add);
+            elements.values().forEach(array::add);
+            board.set("appState", appState != null ? appState : objectMapper.createObjectNode());
+            try {
+                cachedJson = objectMapper.writeValueAsString(board);
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("Ошибка сериализации доски: " + e.getOriginalMessage(), e);
+            }
+        }
+        return cachedJson;
+    }
+
+    /**
+     * Блокировка записи доски в БД: снимки сохраняются в порядке версий
+     */
+    public Object getFlushLock() { return flushLock; }
+
+    /**
+     * Забирает снимок для записи в БД и снимает флаг изменений.
+     * @return снимок или null, если доска не менялась с последней записи
+     */
+    public synchronized Snapshot takeSnapshot() {
+        if (!dirty) {
+            return null;
+        }
+        dirty = false;
+        return new Snapshot(getBoardData(), version, lastOperationId);
+    }
+
+    /**
+     * Забирает запись для истории доски: каждая fullEvery-я — полный снимок,
+     * остальные — элементы, изменившиеся с предыдущей записи, и текущий appState.
+     * @return запись или null, если доска не менялась с последней записи истории
+     */
+    public synchronized HistoryRecord takeHistoryRecord(int fullEvery) {
+        if (version == historyVersion) {
+            return null;
+        }
+        boolean full = recordsSinceFull < 0 || recordsSinceFull >= fullEvery;
+        String data;
+        if (full) {
+            data = getBoardData();
+            recordsSinceFull = 0;
+        } else {
+            ObjectNode delta = objectMapper.createObjectNode();
+            ArrayNode array = delta.putArray("elements");
+            changesSince(historyVersion, Collections.emptySet()).getElements().forEach(array::add);
+            delta.set("appState", appState != null ? appState : objectMapper.createObjectNode());
+            try {
+                data = objectMapper.writeValueAsString(delta);
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("Ошибка сериализации доски: " + e.getOriginalMessage(), e);
+            }
+            recordsSinceFull++;
+        }
+        historyVersion = version;
+        return new HistoryRecord(full, version, data);
+    }
+
+    /**
+     * Запись истории не сохранилась: следующая будет полным снимком, чтобы цепочка не рвалась
+     */
+    public synchronized void resetHistory() {
+        recordsSinceFull = -1;
+    }
+
+    /**
+     * Возвращает флаг изменений, если запись снимка не удалась
+     */
+    public synchronized void markDirty() {
+        dirty = true;
+    }
+
+    public void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    public Long getLessonId() { return lessonId; }
+
+    public synchronized Long getBoardStateId() { return boardStateId; }
+    public synchronized void setBoardStateId(Long boardStateId) { this.boardStateId = boardStateId; }
+
+    public synchronized long getVersion() { return version; }
+    public synchronized long getLastModified() { return lastModified; }
+    public synchronized void setLastModified(long lastModified) { this.lastModified = lastModified; }
+
+    /**
+     * Сильный ETag состояния доски: запись board_states и версия доски.
+     * Считается без сериализации, поэтому проверка If-None-Match ничего не стоит.
+     */
+    public synchronized String getETag() {
+        return "\"" + boardStateId + "-" + version + "\"";
+    }
+    public synchronized boolean isDirty() { return dirty; }
+    public long getLastAccess() { return lastAccess; }
+
+    private boolean merge(String key, JsonNode incoming, long atVersion) {
+        JsonNode existing = elements.get(key);
+        if (existing != null && !wins(incoming, existing)) {
+            return false;
+        }
+        elements.put(key, incoming);
+        changedAt.put(key, atVersion);
+        return true;
+    }
+
+    private JsonNode tombstone(String key, long deleteVersion) {
+        JsonNode existing = elements.get(key);
+        ObjectNode tombstone = objectMapper.createObjectNode();
+        if (existing != null && existing.has("id")) {
+            tombstone.set("id", existing.get("id"));
+        } else {
+            tombstone.put("id", key);
+        }
+        tombstone.put("version", deleteVersion);
+        tombstone.put("versionNonce", 0);
+        tombstone.put("isDeleted", true);
+        return tombstone;
+    }
+
+    private void load(ObjectNode board) {
+        elements.clear();
+        changedAt.clear();
+        elementsWithoutId.clear();
+        JsonNode array = board.path("elements");
+        if (array.isArray()) {
+            for (JsonNode element : array) {
+                String key = elementKey(element.get("id"));
+                if (key != null) {
+                    elements.put(key, element);
+                } else {
+                    elementsWithoutId.add(element);
+                }
+            }
+        }
+        appState = board.get("appState");
+    }
+
+    private void changed(long newVersion) {
+        version = newVersion;
+        lastModified = System.currentTimeMillis();
+        dirty = true;
+        cachedJson = null;
+    }
+
+    private JsonNode readJson(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Некорректный JSON операции доски: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    /**
+     * Ключ элемента: id может быть строкой или числом (Date.now() + Math.random() на клиенте)
+     */
+    static String elementKey(JsonNode idNode) {
+        if (idNode == null || idNode.isNull() || idNode.isMissingNode()) {
+            return null;
+        }
+        return idNode.asText();
+    }
+
+    static long elementVersion(JsonNode element) {
+        return element.path("version").asLong(0L);
+    }
+}
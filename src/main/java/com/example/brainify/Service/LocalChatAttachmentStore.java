@@ -0,0 +1,91 @@
+package com.example.brainify.Service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Вложения чата на локальном диске с адресацией по содержимому.
+ * Ключ — SHA-256 содержимого, файл лежит в подкаталоге по первым двум символам ключа,
+ * поэтому одинаковые файлы хранятся один раз, а каталоги не разрастаются.
+ */
+@Service
+public class LocalChatAttachmentStore implements ChatAttachmentStore {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${app.chat.attachment-dir:uploads/chat-attachments}")
+    private String attachmentDir;
+
+    @Override
+    public StoredAttachment store(InputStream in, long maxBytes) throws IOException {
+        Path root = root();
+        Files.createDirectories(root);
+
+        Path temp = Files.createTempFile(root, "upload-", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            long total = 0;
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    total += read;
+                    if (total > maxBytes) {
+                        throw new IllegalArgumentException("Файл слишком большой");
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+
+            String key = HexFormat.of().formatHex(digest.digest());
+            Path target = pathFor(key);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                // Одинаковое содержимое даёт одинаковый ключ, поэтому гонка двух загрузок безопасна
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return new StoredAttachment(key, total);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public Resource load(String key) {
+        if (key == null || !key.matches("[0-9a-f]{64}")) {
+            return null;
+        }
+        Path path = pathFor(key);
+        return Files.isRegularFile(path) ? new FileSystemResource(path) : null;
+    }
+
+    private Path pathFor(String key) {
+        return root().resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private Path root() {
+        return Paths.get(attachmentDir).toAbsolutePath().normalize();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
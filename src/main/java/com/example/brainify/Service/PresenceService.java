@@ -0,0 +1,266 @@
+package com.example.brainify.Service;
+
+import com.example.brainify.Model.User;
+import com.example.brainify.Model.UserRole;
+import com.example.brainify.Repository.StudentTeacherRepository;
+import com.example.brainify.Repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.simp.user.SimpUserRegistry;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Кто из пользователей сейчас в сети.
+ *
+ * Реестр заполняется событиями STOMP CONNECT/DISCONNECT; пользователь в сети, пока
+ * у него есть хотя бы одна сессия. Реестр построен на ConcurrentHashMap без общих
+ * блокировок: переходы «в сети/не в сети» делаются атомарно по ключу пользователя.
+ * Сессия, от которой дольше timeout не приходило ни кадров, ни heart-beat
+ * (см. PresenceChannelInterceptor), считается оборванной.
+ *
+ * Изменения присутствия и набор текста рассылаются в личную очередь чата только
+ * связанным пользователям: ученикам и преподавателям по активным связям и сотрудникам.
+ * При внешнем брокере (app.websocket.broker=relay) пользователи других экземпляров
+ * видны через общий SimpUserRegistry; сотрудники получают события только своего экземпляра.
+ */
+@Service
+public class PresenceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+
+    /**
+     * Сессия WebSocket: владелец и время последнего кадра
+     */
+    private static class SessionPresence {
+        private final Long userId;
+        private volatile long lastSeen;
+
+        SessionPresence(Long userId, long lastSeen) {
+            this.userId = userId;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    /**
+     * Пользователь в сети: его сессии и кому сообщать об изменениях
+     */
+    private static class OnlineUser {
+        private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+        private final Set<Long> relatedIds;
+        private final boolean staff;
+
+        OnlineUser(Set<Long> relatedIds, boolean staff) {
+            this.relatedIds = relatedIds;
+            this.staff = staff;
+        }
+    }
+
+    private final Map<String, SessionPresence> sessions = new ConcurrentHashMap<>();
+    private final Map<Long, OnlineUser> onlineUsers = new ConcurrentHashMap<>();
+    private final Set<Long> onlineStaff = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private StudentTeacherRepository studentTeacherRepository;
+
+    // Ленивая ссылка: брокер создаётся позже перехватчиков входящего канала
+    @Autowired
+    @Lazy
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    @Lazy
+    private SimpUserRegistry userRegistry;
+
+    // Сессия без кадров и heart-beat дольше этого времени считается оборванной
+    @Value("${app.presence.timeout-ms:75000}")
+    private long timeoutMs;
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        Long userId = userIdOf(event.getUser());
+        String sessionId = StompHeaderAccessor.wrap(event.getMessage()).getSessionId();
+        if (userId != null && sessionId != null) {
+            connect(sessionId, userId);
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        disconnect(event.getSessionId());
+    }
+
+    /**
+     * Отмечает активность сессии (любой входящий кадр, включая heart-beat)
+     */
+    public void touch(String sessionId) {
+        SessionPresence session = sessions.get(sessionId);
+        if (session != null) {
+            session.lastSeen = System.currentTimeMillis();
+        }
+    }
+
+    public boolean isOnline(Long userId) {
+        return onlineUsers.containsKey(userId) || userRegistry.getUser(String.valueOf(userId)) != null;
+    }
+
+    /**
+     * Пересылает признак набора текста собеседнику, если он в сети и связан с отправителем
+     */
+    public void sendTyping(Long fromUserId, Long toUserId, boolean typing) {
+        OnlineUser sender = onlineUsers.get(fromUserId);
+        if (sender == null || fromUserId.equals(toUserId) || !isOnline(toUserId)) {
+            return;
+        }
+        OnlineUser receiver = onlineUsers.get(toUserId);
+        boolean receiverStaff = receiver != null ? receiver.staff : isStaff(toUserId);
+        if (!sender.staff && !receiverStaff && !sender.relatedIds.contains(toUserId)) {
+            return;
+        }
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", "typing");
+        event.put("userId", fromUserId);
+        event.put("typing", typing);
+        send(toUserId, event);
+    }
+
+    /**
+     * Закрывает сессии, от которых давно нет кадров
+     */
+    @Scheduled(fixedDelay = 30000)
+    public void expireStaleSessions() {
+        long cutoff = System.currentTimeMillis() - timeoutMs;
+        List<String> stale = new ArrayList<>();
+        sessions.forEach((sessionId, session) -> {
+            if (session.lastSeen < cutoff) {
+                stale.add(sessionId);
+            }
+        });
+        for (String sessionId : stale) {
+            logger.debug("Сессия WebSocket {} без heart-beat, пользователь считается отключённым", sessionId);
+            disconnect(sessionId);
+        }
+    }
+
+    private void connect(String sessionId, Long userId) {
+        sessions.put(sessionId, new SessionPresence(userId, System.currentTimeMillis()));
+
+        // Связи и роль читаются из БД только при переходе в сеть
+        OnlineUser loaded = onlineUsers.containsKey(userId) ? null : loadOnlineUser(userId);
+        boolean[] cameOnline = {false};
+        OnlineUser user = onlineUsers.compute(userId, (id, existing) -> {
+            OnlineUser current = existing;
+            if (current == null) {
+                current = loaded != null ? loaded : new OnlineUser(Set.of(), false);
+                cameOnline[0] = true;
+            }
+            current.sessions.add(sessionId);
+            return current;
+        });
+
+        if (cameOnline[0]) {
+            if (user.staff) {
+                onlineStaff.add(userId);
+            }
+            broadcastPresence(userId, user, true);
+        }
+    }
+
+    private void disconnect(String sessionId) {
+        SessionPresence session = sessions.remove(sessionId);
+        if (session == null) {
+            return;
+        }
+        OnlineUser[] wentOffline = {null};
+        onlineUsers.computeIfPresent(session.userId, (id, user) -> {
+            user.sessions.remove(sessionId);
+            if (user.sessions.isEmpty()) {
+                wentOffline[0] = user;
+                return null;
+            }
+            return user;
+        });
+
+        if (wentOffline[0] != null) {
+            onlineStaff.remove(session.userId);
+            broadcastPresence(session.userId, wentOffline[0], false);
+        }
+    }
+
+    private OnlineUser loadOnlineUser(Long userId) {
+        try {
+            return new OnlineUser(Set.copyOf(studentTeacherRepository.findRelatedUserIds(userId)), isStaff(userId));
+        } catch (Exception e) {
+            logger.warn("Не удалось загрузить связи пользователя {} для присутствия: {}", userId, e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isStaff(Long userId) {
+        User user = userRepository.findById(userId).orElse(null);
+        return user != null && (user.getRole() == UserRole.ADMIN || user.getRole() == UserRole.MANAGER);
+    }
+
+    /**
+     * Сообщает связанным пользователям в сети и сотрудникам о смене присутствия
+     */
+    private void broadcastPresence(Long userId, OnlineUser user, boolean online) {
+        Set<Long> recipients = new HashSet<>(onlineStaff);
+        for (Long relatedId : user.relatedIds) {
+            if (isOnline(relatedId)) {
+                recipients.add(relatedId);
+            }
+        }
+        recipients.remove(userId);
+        if (recipients.isEmpty()) {
+            return;
+        }
+
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("type", "presence");
+        event.put("userId", userId);
+        event.put("online", online);
+        for (Long recipient : recipients) {
+            send(recipient, event);
+        }
+    }
+
+    private void send(Long userId, Map<String, Object> event) {
+        try {
+            messagingTemplate.convertAndSendToUser(String.valueOf(userId), ChatService.CHAT_QUEUE, event);
+        } catch (Exception e) {
+            logger.warn("Не удалось отправить событие присутствия пользователю {}: {}", userId, e.getMessage());
+        }
+    }
+
+    private static Long userIdOf(Principal principal) {
+        if (principal == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(principal.getName());
+        } catch (NumberFormatException e) {
+            return null; // сессия без пользователя (рукопожатие без HTTP-сессии)
+        }
+    }
+}
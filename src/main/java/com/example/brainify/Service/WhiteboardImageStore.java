@@ -0,0 +1,260 @@
+package com.example.brainify.Service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.Iterator;
+
+/**
+ * Файловое хранилище изображений доски с адресацией по содержимому.
+ *
+ * Файл пишется на диск потоком с одновременным подсчётом SHA-256 и получает имя
+ * по хешу, поэтому повторная вставка того же изображения не создаёт копию.
+ * Каталог свой у каждого урока — доступ к изображениям проверяется по уроку.
+ * Для больших изображений рядом кладётся уменьшенная JPEG-копия для вида доски.
+ * Размеры изображения читаются из заголовка до декодирования: изображение больше
+ * image-max-pixels отклоняется, а копия строится из прореженного кадра, поэтому
+ * маленький PNG с огромными размерами не раздувает память сервера.
+ */
+@Service
+public class WhiteboardImageStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(WhiteboardImageStore.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String PREVIEW_SUFFIX = ".preview.jpg";
+
+    /**
+     * Результат сохранения изображения
+     */
+    public static class StoredImage {
+        private final String fileName;
+        private final String previewFileName;
+        private final boolean duplicate;
+
+        StoredImage(String fileName, String previewFileName, boolean duplicate) {
+            this.fileName = fileName;
+            this.previewFileName = previewFileName;
+            this.duplicate = duplicate;
+        }
+
+        public String getFileName() { return fileName; }
+        public String getPreviewFileName() { return previewFileName; }
+        public boolean isDuplicate() { return duplicate; }
+    }
+
+    @Value("${app.whiteboard.image-dir:uploads/whiteboard-images}")
+    private String imageDir;
+
+    @Value("${app.whiteboard.image-max-bytes:20971520}")
+    private long maxBytes;
+
+    // Наибольшая сторона уменьшенной копии для вида доски
+    @Value("${app.whiteboard.image-preview-max-dim:1600}")
+    private int previewMaxDim;
+
+    // Наибольшее число пикселей изображения (ширина × высота)
+    @Value("${app.whiteboard.image-max-pixels:50000000}")
+    private long maxPixels;
+
+    /**
+     * Сохраняет изображение из потока
+     * @throws IllegalArgumentException если формат не поддерживается, файл или размеры изображения слишком большие
+     */
+    public StoredImage store(Long lessonId, InputStream in) throws IOException {
+        Path lessonDir = lessonDir(lessonId);
+        Files.createDirectories(lessonDir);
+
+        Path temp = Files.createTempFile(lessonDir, "upload-", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            String ext;
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read = in.readNBytes(buffer, 0, buffer.length);
+                ext = extensionFor(buffer, read);
+                if (ext == null) {
+                    throw new IllegalArgumentException("Неподдерживаемый формат изображения");
+                }
+                long total = 0;
+                while (read > 0) {
+                    total += read;
+                    if (total > maxBytes) {
+                        throw new IllegalArgumentException("Изображение слишком большое");
+                    }
+                    out.write(buffer, 0, read);
+                    read = in.read(buffer);
+                }
+            }
+
+            String fileName = HexFormat.of().formatHex(digest.digest()) + ext;
+            Path target = lessonDir.resolve(fileName);
+            String previewName = previewName(fileName);
+            if (Files.exists(target)) {
+                // Повтор уже проверенного изображения: копия либо есть, либо не нужна — не декодируем заново
+                Files.delete(temp);
+                return new StoredImage(fileName,
+                        previewName != null && Files.exists(lessonDir.resolve(previewName)) ? previewName : null, true);
+            }
+            String preview = checkAndPreview(temp, previewName != null ? lessonDir.resolve(previewName) : null);
+            // Одинаковое содержимое даёт одинаковое имя, поэтому гонка двух загрузок безопасна
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return new StoredImage(fileName, preview, false);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Путь к файлу изображения урока
+     * @return путь или null, если имя выводит за пределы каталога урока
+     */
+    public Path resolve(Long lessonId, String fileName) {
+        Path lessonDir = lessonDir(lessonId);
+        Path filePath = lessonDir.resolve(fileName).normalize();
+        return filePath.startsWith(lessonDir) ? filePath : null;
+    }
+
+    /**
+     * Имя уменьшенной копии или null для форматов без копии
+     * (GIF может быть анимированным, WebP не читается ImageIO)
+     */
+    private static String previewName(String fileName) {
+        if (!fileName.endsWith(".png") && !fileName.endsWith(".jpg")) {
+            return null;
+        }
+        return fileName.substring(0, fileName.lastIndexOf('.')) + PREVIEW_SUFFIX;
+    }
+
+    /**
+     * Проверяет размеры загруженного изображения по заголовку и, если оно больше previewMaxDim,
+     * создаёт уменьшенную JPEG-копию из прореженного кадра
+     * @param preview путь копии или null, если копия для формата не строится
+     * @return имя копии или null, если копия не нужна или не получилась
+     * @throws IllegalArgumentException если в изображении больше maxPixels пикселей
+     */
+    private String checkAndPreview(Path upload, Path preview) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(upload.toFile())) {
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width;
+                int height;
+                try {
+                    width = reader.getWidth(0);
+                    height = reader.getHeight(0);
+                } catch (IOException | RuntimeException e) {
+                    // Заголовок не читается — доска покажет оригинал, как и раньше
+                    logger.warn("Не удалось прочитать размеры изображения {}: {}", upload, e.getMessage());
+                    return null;
+                }
+                if ((long) width * height > maxPixels) {
+                    throw new IllegalArgumentException("Изображение слишком большое");
+                }
+                int maxSide = Math.max(width, height);
+                if (preview == null || maxSide <= previewMaxDim) {
+                    return null;
+                }
+                return writePreview(reader, width, height, preview);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private String writePreview(ImageReader reader, int width, int height, Path preview) {
+        try {
+            // Читаем с прореживанием: полноразмерный кадр в память не попадает
+            int maxSide = Math.max(width, height);
+            ImageReadParam param = reader.getDefaultReadParam();
+            int step = Math.max(1, maxSide / (previewMaxDim * 2));
+            param.setSourceSubsampling(step, step, 0, 0);
+            BufferedImage image = reader.read(0, param);
+
+            double ratio = (double) previewMaxDim / maxSide;
+            int previewWidth = Math.max(1, (int) Math.round(width * ratio));
+            int previewHeight = Math.max(1, (int) Math.round(height * ratio));
+
+            BufferedImage scaled = new BufferedImage(previewWidth, previewHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = scaled.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // Прозрачный фон PNG заливаем белым, как у доски
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, previewWidth, previewHeight);
+            g.drawImage(image, 0, 0, previewWidth, previewHeight, null);
+            g.dispose();
+
+            Path temp = Files.createTempFile(preview.getParent(), "preview-", ".tmp");
+            try {
+                ImageIO.write(scaled, "jpg", temp.toFile());
+                Files.move(temp, preview, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return preview.getFileName().toString();
+        } catch (IOException | RuntimeException e) {
+            // Без копии доска покажет оригинал
+            logger.warn("Не удалось создать уменьшенную копию {}: {}", preview, e.getMessage());
+            return null;
+        }
+    }
+
+    private Path lessonDir(Long lessonId) {
+        return Paths.get(imageDir, String.valueOf(lessonId)).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Расширение файла по сигнатуре содержимого (заголовку Content-Type не доверяем)
+     */
+    private static String extensionFor(byte[] head, int length) {
+        if (length >= 8 && (head[0] & 0xFF) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G') {
+            return ".png";
+        }
+        if (length >= 3 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF) {
+            return ".jpg";
+        }
+        if (length >= 6 && head[0] == 'G' && head[1] == 'I' && head[2] == 'F' && head[3] == '8') {
+            return ".gif";
+        }
+        if (length >= 12 && head[0] == 'R' && head[1] == 'I' && head[2] == 'F' && head[3] == 'F'
+                && head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P') {
+            return ".webp";
+        }
+        return null;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
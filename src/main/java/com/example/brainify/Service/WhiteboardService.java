@@ -1,100 +1,513 @@
 package com.example.brainify.Service;
 
+import com.example.brainify.Model.BoardOperation;
 import com.example.brainify.Model.BoardState;
 import com.example.brainify.Model.Lesson;
+import com.example.brainify.Repository.BoardOperationRepository;
 import com.example.brainify.Repository.BoardStateRepository;
 import com.example.brainify.Repository.LessonRepository;
+import com.example.brainify.Utils.BoardSnapshotCodec;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class WhiteboardService {
     
+    private static final Logger logger = LoggerFactory.getLogger(WhiteboardService.class);
+    
+    private static final String EMPTY_BOARD = "{\"elements\":[],\"appState\":{}}";
+    
     @Autowired
     private BoardStateRepository boardStateRepository;
     
+    @Autowired
+    private BoardOperationRepository boardOperationRepository;
+    
     @Autowired
     private LessonRepository lessonRepository;
     
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+    
+    @Autowired
+    private BoardHistoryService boardHistoryService;
+    
+    // Максимум досок, одновременно удерживаемых в памяти
+    @Value("${app.whiteboard.max-live-boards:500}")
+    private int maxLiveBoards;
+    
+    // Через сколько минут без обращений доска выгружается из памяти
+    @Value("${app.whiteboard.idle-evict-minutes:20}")
+    private long idleEvictMinutes;
+    
+    // Активные доски уроков: авторитетное состояние в памяти
+    private final Map<Long, LiveBoard> liveBoards = new ConcurrentHashMap<>();
+    
+    // Блокировки загрузки, чтобы доска не загружалась в память дважды:
+    // фиксированный набор, урок выбирает блокировку по ID
+    private static final int LOAD_LOCK_STRIPES = 64;
+    private final Object[] loadLocks = new Object[LOAD_LOCK_STRIPES];
+    {
+        for (int i = 0; i < LOAD_LOCK_STRIPES; i++) {
+            loadLocks[i] = new Object();
+        }
+    }
+    
     /**
-     * Получает состояние доски для урока (самое новое)
+     * Получает активную доску урока: из памяти, а при первом обращении —
+     * из последнего снимка BoardState с досворачиванием журнала операций
+     * @return доска или null, если урок не найден
      */
-    public BoardState getBoardState(Long lessonId) {
-        Optional<Lesson> lessonOpt = lessonRepository.findById(lessonId);
-        if (lessonOpt.isEmpty()) {
-            return null;
+    public LiveBoard getLiveBoard(Long lessonId) {
+        LiveBoard board = liveBoards.get(lessonId);
+        if (board == null) {
+            board = loadLiveBoard(lessonId);
+        }
+        if (board != null) {
+            board.touch();
+        }
+        return board;
+    }
+    
+    /**
+     * Сливает присланный клиентом документ доски с состоянием на сервере.
+     * Конфликты решаются поэлементно по version/versionNonce, поэтому
+     * одновременные сохранения учителя и ученика не теряют штрихи.
+     * @param lessonId ID урока
+     * @param boardData Данные доски
+     * @param clientVersion Версия доски, известная клиенту (оставлена для совместимости API,
+     *                      конфликты решаются по версиям элементов)
+     * @return версия доски и элементы, которых у клиента нет или которые у него устарели
+     */
+    public LiveBoard.MergeResult saveBoardState(Long lessonId, String boardData, Long clientVersion) {
+        LiveBoard board = getLiveBoard(lessonId);
+        if (board == null) {
+            throw new RuntimeException("Урок не найден");
         }
         
-        Lesson lesson = lessonOpt.get();
-        List<BoardState> states = boardStateRepository.findByLessonOrderByUpdatedAtDesc(lesson);
-        
-        if (!states.isEmpty()) {
-            // Возвращаем самое новое состояние
-            return states.get(0);
+        LiveBoard.MergeResult result;
+        synchronized (board) {
+            long before = board.getVersion();
+            result = board.mergeDocument(parseBoard(boardData));
+            publishChanges(board, before, null);
+        }
+        // Целый документ не попадает в журнал операций, поэтому пишем его сразу
+        flushBoard(board);
+        return result;
+    }
+    
+    /**
+     * Сохраняет состояние доски (без проверки версии)
+     */
+    public LiveBoard.MergeResult saveBoardState(Long lessonId, String boardData) {
+        return saveBoardState(lessonId, boardData, null);
+    }
+    
+    /**
+     * Очищает доску: все элементы помечаются удалёнными
+     */
+    public LiveBoard clearBoard(Long lessonId) {
+        LiveBoard board = getLiveBoard(lessonId);
+        if (board == null) {
+            throw new RuntimeException("Урок не найден");
         }
         
-        // Создаем новое состояние доски
-        BoardState newState = new BoardState(lesson, "{\"elements\":[],\"appState\":{}}");
-        return boardStateRepository.save(newState);
+        synchronized (board) {
+            long before = board.getVersion();
+            board.clear();
+            publishChanges(board, before, null);
+        }
+        flushBoard(board);
+        return board;
     }
     
     /**
-     * Сохраняет состояние доски
+     * Дописывает изменения отдельных элементов в журнал операций и применяет их
+     * к доске в памяти. Стоимость записи пропорциональна размеру изменения, а не всей доски;
+     * снимок в board_states обновляется отложенно (см. flushDirtyBoards).
      * @param lessonId ID урока
-     * @param boardData Данные доски
-     * @param clientVersion Версия клиента (для проверки конфликтов, может быть null)
+     * @param operations операции вида {elementId, version, element} или {elementId, version, deleted: true}
+     * @param appState новые настройки доски (может быть null)
+     * @param authorId ID автора изменений (может быть null)
+     * @param since версия доски, известная клиенту (null — изменения других участников не нужны)
+     * @return новая версия доски и элементы, изменившиеся после since, которых у клиента нет
      */
-    @Transactional
-    public BoardState saveBoardState(Long lessonId, String boardData, Long clientVersion) {
-        Optional<Lesson> lessonOpt = lessonRepository.findById(lessonId);
-        if (lessonOpt.isEmpty()) {
+    public LiveBoard.MergeResult appendOperations(Long lessonId, List<Map<String, Object>> operations,
+                                                  Map<String, Object> appState, Long authorId, Long since) {
+        LiveBoard board = getLiveBoard(lessonId);
+        if (board == null) {
             throw new RuntimeException("Урок не найден");
         }
         
-        Lesson lesson = lessonOpt.get();
-        List<BoardState> states = boardStateRepository.findByLessonOrderByUpdatedAtDesc(lesson);
+        List<BoardOperation> toSave = new ArrayList<>();
+        if (operations != null) {
+            for (Map<String, Object> op : operations) {
+                BoardOperation operation = toOperation(lessonId, op);
+                if (operation != null) {
+                    operation.setAuthorId(authorId);
+                    toSave.add(operation);
+                }
+            }
+        }
+        if (appState != null) {
+            BoardOperation operation = new BoardOperation(lessonId, BoardOperation.OpType.APP_STATE,
+                    null, null, writeJson(objectMapper.valueToTree(appState)));
+            operation.setAuthorId(authorId);
+            toSave.add(operation);
+        }
+        long knownVersion = since != null ? since : Long.MAX_VALUE;
         
-        BoardState boardState;
-        if (!states.isEmpty()) {
-            // Используем самое новое состояние
-            boardState = states.get(0);
+        // Запись в журнал и применение в памяти под одной блокировкой доски,
+        // чтобы снимок не «перепрыгнул» через ещё не применённые операции
+        synchronized (board) {
+            long before = board.getVersion();
+            Set<String> accepted = toSave.isEmpty()
+                    ? Collections.emptySet()
+                    : board.apply(boardOperationRepository.saveAll(toSave));
+            publishChanges(board, before, authorId);
+            return board.changesSince(knownVersion, accepted);
+        }
+    }
+    
+    /**
+     * Изменения доски после версии since — для клиентов, переподключившихся к каналу
+     * @return версия доски и изменённые элементы, или null, если урок не найден
+     */
+    public LiveBoard.MergeResult getChanges(Long lessonId, long since) {
+        LiveBoard board = getLiveBoard(lessonId);
+        if (board == null) {
+            return null;
+        }
+        return board.changesSince(since, Collections.emptySet());
+    }
+    
+    /**
+     * Сворачивает журнал операций урока в снимок BoardState
+     * (для уроков, доска которых сейчас не загружена в память)
+     */
+    public void compactOperations(Long lessonId) {
+        if (getLiveBoard(lessonId) != null) {
+            releaseBoard(lessonId);
+        }
+    }
+    
+    /**
+     * Сворачивает журнал «осиротевших» уроков, например после перезапуска (раз в минуту).
+     * Берутся только уроки без операций дольше idle-evict-minutes: при нескольких экземплярах
+     * доска урока может быть загружена на другом, и сворачивать её журнал здесь нельзя.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void compactPendingOperations() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(idleEvictMinutes);
+        for (Long lessonId : boardOperationRepository.findLessonIdsWithOperationsBefore(cutoff)) {
+            if (liveBoards.containsKey(lessonId)) {
+                continue;
+            }
+            try {
+                compactOperations(lessonId);
+            } catch (Exception e) {
+                logger.error("Ошибка компакции журнала доски для урока {}: {}", lessonId, e.getMessage(), e);
+            }
+        }
+    }
+    
+    /**
+     * Отложенная запись изменённых досок в БД и в историю досок
+     */
+    @Scheduled(fixedDelayString = "${app.whiteboard.flush-interval-ms:5000}")
+    public void flushDirtyBoards() {
+        for (LiveBoard board : liveBoards.values()) {
+            if (board.isDirty()) {
+                flushBoard(board);
+            }
+            boardHistoryService.record(board);
+        }
+    }
+    
+    /**
+     * Выгружает из памяти доски, к которым давно не обращались
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleBoards() {
+        long cutoff = System.currentTimeMillis() - idleEvictMinutes * 60_000L;
+        List<Long> idle = new ArrayList<>();
+        liveBoards.forEach((lessonId, board) -> {
+            if (board.getLastAccess() < cutoff) {
+                idle.add(lessonId);
+            }
+        });
+        idle.forEach(this::releaseBoard);
+    }
+    
+    /**
+     * Записывает доску в БД и выгружает её из памяти (окончание урока, простой)
+     */
+    public void releaseBoard(Long lessonId) {
+        LiveBoard board = liveBoards.get(lessonId);
+        if (board == null) {
+            return;
+        }
+        flushBoard(board);
+        boardHistoryService.record(board);
+        // Если запись не удалась, доска остаётся в памяти до следующей попытки.
+        // Операции, пришедшие после снимка, сохранены в журнале и досворачиваются при следующей загрузке.
+        if (!board.isDirty()) {
+            liveBoards.remove(lessonId, board);
+        }
+    }
+    
+    /**
+     * Сбрасывает все изменённые доски при остановке приложения
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        logger.info("Сохранение {} активных досок перед остановкой", liveBoards.size());
+        flushDirtyBoards();
+    }
+    
+    private LiveBoard loadLiveBoard(Long lessonId) {
+        synchronized (loadLocks[Math.floorMod(lessonId.hashCode(), LOAD_LOCK_STRIPES)]) {
+            LiveBoard existing = liveBoards.get(lessonId);
+            if (existing != null) {
+                return existing;
+            }
+            
+            Optional<Lesson> lessonOpt = lessonRepository.findById(lessonId);
+            if (lessonOpt.isEmpty()) {
+                return null;
+            }
             
-            // Проверяем версию для предотвращения конфликтов
-            if (clientVersion != null && boardState.getVersion() != null) {
-                // Если версия на сервере новее, значит кто-то уже обновил доску
-                // В этом случае мы все равно сохраняем, но это нормально для оптимистичной блокировки
-                // Клиент получит обновленную версию при следующей синхронизации
+            Lesson lesson = lessonOpt.get();
+            List<BoardState> states = boardStateRepository.findByLessonOrderByUpdatedAtDesc(lesson);
+            BoardState state = states.isEmpty()
+                    ? boardStateRepository.save(new BoardState(lesson, EMPTY_BOARD))
+                    : states.get(0);
+            if (states.size() > 1) {
+                // Старые дубликаты снимка: история доски теперь хранится в board_history
+                boardStateRepository.deleteAll(states.subList(1, states.size()));
+                logger.info("Удалено {} дублирующихся состояний доски урока {}", states.size() - 1, lessonId);
             }
             
-            boardState.setBoardData(boardData);
-            // Версия обновится автоматически через @PreUpdate
-        } else {
-            // Создаем новое состояние
-            boardState = new BoardState(lesson, boardData);
-            boardState.setVersion(1L);
+            LiveBoard board = new LiveBoard(lessonId, state.getId(), parseBoard(readBoardData(state)),
+                    state.getVersion() != null ? state.getVersion() : 1L, objectMapper);
+            if (state.getUpdatedAt() != null) {
+                board.setLastModified(state.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            }
+            
+            // Досворачиваем операции, не попавшие в снимок (перезапуск, выгрузка доски)
+            board.apply(boardOperationRepository.findByLessonIdOrderByIdAsc(lessonId));
+            
+            liveBoards.put(lessonId, board);
+            evictOverflow(lessonId);
+            return board;
         }
-        
-        return boardStateRepository.save(boardState);
     }
     
     /**
-     * Сохраняет состояние доски (без проверки версии)
+     * Держит число досок в памяти в пределах maxLiveBoards, выгружая самые давние
      */
-    @Transactional
-    public BoardState saveBoardState(Long lessonId, String boardData) {
-        return saveBoardState(lessonId, boardData, null);
+    private void evictOverflow(Long keepLessonId) {
+        while (liveBoards.size() > maxLiveBoards) {
+            Long oldest = null;
+            long oldestAccess = Long.MAX_VALUE;
+            for (LiveBoard board : liveBoards.values()) {
+                if (!board.getLessonId().equals(keepLessonId) && board.getLastAccess() < oldestAccess) {
+                    oldest = board.getLessonId();
+                    oldestAccess = board.getLastAccess();
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            int sizeBefore = liveBoards.size();
+            releaseBoard(oldest);
+            if (liveBoards.size() >= sizeBefore) {
+                return; // запись не удалась — не крутимся в цикле
+            }
+        }
+    }
+    
+    /**
+     * Рассылает участникам урока изменения последнего коммита вместе с порядковым номером
+     * (версией доски). Клиент, заметивший пропуск номера, догружает изменения через /api/changes.
+     * Вызывается под блокировкой доски, чтобы номера уходили в брокер по порядку.
+     */
+    private void publishChanges(LiveBoard board, long before, Long authorId) {
+        if (board.getVersion() == before) {
+            return;
+        }
+        try {
+            LiveBoard.MergeResult diff = board.changesSince(before, Collections.emptySet());
+            Map<String, Object> message = new HashMap<>();
+            message.put("type", "board-ops");
+            message.put("seq", diff.getVersion());
+            message.put("prevSeq", before);
+            message.put("elements", diff.getElements());
+            message.put("senderId", authorId);
+            messagingTemplate.convertAndSend("/topic/whiteboard/" + board.getLessonId(), message);
+        } catch (Exception e) {
+            // Клиенты догонят изменения по номеру версии, сохранение не должно падать
+            logger.warn("Не удалось разослать изменения доски урока {}: {}", board.getLessonId(), e.getMessage());
+        }
     }
     
     /**
-     * Очищает доску
+     * Записывает снимок доски и сворачивает журнал. Запись сериализована по доске:
+     * иначе более старый снимок мог бы лечь в БД после нового, журнал которого уже удалён.
      */
-    @Transactional
-    public BoardState clearBoard(Long lessonId) {
-        return saveBoardState(lessonId, "{\"elements\":[],\"appState\":{}}");
+    private void flushBoard(LiveBoard board) {
+        synchronized (board.getFlushLock()) {
+            LiveBoard.Snapshot snapshot = board.takeSnapshot();
+            if (snapshot != null) {
+                writeSnapshot(board, snapshot);
+            }
+        }
+    }
+    
+    private void writeSnapshot(LiveBoard board, LiveBoard.Snapshot snapshot) {
+        try {
+            BoardState state = board.getBoardStateId() != null
+                    ? boardStateRepository.findById(board.getBoardStateId()).orElse(null)
+                    : null;
+            if (state == null) {
+                Lesson lesson = lessonRepository.findById(board.getLessonId())
+                        .orElseThrow(() -> new RuntimeException("Урок не найден"));
+                state = new BoardState(lesson, null);
+            }
+            state.setSnapshot(BoardSnapshotCodec.encode(snapshot.getBoardData()));
+            state.setVersion(snapshot.getVersion());
+            state = boardStateRepository.save(state);
+            board.setBoardStateId(state.getId());
+            
+            // Операции до снимка включительно больше не нужны
+            if (snapshot.getLastOperationId() > 0) {
+                boardOperationRepository.deleteCompacted(board.getLessonId(), snapshot.getLastOperationId());
+            }
+        } catch (Exception e) {
+            board.markDirty();
+            logger.error("Ошибка записи доски урока {}: {}", board.getLessonId(), e.getMessage(), e);
+        }
+    }
+    
+    // Последняя запись board_states, просмотренная миграцией: пропущенные записи
+    // (активная доска, ошибка) не застревают в начале выборки
+    private volatile long legacyMigrationCursor;
+    
+    /**
+     * Переводит старые записи board_states (JSON в двух TEXT-колонках) в сжатый снимок.
+     * Обрабатывает небольшую пачку за раз по возрастанию ID; дойдя до конца, начинает
+     * заново, чтобы подобрать пропущенные записи.
+     */
+    @Scheduled(initialDelay = 60000, fixedDelay = 600000)
+    public void migrateLegacyBoardStates() {
+        List<BoardState> legacy = boardStateRepository
+                .findTop50BySnapshotIsNullAndIdGreaterThanOrderByIdAsc(legacyMigrationCursor);
+        int migrated = 0;
+        for (BoardState state : legacy) {
+            legacyMigrationCursor = state.getId();
+            // Активные доски переведутся сами при ближайшей записи
+            if (liveBoards.containsKey(state.getLesson().getId())) {
+                continue;
+            }
+            try {
+                state.setSnapshot(BoardSnapshotCodec.encode(readBoardData(state)));
+                boardStateRepository.save(state);
+                migrated++;
+            } catch (Exception e) {
+                logger.error("Ошибка перевода доски {} в сжатый формат: {}", state.getId(), e.getMessage(), e);
+            }
+        }
+        if (legacy.size() < 50) {
+            legacyMigrationCursor = 0;
+        }
+        if (migrated > 0) {
+            logger.info("Переведено в сжатый формат досок: {}", migrated);
+        }
+    }
+    
+    /**
+     * JSON доски из записи: сжатый снимок, а для ещё не переведённых записей — текстовые колонки
+     * (пустая колонка board_data читается как пустая доска)
+     */
+    private String readBoardData(BoardState state) {
+        if (state.getSnapshot() != null) {
+            return BoardSnapshotCodec.decode(state.getSnapshot());
+        }
+        String boardData = state.getBoardData();
+        return boardData != null && !boardData.isEmpty() ? boardData : EMPTY_BOARD;
+    }
+    
+    private BoardOperation toOperation(Long lessonId, Map<String, Object> op) {
+        JsonNode element = op.get("element") != null ? objectMapper.valueToTree(op.get("element")) : null;
+        
+        JsonNode idNode = op.get("elementId") != null
+                ? objectMapper.valueToTree(op.get("elementId"))
+                : (element != null ? element.get("id") : null);
+        String key = LiveBoard.elementKey(idNode);
+        if (key == null) {
+            return null;
+        }
+        
+        Long version = null;
+        Object versionObj = op.get("version");
+        if (versionObj instanceof Number) {
+            version = ((Number) versionObj).longValue();
+        } else if (element != null && element.has("version")) {
+            version = element.get("version").asLong();
+        }
+        
+        if (Boolean.TRUE.equals(op.get("deleted"))) {
+            return new BoardOperation(lessonId, BoardOperation.OpType.DELETE, key, version, null);
+        }
+        if (element == null || !element.isObject()) {
+            return null;
+        }
+        return new BoardOperation(lessonId, BoardOperation.OpType.UPSERT, key, version, writeJson(element));
+    }
+    
+    private ObjectNode parseBoard(String boardData) {
+        JsonNode node = readJson(boardData != null && !boardData.isEmpty() ? boardData : EMPTY_BOARD);
+        return node.isObject() ? (ObjectNode) node : (ObjectNode) readJson(EMPTY_BOARD);
+    }
+    
+    private JsonNode readJson(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Некорректный JSON доски: " + e.getOriginalMessage(), e);
+        }
+    }
+    
+    private String writeJson(JsonNode node) {
+        try {
+            return objectMapper.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Ошибка сериализации доски: " + e.getOriginalMessage(), e);
+        }
     }
 }
 
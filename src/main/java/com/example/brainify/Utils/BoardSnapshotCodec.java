@@ -0,0 +1,69 @@
+package com.example.brainify.Utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Формат хранения снимка доски в колонке board_states.snapshot (BYTEA).
+ *
+ * Структура: 2 байта сигнатуры "BS", 1 байт версии формата, затем тело.
+ * Версия 1 — JSON доски в UTF-8, сжатый gzip. Новые форматы добавляются
+ * следующим номером версии, старые снимки продолжают читаться.
+ */
+public class BoardSnapshotCodec {
+
+    public static final int FORMAT_GZIP_JSON = 1;
+
+    private static final byte MAGIC_0 = 'B';
+    private static final byte MAGIC_1 = 'S';
+    private static final int HEADER_SIZE = 3;
+
+    /**
+     * Кодирует JSON доски в текущий формат снимка
+     */
+    public static byte[] encode(String boardJson) {
+        byte[] json = boardJson.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + HEADER_SIZE + 32);
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.write(FORMAT_GZIP_JSON);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+            gzip.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка сжатия снимка доски", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Декодирует снимок доски в JSON
+     */
+    public static String decode(byte[] snapshot) {
+        if (!isSnapshot(snapshot)) {
+            throw new IllegalArgumentException("Неизвестный формат снимка доски");
+        }
+        int format = snapshot[2];
+        if (format != FORMAT_GZIP_JSON) {
+            throw new IllegalArgumentException("Неподдерживаемая версия формата снимка доски: " + format);
+        }
+        try (InputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(snapshot, HEADER_SIZE, snapshot.length - HEADER_SIZE), 8192)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Повреждённый снимок доски", e);
+        }
+    }
+
+    /**
+     * Проверяет сигнатуру снимка
+     */
+    public static boolean isSnapshot(byte[] data) {
+        return data != null && data.length > HEADER_SIZE && data[0] == MAGIC_0 && data[1] == MAGIC_1;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.brainify.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+
+/**
+ * Компактная запись точек штриха в событиях рисования (поле packed в path-progress).
+ *
+ * Структура: 1 байт версии формата, затем пары координат. Координаты квантуются
+ * с шагом 1/SCALE, первая точка пишется целиком, остальные — разностью с предыдущей;
+ * числа кодируются zigzag varint. Байты передаются строкой base64url без выравнивания,
+ * так как STOMP-клиент и транспорты SockJS работают только с текстовыми кадрами.
+ * Та же запись реализована в whiteboard.js (_packStrokePoints/_unpackStrokePoints).
+ */
+public class StrokePointCodec {
+
+    public static final int FORMAT_DELTA_VARINT = 1;
+
+    // Шаг квантования — 0.1 единицы холста
+    public static final int SCALE = 10;
+
+    /**
+     * Кодирует точки, заданные парами координат x0, y0, x1, y1, ...
+     */
+    public static String encode(double[] coords) {
+        if (coords.length % 2 != 0) {
+            throw new IllegalArgumentException("Нечётное число координат штриха");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 + coords.length * 2);
+        out.write(FORMAT_DELTA_VARINT);
+        long prevX = 0;
+        long prevY = 0;
+        for (int i = 0; i < coords.length; i += 2) {
+            long x = Math.round(coords[i] * SCALE);
+            long y = Math.round(coords[i + 1] * SCALE);
+            writeVarint(out, zigzag(x - prevX));
+            writeVarint(out, zigzag(y - prevY));
+            prevX = x;
+            prevY = y;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+    }
+
+    /**
+     * Декодирует точки в пары координат x0, y0, x1, y1, ...
+     */
+    public static double[] decode(String packed) {
+        byte[] bytes = Base64.getUrlDecoder().decode(packed);
+        if (bytes.length == 0 || bytes[0] != FORMAT_DELTA_VARINT) {
+            throw new IllegalArgumentException("Неизвестный формат точек штриха");
+        }
+        double[] coords = new double[bytes.length * 2];
+        int count = 0;
+        long x = 0;
+        long y = 0;
+        int[] pos = {1};
+        while (pos[0] < bytes.length) {
+            x += unzigzag(readVarint(bytes, pos));
+            y += unzigzag(readVarint(bytes, pos));
+            coords[count++] = (double) x / SCALE;
+            coords[count++] = (double) y / SCALE;
+        }
+        double[] result = new double[count];
+        System.arraycopy(coords, 0, result, 0, count);
+        return result;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] bytes, int[] pos) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos[0] >= bytes.length) {
+                throw new IllegalArgumentException("Обрезанная запись точек штриха");
+            }
+            byte b = bytes[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Повреждённая запись точек штриха");
+    }
+}
@@ -7,17 +7,41 @@
     'use strict';
 
     let currentChatUserId = null;
-    let lastMessageTime = null;
+    let lastMessageId = null;     // курсор догрузки новых; null — история ещё не загружена
+    let oldestMessageId = null;   // курсор "загрузить старые"
+    let hasOlderMessages = false;
+    let loadingOlder = false;
+    let loadedMessages = [];
     let pollingInterval = null;
     let unreadPollingInterval = null;
     let contactsPollingInterval = null;
+    let stompClient = null;
+    let realtimeConnected = false;
+    let reconnectDelay = 0;
+    let unreadTotal = 0;
     let contacts = [];
+    let contactsPage = 0;
+    let contactsHasMore = false;
+    let contactsLoading = false;
+    let searchResults = null;
+    let searchTimer = null;
     let selectedFile = null;
+    let typingSentAt = 0;         // когда собеседнику последний раз ушёл признак набора
+    let typingStopTimer = null;
+    let partnerTypingTimer = null;
     let initialized = false; // Защита от повторной инициализации
 
     const POLL_DELAY = 3000;
     const UNREAD_POLL_DELAY = 10000;
     const CONTACTS_POLL_DELAY = 8000;
+    const CONTACTS_PAGE_SIZE = 50;
+    const MESSAGES_PAGE_SIZE = 50;
+    const SEARCH_DELAY = 300;
+    const RECONNECT_MIN_DELAY = 2000;
+    const RECONNECT_MAX_DELAY = 30000;
+    const TYPING_RESEND_DELAY = 3000;  // повтор признака набора, пока пользователь печатает
+    const TYPING_IDLE_DELAY = 4000;    // пауза, после которой набор считается законченным
+    const TYPING_SHOW_TIME = 6000;     // сколько показывать «печатает…» без новых событий
 
     // ---- Инициализация ----
     function initChat() {
@@ -28,9 +52,9 @@
         }
         initialized = true;
         loadContacts();
-        startUnreadPolling();
-        startContactsPolling();
+        updateUnreadBadge();
         setupInputHandlers();
+        connectRealtime();
     }
 
     // ---- Контакты ----
@@ -44,10 +68,12 @@
         }
 
         try {
-            const resp = await fetch('/api/chat/contacts');
+            const resp = await fetch(`/api/chat/contacts?page=0&size=${CONTACTS_PAGE_SIZE}`);
             if (!resp.ok) throw new Error('Ошибка загрузки');
             contacts = await resp.json();
-            renderContacts(contacts);
+            contactsPage = 0;
+            contactsHasMore = contacts.length === CONTACTS_PAGE_SIZE;
+            if (!searchResults) renderContacts(contacts);
         } catch (e) {
             if (!contacts.length) {
                 list.innerHTML = '<div class="chat-loading">Не удалось загрузить контакты</div>';
@@ -56,6 +82,32 @@
         }
     }
 
+    // Следующая страница контактов (у админов и менеджеров — вся школа)
+    async function loadMoreContacts() {
+        if (!contactsHasMore || contactsLoading || searchResults) return;
+        contactsLoading = true;
+        try {
+            const page = contactsPage + 1;
+            const resp = await fetch(`/api/chat/contacts?page=${page}&size=${CONTACTS_PAGE_SIZE}`);
+            if (!resp.ok) return;
+            const more = await resp.json();
+            const known = new Set(contacts.map(c => c.id));
+            more.forEach(c => { if (!known.has(c.id)) contacts.push(c); });
+            contactsPage = page;
+            contactsHasMore = more.length === CONTACTS_PAGE_SIZE;
+            if (!searchResults) renderContacts(contacts);
+        } catch (e) {
+            console.error('Chat contacts error:', e);
+        } finally {
+            contactsLoading = false;
+        }
+    }
+
+    function findContact(userId) {
+        return contacts.find(c => c.id === userId)
+            || (searchResults && searchResults.find(c => c.id === userId));
+    }
+
     function renderContacts(list) {
         const container = document.getElementById('chatContactsList');
         if (!container) return;
@@ -74,6 +126,7 @@
                 ? escapeHtml(c.lastMessage.length > 35 ? c.lastMessage.slice(0, 35) + '…' : c.lastMessage)
                 : '<span style="opacity:.5">Нет сообщений</span>';
             const unreadDot = c.unread > 0 ? '<span class="contact-unread-dot"></span>' : '';
+            const onlineDot = c.online ? '<span class="contact-online-dot"></span>' : '';
             const pinned = c.pinned ? ' pinned' : '';
             const active = c.id === currentChatUserId ? ' active' : '';
 
@@ -81,6 +134,7 @@
                 <div class="chat-contact-item${pinned}${active}" data-user-id="${c.id}" onclick="window.brainifyChat.openChat(${c.id})">
                     <div class="contact-avatar-wrap">
                         <div class="contact-avatar ${avatarClass}">${avatarContent}</div>
+                        ${onlineDot}
                         ${unreadDot}
                     </div>
                     <div class="contact-info">
@@ -96,10 +150,17 @@
     }
 
     function filterContacts(query) {
+        clearTimeout(searchTimer);
         if (!query) {
+            searchResults = null;
             renderContacts(contacts);
             return;
         }
+        if (contactsHasMore) {
+            // Загружена не вся школа — ищем на сервере
+            searchTimer = setTimeout(() => searchContacts(query), SEARCH_DELAY);
+            return;
+        }
         const q = query.toLowerCase();
         const filtered = contacts.filter(c =>
             c.name.toLowerCase().includes(q) ||
@@ -108,10 +169,28 @@
         renderContacts(filtered);
     }
 
+    async function searchContacts(query) {
+        try {
+            const resp = await fetch(`/api/chat/contacts?size=${CONTACTS_PAGE_SIZE}&q=${encodeURIComponent(query)}`);
+            if (!resp.ok) return;
+            const found = await resp.json();
+            const input = document.getElementById('chatSearchInput');
+            if (input && input.value !== query) return; // пришёл ответ на устаревший запрос
+            searchResults = found;
+            renderContacts(found);
+        } catch (e) {
+            console.error('Chat search error:', e);
+        }
+    }
+
     // ---- Открыть чат ----
     async function openChat(userId) {
+        if (userId !== currentChatUserId) stopTyping();
         currentChatUserId = userId;
-        lastMessageTime = null;
+        lastMessageId = null;
+        oldestMessageId = null;
+        hasOlderMessages = false;
+        loadedMessages = [];
         stopPolling();
 
         // Обновляем active в списке
@@ -124,14 +203,14 @@
         if (container) container.classList.add('chat-open');
 
         // Находим контакт
-        const contact = contacts.find(c => c.id === userId);
+        const contact = findContact(userId);
 
         // Обновляем шапку
         const headerName = document.getElementById('chatHeaderName');
-        const headerSub = document.getElementById('chatHeaderSub');
         const headerAvatar = document.getElementById('chatHeaderAvatar');
         if (headerName) headerName.textContent = contact ? contact.name : '';
-        if (headerSub) headerSub.textContent = contact ? (contact.subtitle || contact.roleDisplay) : '';
+        clearTimeout(partnerTypingTimer);
+        renderHeaderSub(contact);
         if (headerAvatar && contact) {
             const isSupport = contact.isSupport === true;
             headerAvatar.className = 'contact-avatar ' + (isSupport ? 'support' : getAvatarClass(contact.role));
@@ -147,8 +226,8 @@
         // Загружаем сообщения
         await loadMessages(userId);
 
-        // Запускаем polling
-        startPolling(userId);
+        // Без WebSocket-соединения новые сообщения догружаются опросом
+        if (!realtimeConnected) startPolling(userId);
 
         // Убираем точку непрочитанных для этого контакта
         const item = document.querySelector(`.chat-contact-item[data-user-id="${userId}"]`);
@@ -173,20 +252,49 @@
         msgContainer.innerHTML = '<div class="chat-loading"><i class="fas fa-spinner fa-spin"></i> Загрузка...</div>';
 
         try {
-            const resp = await fetch(`/api/chat/messages/${userId}`);
+            const resp = await fetch(`/api/chat/messages/${userId}?limit=${MESSAGES_PAGE_SIZE}`);
             if (!resp.ok) throw new Error('Ошибка');
             const messages = await resp.json();
-            renderMessages(messages);
-            if (messages.length) {
-                lastMessageTime = messages[messages.length - 1].createdAt;
-            }
+            if (currentChatUserId !== userId) return;
+            loadedMessages = messages;
+            hasOlderMessages = messages.length === MESSAGES_PAGE_SIZE;
+            oldestMessageId = messages.length ? messages[0].id : null;
+            lastMessageId = messages.length ? messages[messages.length - 1].id : 0;
+            renderMessages(loadedMessages);
         } catch (e) {
             msgContainer.innerHTML = '<div class="chat-loading">Не удалось загрузить сообщения</div>';
             console.error('Chat messages error:', e);
         }
     }
 
-    function renderMessages(messages) {
+    // Более старая страница истории (при прокрутке к началу переписки)
+    async function loadOlderMessages() {
+        if (!hasOlderMessages || loadingOlder || !oldestMessageId) return;
+        const userId = currentChatUserId;
+        loadingOlder = true;
+        try {
+            const resp = await fetch(`/api/chat/messages/${userId}?before=${oldestMessageId}&limit=${MESSAGES_PAGE_SIZE}`);
+            if (!resp.ok) return;
+            const older = await resp.json();
+            if (currentChatUserId !== userId) return;
+            hasOlderMessages = older.length === MESSAGES_PAGE_SIZE;
+            if (!older.length) return;
+            oldestMessageId = older[0].id;
+            loadedMessages = older.concat(loadedMessages);
+
+            // Сохраняем положение прокрутки относительно уже показанных сообщений
+            const container = document.getElementById('chatMessages');
+            const fromBottom = container.scrollHeight - container.scrollTop;
+            renderMessages(loadedMessages, false);
+            container.scrollTop = container.scrollHeight - fromBottom;
+        } catch (e) {
+            console.error('Chat history error:', e);
+        } finally {
+            loadingOlder = false;
+        }
+    }
+
+    function renderMessages(messages, scroll = true) {
         const container = document.getElementById('chatMessages');
         if (!container) return;
 
@@ -208,7 +316,7 @@
             }
 
             const isSent = msg.senderId === myId;
-            const cls = isSent ? 'sent' : 'received';
+            const cls = isSent ? (msg.isRead ? 'sent read' : 'sent') : 'received';
             const time = formatTime(msg.createdAt);
 
             html += `<div class="chat-msg ${cls}" data-msg-id="${msg.id}">`;
@@ -222,12 +330,15 @@
         });
 
         container.innerHTML = html;
-        scrollToBottom();
+        if (scroll) scrollToBottom();
     }
 
     function renderFileAttachment(msg) {
         if (msg.isImage) {
-            return `<img class="chat-msg-image" src="/api/chat/file/${msg.id}" alt="${escapeHtml(msg.fileName)}" onclick="window.open('/api/chat/file/${msg.id}', '_blank')">`;
+            // В списке — уменьшенная копия с отложенной загрузкой, оригинал — только по клику
+            const size = msg.thumbWidth && msg.thumbHeight
+                ? ` width="${msg.thumbWidth}" height="${msg.thumbHeight}"` : '';
+            return `<img class="chat-msg-image" src="/api/chat/file/${msg.id}/thumb" loading="lazy" decoding="async"${size} alt="${escapeHtml(msg.fileName)}" onclick="window.open('/api/chat/file/${msg.id}', '_blank')">`;
         }
         const icon = getFileIcon(msg.mimeType);
         return `
@@ -276,14 +387,12 @@
             div.dataset.msgId = msg.id;
             div.innerHTML = `${contentHtml}<span class="chat-msg-time">${time}</span>`;
             container.appendChild(div);
+            loadedMessages.push(msg);
+            if (msg.id > (lastMessageId || 0)) lastMessageId = msg.id;
             added = true;
         });
 
         if (added) scrollToBottom();
-
-        if (newMessages.length) {
-            lastMessageTime = newMessages[newMessages.length - 1].createdAt;
-        }
     }
 
     // ---- Отправка ----
@@ -292,6 +401,7 @@
         if (!textarea || !currentChatUserId) return;
 
         const content = textarea.value.trim();
+        stopTyping();
 
         if (selectedFile) {
             const formData = new FormData();
@@ -390,20 +500,227 @@
         if (input) input.value = '';
     }
 
-    // ---- Polling ----
+    // ---- Доставка в реальном времени ----
+    // События приходят в личную очередь /user/queue/chat; HTTP нужен только,
+    // чтобы догнать пропущенное при (пере)подключении или без WebSocket
+    function connectRealtime() {
+        if (typeof SockJS === 'undefined' || typeof Stomp === 'undefined') {
+            startFallbackPolling();
+            return;
+        }
+
+        const socket = new SockJS('/ws');
+        const client = Stomp.over(socket);
+        client.debug = null;
+        stompClient = client;
+
+        client.connect({}, () => {
+            realtimeConnected = true;
+            reconnectDelay = 0;
+            stopFallbackPolling();
+            client.subscribe('/user/queue/chat', (frame) => {
+                try {
+                    handleChatEvent(JSON.parse(frame.body));
+                } catch (e) {
+                    console.error('Chat event error:', e);
+                }
+            });
+            catchUp();
+        }, () => {
+            if (stompClient !== client) return;
+            realtimeConnected = false;
+            stompClient = null;
+            startFallbackPolling();
+            reconnectDelay = Math.min(Math.max(reconnectDelay * 2, RECONNECT_MIN_DELAY), RECONNECT_MAX_DELAY);
+            setTimeout(connectRealtime, reconnectDelay);
+        });
+    }
+
+    // Разовая догрузка после подключения: события за время разрыва не доставлялись
+    function catchUp() {
+        updateUnreadBadge();
+        refreshContacts();
+        if (currentChatUserId && lastMessageId !== null) {
+            fetchNewMessages(currentChatUserId);
+        }
+    }
+
+    function handleChatEvent(event) {
+        const myId = getCurrentUserId();
+        switch (event.type) {
+            case 'message': {
+                const msg = event.message;
+                const contactId = msg.senderId === myId ? msg.receiverId : msg.senderId;
+                const contact = findContact(contactId);
+
+                if (contactId === currentChatUserId) {
+                    appendMessages([msg]);
+                    // Открытый чат: отметка прочтения сдвигается до этого сообщения,
+                    // сервер пришлёт уменьшение счётчика и отметку отправителю
+                    if (msg.senderId !== myId) {
+                        fetch(`/api/chat/read/${contactId}?upTo=${msg.id}`, { method: 'POST' }).catch(() => {});
+                    }
+                } else if (event.unreadDelta > 0 && contact) {
+                    contact.unread = (contact.unread || 0) + event.unreadDelta;
+                    setContactUnreadDot(contactId, true);
+                }
+                changeUnreadTotal(event.unreadDelta || 0);
+
+                if (contact) {
+                    contact.lastMessage = msg.hasFile ? '📎 ' + msg.fileName : msg.content;
+                    contact.lastMessageTime = msg.createdAt;
+                    updateContactLastMessage(contactId, msg);
+                } else if (!contactsHasMore) {
+                    // Новый собеседник — список контактов строится на сервере
+                    loadContacts();
+                }
+                break;
+            }
+            case 'unread': {
+                changeUnreadTotal(event.delta);
+                const contact = contacts.find(c => c.id === event.contactId);
+                if (contact) {
+                    contact.unread = Math.max(0, (contact.unread || 0) + event.delta);
+                    if (contact.unread === 0) setContactUnreadDot(event.contactId, false);
+                }
+                break;
+            }
+            case 'presence': {
+                const contact = findContact(event.userId);
+                if (contact) contact.online = event.online;
+                setContactOnlineDot(event.userId, event.online);
+                if (event.userId === currentChatUserId) renderHeaderSub(contact);
+                break;
+            }
+            case 'typing': {
+                if (event.userId !== currentChatUserId) break;
+                clearTimeout(partnerTypingTimer);
+                const contact = findContact(event.userId);
+                if (event.typing) {
+                    renderHeaderSub(contact, true);
+                    partnerTypingTimer = setTimeout(() => renderHeaderSub(findContact(event.userId)), TYPING_SHOW_TIME);
+                } else {
+                    renderHeaderSub(contact);
+                }
+                break;
+            }
+            case 'read': {
+                if (event.readerId === currentChatUserId) {
+                    document.querySelectorAll('#chatMessages .chat-msg.sent').forEach(el => {
+                        if (!event.upToId || Number(el.dataset.msgId) <= event.upToId) el.classList.add('read');
+                    });
+                }
+                break;
+            }
+        }
+    }
+
+    function setContactOnlineDot(userId, online) {
+        const item = document.querySelector(`.chat-contact-item[data-user-id="${userId}"]`);
+        if (!item) return;
+        const wrap = item.querySelector('.contact-avatar-wrap');
+        if (!wrap) return;
+        const existingDot = wrap.querySelector('.contact-online-dot');
+        if (online && !existingDot) {
+            const dot = document.createElement('span');
+            dot.className = 'contact-online-dot';
+            wrap.querySelector('.contact-avatar').after(dot);
+        } else if (!online && existingDot) {
+            existingDot.remove();
+        }
+    }
+
+    // Подзаголовок шапки чата: «печатает…», «в сети» или роль собеседника
+    function renderHeaderSub(contact, typing = false) {
+        const headerSub = document.getElementById('chatHeaderSub');
+        if (!headerSub) return;
+        if (!contact) {
+            headerSub.textContent = '';
+        } else if (typing) {
+            headerSub.textContent = 'печатает…';
+        } else {
+            const subtitle = contact.subtitle || contact.roleDisplay || '';
+            headerSub.textContent = contact.online ? (subtitle ? subtitle + ' · в сети' : 'в сети') : subtitle;
+        }
+    }
+
+    // Признак набора уходит по STOMP не чаще раза в TYPING_RESEND_DELAY, окончание — после паузы
+    function notifyTyping() {
+        if (!stompClient || !realtimeConnected || !currentChatUserId) return;
+        const now = Date.now();
+        if (now - typingSentAt > TYPING_RESEND_DELAY) {
+            typingSentAt = now;
+            sendTypingState(true);
+        }
+        clearTimeout(typingStopTimer);
+        typingStopTimer = setTimeout(stopTyping, TYPING_IDLE_DELAY);
+    }
+
+    function stopTyping() {
+        clearTimeout(typingStopTimer);
+        if (!typingSentAt) return;
+        typingSentAt = 0;
+        sendTypingState(false);
+    }
+
+    function sendTypingState(typing) {
+        if (!stompClient || !realtimeConnected || !currentChatUserId) return;
+        try {
+            stompClient.send('/app/chat.typing', {}, JSON.stringify({ to: currentChatUserId, typing }));
+        } catch (e) {
+            // соединение закрывается — признак набора не важен
+        }
+    }
+
+    function setContactUnreadDot(userId, visible) {
+        const item = document.querySelector(`.chat-contact-item[data-user-id="${userId}"]`);
+        if (!item) return;
+        const wrap = item.querySelector('.contact-avatar-wrap');
+        if (!wrap) return;
+        const existingDot = wrap.querySelector('.contact-unread-dot');
+        if (visible && userId !== currentChatUserId && !existingDot) {
+            const dot = document.createElement('span');
+            dot.className = 'contact-unread-dot';
+            wrap.appendChild(dot);
+        } else if (!visible && existingDot) {
+            existingDot.remove();
+        }
+    }
+
+    // ---- Опрос (только пока нет WebSocket-соединения) ----
+    function startFallbackPolling() {
+        if (currentChatUserId) startPolling(currentChatUserId);
+        startUnreadPolling();
+        startContactsPolling();
+    }
+
+    function stopFallbackPolling() {
+        stopPolling();
+        if (unreadPollingInterval) {
+            clearInterval(unreadPollingInterval);
+            unreadPollingInterval = null;
+        }
+        if (contactsPollingInterval) {
+            clearInterval(contactsPollingInterval);
+            contactsPollingInterval = null;
+        }
+    }
+
+    async function fetchNewMessages(userId) {
+        if (lastMessageId === null || currentChatUserId !== userId) return;
+        try {
+            const resp = await fetch(`/api/chat/messages/${userId}/new?afterId=${lastMessageId}`);
+            if (!resp.ok) return;
+            const newMsgs = await resp.json();
+            if (newMsgs.length && currentChatUserId === userId) {
+                appendMessages(newMsgs);
+            }
+        } catch (e) { /* ignore */ }
+    }
+
     function startPolling(userId) {
         stopPolling();
-        pollingInterval = setInterval(async () => {
-            if (!lastMessageTime || currentChatUserId !== userId) return;
-            try {
-                const resp = await fetch(`/api/chat/messages/${userId}/new?after=${encodeURIComponent(lastMessageTime)}`);
-                if (!resp.ok) return;
-                const newMsgs = await resp.json();
-                if (newMsgs.length) {
-                    appendMessages(newMsgs);
-                }
-            } catch (e) { /* ignore */ }
-        }, POLL_DELAY);
+        pollingInterval = setInterval(() => fetchNewMessages(userId), POLL_DELAY);
     }
 
     function stopPolling() {
@@ -421,51 +738,57 @@
 
     function startContactsPolling() {
         if (contactsPollingInterval) clearInterval(contactsPollingInterval);
-        contactsPollingInterval = setInterval(async () => {
-            // Обновляем контакты, чтобы показывать новые точки непрочитанных
-            try {
-                const resp = await fetch('/api/chat/contacts');
-                if (!resp.ok) return;
-                const newContacts = await resp.json();
-                contacts = newContacts;
+        contactsPollingInterval = setInterval(refreshContacts, CONTACTS_POLL_DELAY);
+    }
 
-                // Обновляем точки непрочитанных в DOM
-                newContacts.forEach(c => {
-                    const item = document.querySelector(`.chat-contact-item[data-user-id="${c.id}"]`);
-                    if (!item) return;
+    async function refreshContacts() {
+        // Обновляем контакты, чтобы показывать новые точки непрочитанных
+        try {
+            // Перезапрашиваем все загруженные страницы одним запросом
+            const size = Math.max(CONTACTS_PAGE_SIZE, contacts.length);
+            const resp = await fetch(`/api/chat/contacts?page=0&size=${size}`);
+            if (!resp.ok) return;
+            const newContacts = await resp.json();
+            contacts = newContacts;
+            contactsPage = Math.ceil(newContacts.length / CONTACTS_PAGE_SIZE) - 1;
+            contactsHasMore = newContacts.length === size;
 
-                    const wrap = item.querySelector('.contact-avatar-wrap');
-                    if (!wrap) return;
+            // Обновляем точки непрочитанных в DOM
+            newContacts.forEach(c => {
+                const item = document.querySelector(`.chat-contact-item[data-user-id="${c.id}"]`);
+                if (!item) return;
 
-                    const existingDot = wrap.querySelector('.contact-unread-dot');
+                const wrap = item.querySelector('.contact-avatar-wrap');
+                if (!wrap) return;
 
-                    // Не показываем точку для текущего открытого чата
-                    if (c.id === currentChatUserId) {
-                        if (existingDot) existingDot.remove();
-                        return;
-                    }
+                const existingDot = wrap.querySelector('.contact-unread-dot');
 
-                    if (c.unread > 0 && !existingDot) {
-                        const dot = document.createElement('span');
-                        dot.className = 'contact-unread-dot';
-                        wrap.appendChild(dot);
-                    } else if (c.unread === 0 && existingDot) {
-                        existingDot.remove();
-                    }
+                // Не показываем точку для текущего открытого чата
+                if (c.id === currentChatUserId) {
+                    if (existingDot) existingDot.remove();
+                    return;
+                }
 
-                    // Обновляем последнее сообщение
-                    const lastMsgEl = item.querySelector('.contact-last-msg');
-                    if (lastMsgEl && c.lastMessage) {
-                        const text = c.lastMessage.length > 35 ? c.lastMessage.slice(0, 35) + '…' : c.lastMessage;
-                        lastMsgEl.innerHTML = escapeHtml(text);
-                    }
-                    const timeEl = item.querySelector('.contact-time');
-                    if (timeEl && c.lastMessageTime) {
-                        timeEl.textContent = formatShortTime(c.lastMessageTime);
-                    }
-                });
-            } catch (e) { /* ignore */ }
-        }, CONTACTS_POLL_DELAY);
+                if (c.unread > 0 && !existingDot) {
+                    const dot = document.createElement('span');
+                    dot.className = 'contact-unread-dot';
+                    wrap.appendChild(dot);
+                } else if (c.unread === 0 && existingDot) {
+                    existingDot.remove();
+                }
+
+                // Обновляем последнее сообщение
+                const lastMsgEl = item.querySelector('.contact-last-msg');
+                if (lastMsgEl && c.lastMessage) {
+                    const text = c.lastMessage.length > 35 ? c.lastMessage.slice(0, 35) + '…' : c.lastMessage;
+                    lastMsgEl.innerHTML = escapeHtml(text);
+                }
+                const timeEl = item.querySelector('.contact-time');
+                if (timeEl && c.lastMessageTime) {
+                    timeEl.textContent = formatShortTime(c.lastMessageTime);
+                }
+            });
+        } catch (e) { /* ignore */ }
     }
 
     async function updateUnreadBadge() {
@@ -473,14 +796,25 @@
             const resp = await fetch('/api/chat/unread');
             if (!resp.ok) return;
             const data = await resp.json();
-            const badge = document.getElementById('notificationCount');
-            if (badge) {
-                badge.textContent = data.unread || 0;
-                badge.style.display = data.unread > 0 ? 'flex' : 'none';
-            }
+            unreadTotal = data.unread || 0;
+            renderUnreadBadge();
         } catch (e) { /* ignore */ }
     }
 
+    function changeUnreadTotal(delta) {
+        if (!delta) return;
+        unreadTotal = Math.max(0, unreadTotal + delta);
+        renderUnreadBadge();
+    }
+
+    function renderUnreadBadge() {
+        const badge = document.getElementById('notificationCount');
+        if (badge) {
+            badge.textContent = unreadTotal;
+            badge.style.display = unreadTotal > 0 ? 'flex' : 'none';
+        }
+    }
+
     // ---- Обработчики ввода ----
     function setupInputHandlers() {
         const textarea = document.getElementById('chatInput');
@@ -488,6 +822,7 @@
             textarea.addEventListener('input', () => {
                 textarea.style.height = 'auto';
                 textarea.style.height = Math.min(textarea.scrollHeight, 120) + 'px';
+                if (textarea.value.trim()) notifyTyping(); else stopTyping();
             });
             textarea.addEventListener('keydown', (e) => {
                 if (e.key === 'Enter' && !e.shiftKey) {
@@ -512,6 +847,22 @@
         const removeFileBtn = document.getElementById('chatFileRemoveBtn');
         if (removeFileBtn) removeFileBtn.addEventListener('click', clearFilePreview);
 
+        const messagesList = document.getElementById('chatMessages');
+        if (messagesList) {
+            messagesList.addEventListener('scroll', () => {
+                if (messagesList.scrollTop < 100) loadOlderMessages();
+            });
+        }
+
+        const contactsList = document.getElementById('chatContactsList');
+        if (contactsList) {
+            contactsList.addEventListener('scroll', () => {
+                if (contactsList.scrollTop + contactsList.clientHeight >= contactsList.scrollHeight - 200) {
+                    loadMoreContacts();
+                }
+            });
+        }
+
         const searchInput = document.getElementById('chatSearchInput');
         if (searchInput) {
             searchInput.addEventListener('input', (e) => filterContacts(e.target.value));
@@ -82,8 +82,10 @@ class Whiteboard {
         this.lastSyncedVersion = 0;
         this.isSaving = false;
         this.pendingSave = false;
-        this.lastSavedData = null;
         this.localElements = new Set();
+        // Последние сохранённые на сервере версии элементов: id -> { json, version }
+        this.savedElements = new Map();
+        this.savedAppState = null;
         this.lastSyncTime = 0;
         
         // Реальное время — STOMP
@@ -92,11 +94,13 @@ class Whiteboard {
         this.remoteDrawPath = [];
         this.lastBroadcastTime = 0;
         this.broadcastThrottle = 30;
+        // Точки штриха передаются компактной записью (поле packed), сервер
+        // разворачивает её для клиентов, подписанных без draw-encoding: packed
+        this.packedStrokes = typeof btoa === 'function' && typeof atob === 'function';
         
         // Защита недавно полученных по STOMP элементов от удаления при merge
         this.recentRemoteIds = new Map();
         this.remoteProtectionTTL = 15000;
-        this.remoteDirty = false;
         
         this.init();
     }
@@ -1055,7 +1059,7 @@ class Whiteboard {
             const fromIdx = this._lastBroadcastPathIndex || 0;
             const remaining = this.currentPath.slice(fromIdx);
             if (remaining.length > 0) {
-                this.broadcastDrawImmediate({ type: 'path-progress', points: remaining });
+                this.broadcastDrawImmediate(this._pathProgressEvent(remaining));
             }
             
             const simplified = this._simplifyPoints(this.currentPath, 0.8);
@@ -1493,12 +1497,6 @@ class Whiteboard {
             let h = img.naturalHeight;
             const maxDim = 1200;
             
-            // Compress: re-encode via canvas to limit resolution and file size
-            let finalSrc = dataUrl;
-            if (w > maxDim || h > maxDim || dataUrl.length > 500000) {
-                const compressed = this._compressImage(img, maxDim, 0.82);
-                if (compressed) finalSrc = compressed;
-            }
             
             const displayMax = 600;
             let dw = w, dh = h;
@@ -1509,10 +1507,18 @@ class Whiteboard {
             }
             
             // Ключевой шаг: сохраняем файл на сервер и в доске держим URL, а не base64.
-            let persistedSrc = finalSrc;
-            const uploadedUrl = await this.uploadImageToServer(finalSrc);
-            if (uploadedUrl) {
-                persistedSrc = uploadedUrl;
+            // Сервер хранит оригинал и сам готовит уменьшенную копию для доски.
+            let persistedSrc;
+            const uploaded = await this.uploadImageToServer(dataUrl);
+            if (uploaded) {
+                persistedSrc = uploaded.previewUrl || uploaded.url;
+            } else {
+                // Сервер недоступен — держим в доске сжатый base64
+                persistedSrc = dataUrl;
+                if (w > maxDim || h > maxDim || dataUrl.length > 500000) {
+                    const compressed = this._compressImage(img, maxDim, 0.82);
+                    if (compressed) persistedSrc = compressed;
+                }
             }
             
             const now = Date.now();
@@ -1551,15 +1557,17 @@ class Whiteboard {
     
     async uploadImageToServer(dataUrl) {
         try {
+            // Отправляем сам файл, а не base64 в JSON: на треть меньше и без разбора на сервере
+            const blob = await (await fetch(dataUrl)).blob();
             const response = await fetch(`/whiteboard/api/upload-image/${this.lessonId}`, {
                 method: 'POST',
-                headers: { 'Content-Type': 'application/json' },
-                body: JSON.stringify({ dataUrl })
+                headers: { 'Content-Type': blob.type },
+                body: blob
             });
             if (!response.ok) return null;
             const data = await response.json();
             if (data && data.success && data.url) {
-                return data.url;
+                return { url: data.url, previewUrl: data.previewUrl };
             }
             return null;
         } catch (e) {
@@ -2050,11 +2058,11 @@ class Whiteboard {
             }
         }, 3000);
         
+        // Изменения собеседника приходят push-ом по STOMP (board-ops);
+        // опрос — только запасной путь, пока канал не подключён
         this.syncInterval = setInterval(() => {
-            const now = Date.now();
-            const timeSinceLastSync = now - this.lastSyncTime;
-            if (this.remoteDirty || timeSinceLastSync > 10000) {
-                this.remoteDirty = false;
+            if (this.stompClient && this.stompClient.connected) return;
+            if (Date.now() - this.lastSyncTime > 10000) {
                 this.syncBoardState();
             }
         }, 5000);
@@ -2077,12 +2085,23 @@ class Whiteboard {
                 this.stompClient.subscribe(`/topic/whiteboard/${this.lessonId}`, (msg) => {
                     try {
                         const data = JSON.parse(msg.body);
-                        if (String(data.senderId) === String(this.currentUserId)) return;
-                        this.handleRemoteDraw(data);
+                        // Зафиксированные сервером изменения применяем всегда (слияние идемпотентно)
+                        if (data.type === 'board-ops') {
+                            this.handleBoardOps(data);
+                            return;
+                        }
+                        // Сервер собирает события рисования в кадры: progress-batch и batch
+                        const events = (data.type === 'progress-batch' || data.type === 'batch') ? data.events : [data];
+                        for (const event of events) {
+                            if (String(event.senderId) === String(this.currentUserId)) continue;
+                            this.handleRemoteDraw(event);
+                        }
                     } catch (e) {
                         console.warn('Whiteboard: ошибка обработки сообщения:', e);
                     }
-                });
+                }, this.packedStrokes ? { 'draw-encoding': 'packed' } : {});
+                // После (пере)подключения догружаем всё, что пропустили
+                this.syncBoardState();
             }, (err) => {
                 console.warn('Whiteboard: STOMP ошибка подключения:', err);
                 setTimeout(() => {
@@ -2126,10 +2145,64 @@ class Whiteboard {
         this.lastBroadcastTime = now;
         this._lastBroadcastPathIndex = this.currentPath.length;
         if (!this.stompClient || !this.stompClient.connected) return;
-        const data = { type: 'path-progress', points: newPoints, senderId: this.currentUserId };
+        const data = this._pathProgressEvent(newPoints);
+        data.senderId = this.currentUserId;
         this.stompClient.send(`/app/whiteboard/draw/${this.lessonId}`, {}, JSON.stringify(data));
     }
     
+    _pathProgressEvent(points) {
+        return this.packedStrokes
+            ? { type: 'path-progress', packed: this._packStrokePoints(points) }
+            : { type: 'path-progress', points };
+    }
+    
+    // Компактная запись точек штриха (как StrokePointCodec на сервере): версия формата,
+    // координаты с шагом 0.1, разности с предыдущей точкой в zigzag varint, строка base64url
+    _packStrokePoints(points) {
+        const bytes = [1];
+        const writeVarint = (value) => {
+            let v = value >= 0 ? value * 2 : -value * 2 - 1;
+            while (v >= 0x80) {
+                bytes.push((v % 0x80) | 0x80);
+                v = Math.floor(v / 0x80);
+            }
+            bytes.push(v);
+        };
+        let prevX = 0, prevY = 0;
+        for (const p of points) {
+            const x = Math.round(p.x * 10);
+            const y = Math.round(p.y * 10);
+            writeVarint(x - prevX);
+            writeVarint(y - prevY);
+            prevX = x;
+            prevY = y;
+        }
+        return btoa(String.fromCharCode(...bytes)).replace(/\+/g, '-').replace(/\//g, '_').replace(/=+$/, '');
+    }
+    
+    _unpackStrokePoints(packed) {
+        const binary = atob(packed.replace(/-/g, '+').replace(/_/g, '/'));
+        if (binary.charCodeAt(0) !== 1) return [];
+        let pos = 1;
+        const readVarint = () => {
+            let v = 0, mul = 1, b;
+            do {
+                b = binary.charCodeAt(pos++);
+                v += (b & 0x7f) * mul;
+                mul *= 0x80;
+            } while (b & 0x80 && pos < binary.length);
+            return v % 2 === 0 ? v / 2 : -(v + 1) / 2;
+        };
+        const points = [];
+        let x = 0, y = 0;
+        while (pos < binary.length) {
+            x += readVarint();
+            y += readVarint();
+            points.push({ x: x / 10, y: y / 10 });
+        }
+        return points;
+    }
+    
     cleanupRemoteProtection() {
         const now = Date.now();
         for (const [id, ts] of this.recentRemoteIds) {
@@ -2154,12 +2227,14 @@ class Whiteboard {
                 }
                 break;
                 
-            case 'path-progress':
-                if (data.points && data.points.length) {
-                    this.remoteDrawPath.push(...data.points);
+            case 'path-progress': {
+                const points = data.packed ? this._unpackStrokePoints(data.packed) : data.points;
+                if (points && points.length) {
+                    this.remoteDrawPath.push(...points);
                     this.requestRedraw();
                 }
                 break;
+            }
                 
             case 'shape-progress':
                 this.remoteDrawing = data.element;
@@ -2209,7 +2284,6 @@ class Whiteboard {
                 this.remoteDrawing = null;
                 this.remoteDrawPath = [];
                 this.requestRedraw();
-                this.remoteDirty = true;
                 break;
             }
                 
@@ -2219,7 +2293,6 @@ class Whiteboard {
                     this.elements = this.elements.filter(el => !idsSet.has(el.id));
                     data.ids.forEach(id => this.recentRemoteIds.delete(id));
                     this.requestRedraw();
-                    this.remoteDirty = true;
                 }
                 break;
                 
@@ -2286,114 +2359,141 @@ class Whiteboard {
     
     // ===== Sync =====
     
+    handleBoardOps(data) {
+        if (this._applyServerElements(data.elements)) {
+            this._storeImageSrcs();
+            this.saveToHistory();
+            this.preloadImages();
+            this.requestRedraw();
+        }
+        if (data.prevSeq != null && data.prevSeq > this.lastSyncedVersion) {
+            // Пропущен номер изменения — догружаем разницу
+            this.syncBoardState();
+        } else if (data.seq > this.lastSyncedVersion) {
+            this.lastSyncedVersion = data.seq;
+        }
+    }
+    
     async syncBoardState() {
-        if (this.isSaving || this.isDrawing || this.currentPath.length > 0) return;
-        if (this.remoteDrawing) return;
+        if (this._syncInFlight) return;
+        this._syncInFlight = true;
         
         try {
-            const response = await fetch(`/whiteboard/api/state/${this.lessonId}`);
+            const response = await fetch(`/whiteboard/api/changes/${this.lessonId}?since=${this.lastSyncedVersion}`);
             if (!response.ok) return;
             
             const data = await response.json();
-            if (data.success && data.boardData) {
-                try {
-                    const boardData = JSON.parse(data.boardData);
-                    const serverElements = boardData.elements || [];
-                    const serverVersion = data.version || 0;
-                    
-                    if (serverVersion > this.lastSyncedVersion) {
-                        const prevJson = JSON.stringify(this.elements);
-                        
-                        this.mergeElements(serverElements);
-                        this.lastSyncedVersion = serverVersion;
-                        this.lastSyncTime = Date.now();
-                        
-                        this.lastSavedData = JSON.stringify({
-                            elements: this.elements,
-                            appState: boardData.appState || {}
-                        });
-                        
-                        this._storeImageSrcs();
-                        this.saveToHistory();
-                        this.preloadImages();
-                        
-                        const newJson = JSON.stringify(this.elements);
-                        if (newJson !== prevJson) {
-                            this.requestRedraw();
-                        }
-                    } else {
-                        this.lastSyncTime = Date.now();
-                    }
-                } catch (parseError) {
-                    console.debug('Ошибка парсинга при синхронизации:', parseError);
+            if (data.success) {
+                if (this._applyServerElements(data.elements)) {
+                    this._storeImageSrcs();
+                    this.saveToHistory();
+                    this.preloadImages();
+                    this.requestRedraw();
                 }
+                this.lastSyncedVersion = data.version || this.lastSyncedVersion;
+                this.lastSyncTime = Date.now();
             }
         } catch (error) {
             console.debug('Ошибка синхронизации доски:', error);
+        } finally {
+            this._syncInFlight = false;
         }
     }
     
-    mergeElements(serverElements) {
-        const now = Date.now();
-        
-        const serverMap = new Map();
-        serverElements.forEach(el => {
+    // ===== Инкрементальное сохранение: только изменённые элементы =====
+    
+    _elementJson(el) {
+        const { version, ...rest } = el;
+        return JSON.stringify(rest);
+    }
+    
+    _rememberSaved(elements, appState) {
+        this.savedElements.clear();
+        elements.forEach(el => {
             if (el.id != null) {
-                if (!el.timestamp) el.timestamp = 0;
-                serverMap.set(el.id, el);
+                this.savedElements.set(el.id, { json: this._elementJson(el), version: el.version || 0 });
             }
         });
+        if (appState) this.savedAppState = JSON.stringify(appState);
+    }
+    
+    _collectOperations() {
+        const operations = [];
+        const pending = [];
+        const seen = new Set();
         
-        const currentMap = new Map();
         this.elements.forEach(el => {
-            if (el.id != null) {
-                if (!el.timestamp) el.timestamp = now;
-                currentMap.set(el.id, el);
-            }
+            if (el.id == null) el.id = Date.now() + Math.random();
+            seen.add(el.id);
+            const json = this._elementJson(el);
+            const saved = this.savedElements.get(el.id);
+            if (saved && saved.json === json) return;
+            
+            const version = (saved ? saved.version : (el.version || 0)) + 1;
+            el.version = version;
+            el.versionNonce = Math.floor(Math.random() * 2147483647);
+            operations.push({ elementId: el.id, version, element: el });
+            pending.push({ id: el.id, json, version });
         });
         
-        this.cleanupRemoteProtection();
-        
-        const merged = new Map();
-        
-        // Server elements form the baseline
-        serverElements.forEach(el => {
-            if (el.id != null) {
-                const localEl = currentMap.get(el.id);
-                if (localEl && (localEl.timestamp || 0) > (el.timestamp || 0)) {
-                    merged.set(el.id, localEl);
-                } else {
-                    merged.set(el.id, el);
-                }
-            } else {
-                merged.set(Symbol('no-id'), el);
+        this.savedElements.forEach((saved, id) => {
+            if (!seen.has(id)) {
+                const version = saved.version + 1;
+                operations.push({ elementId: id, version, deleted: true });
+                pending.push({ id, version, deleted: true });
             }
         });
         
-        // Preserve local elements not yet on server
-        this.localElements.forEach(localId => {
-            if (!merged.has(localId)) {
-                const localEl = currentMap.get(localId);
-                if (localEl) merged.set(localId, localEl);
-            }
-        });
+        return { operations, pending };
+    }
+    
+    // Правило слияния как на сервере: больше version, при равенстве — меньше versionNonce
+    _serverWins(serverEl, localEl) {
+        const sv = serverEl.version || 0;
+        const lv = localEl.version || 0;
+        if (sv !== lv) return sv > lv;
+        return (serverEl.versionNonce || 0) < (localEl.versionNonce || 0);
+    }
+    
+    _applyServerElements(serverElements) {
+        if (!serverElements || serverElements.length === 0) return false;
         
-        // Preserve recently received STOMP elements not yet on server
-        this.recentRemoteIds.forEach((ts, remoteId) => {
-            if (!merged.has(remoteId)) {
-                const el = currentMap.get(remoteId);
-                if (el) merged.set(remoteId, el);
-            }
-        });
+        const indexById = new Map();
+        this.elements.forEach((el, i) => { if (el.id != null) indexById.set(el.id, i); });
         
-        // Extra safety: never drop image elements that still have src data
-        currentMap.forEach((el, id) => {
-            if (el.type === 'image' && el.src && !merged.has(id)) {
-                merged.set(id, el);
+        let changed = false;
+        const removed = new Set();
+        serverElements.forEach(serverEl => {
+            if (serverEl.id == null) return;
+            const idx = indexById.get(serverEl.id);
+            const localEl = idx !== undefined ? this.elements[idx] : null;
+            if (localEl && !this._serverWins(serverEl, localEl)) return;
+            
+            if (serverEl.isDeleted) {
+                if (localEl) removed.add(serverEl.id);
+                this.savedElements.delete(serverEl.id);
+                this.localElements.delete(serverEl.id);
+            } else {
+                if (localEl) {
+                    // Обновляем на месте: на объект могут ссылаться выделение и перетаскивание
+                    Object.keys(localEl).forEach(key => { if (!(key in serverEl)) delete localEl[key]; });
+                    Object.assign(localEl, serverEl);
+                } else {
+                    indexById.set(serverEl.id, this.elements.length);
+                    this.elements.push(serverEl);
+                }
+                this.savedElements.set(serverEl.id, {
+                    json: this._elementJson(serverEl),
+                    version: serverEl.version || 0
+                });
             }
+            changed = true;
         });
         
-        this.elements = Array.from(merged.values());
+        if (removed.size > 0) {
+            this.elements = this.elements.filter(el => !removed.has(el.id));
+        }
+        return changed;
     }
     
     async saveBoardState() {
@@ -2402,26 +2502,30 @@ class Whiteboard {
             return;
         }
         
-        const boardData = JSON.stringify({
-            elements: this.elements,
-            appState: {
-                currentTool: this.currentTool,
-                strokeColor: this.strokeColor,
-                fillColor: this.fillColor,
-                strokeWidth: this.strokeWidth
-            }
-        });
+        const appState = {
+            currentTool: this.currentTool,
+            strokeColor: this.strokeColor,
+            fillColor: this.fillColor,
+            strokeWidth: this.strokeWidth
+        };
+        const appStateJson = JSON.stringify(appState);
+        const appStateChanged = appStateJson !== this.savedAppState;
         
-        if (this.lastSavedData === boardData) return;
+        const { operations, pending } = this._collectOperations();
+        if (operations.length === 0 && !appStateChanged) return;
         
         this.isSaving = true;
         this.pendingSave = false;
         
         try {
-            const response = await fetch(`/whiteboard/api/state/${this.lessonId}`, {
+            const response = await fetch(`/whiteboard/api/ops/${this.lessonId}`, {
                 method: 'POST',
                 headers: { 'Content-Type': 'application/json' },
-                body: JSON.stringify({ boardData, version: this.lastSyncedVersion })
+                body: JSON.stringify({
+                    operations,
+                    appState: appStateChanged ? appState : null,
+                    since: this.lastSyncedVersion
+                })
             });
             
             if (!response.ok) {
@@ -2432,15 +2536,24 @@ class Whiteboard {
             
             const data = await response.json();
             if (data.success) {
-                this.lastSyncedVersion = data.version || this.lastSyncedVersion;
-                this.lastSavedData = boardData;
-                const savedElements = JSON.parse(boardData).elements || [];
-                savedElements.forEach(el => { if (el.id) this.localElements.delete(el.id); });
+                pending.forEach(p => {
+                    if (p.deleted) {
+                        this.savedElements.delete(p.id);
+                    } else {
+                        this.savedElements.set(p.id, { json: p.json, version: p.version });
+                    }
+                    this.localElements.delete(p.id);
+                });
+                if (appStateChanged) this.savedAppState = appStateJson;
+                // Сервер вернул только то, чего у нас нет (изменения собеседника)
+                if (this._applyServerElements(data.elements)) {
+                    this._storeImageSrcs();
+                    this.preloadImages();
+                    this.requestRedraw();
+                }
+                if (data.version) this.lastSyncedVersion = data.version;
             } else {
                 console.error('Ошибка сохранения доски:', data.message);
-                if (data.message && data.message.includes("версия")) {
-                    await this.syncBoardState();
-                }
             }
         } catch (error) {
             console.error('Ошибка сохранения доски:', error);
@@ -2463,7 +2576,7 @@ class Whiteboard {
             if (data.success && data.boardData) {
                 try {
                     const boardData = JSON.parse(data.boardData);
-                    const loadedElements = boardData.elements || [];
+                    const loadedElements = (boardData.elements || []).filter(el => !el.isDeleted);
                     const now = Date.now();
                     loadedElements.forEach(el => { if (!el.timestamp) el.timestamp = now - 1000000; });
                     
@@ -2479,11 +2592,7 @@ class Whiteboard {
                     this.lastSyncedVersion = data.version || 0;
                     this.lastSyncTime = Date.now();
                     this.localElements.clear();
-                    
-                    this.lastSavedData = JSON.stringify({
-                        elements: this.elements,
-                        appState: boardData.appState || {}
-                    });
+                    this._rememberSaved(loadedElements, boardData.appState);
                     
                     this._storeImageSrcs();
                     this.saveToHistory();
@@ -0,0 +1,181 @@
+package com.example.brainify.Service;
+
+import com.example.brainify.Model.ChatConversation;
+import com.example.brainify.Repository.ChatConversationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.OngoingStubbing;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Отметки прочтения, события новых сообщений и подсветка поиска чата. Запись отметок вызывается напрямую (flushReadMarks),
+ * планировщик не запускается; вне транзакции события уходят сразу.
+ */
+class ChatServiceTest {
+
+    private static final Long READER_ID = 1L;
+    private static final Long PARTNER_ID = 2L;
+
+    private final List<Message<?>> sent = new ArrayList<>();
+    private ChatConversationRepository conversations;
+    private ChatService service;
+
+    @BeforeEach
+    void setUp() {
+        conversations = mock(ChatConversationRepository.class);
+        service = new ChatService();
+        ReflectionTestUtils.setField(service, "chatConversationRepository", conversations);
+        ReflectionTestUtils.setField(service, "messagingTemplate", new SimpMessagingTemplate((message, timeout) -> {
+            sent.add(message);
+            return true;
+        }));
+    }
+
+    @Test
+    void watermarkClampedToLastMessage() {
+        stubConversation(conversation(10L, 4L, 3), conversation(10L, 10L, 0));
+
+        service.markAsRead(PARTNER_ID, READER_ID, 1_000L);
+        service.flushReadMarks();
+
+        verify(conversations).advanceReadWatermark(READER_ID, PARTNER_ID, 10L);
+        Map<?, ?> receipt = event(PARTNER_ID, "read");
+        assertEquals(10L, receipt.get("upToId"));
+    }
+
+    @Test
+    void watermarkBelowCurrentIgnored() {
+        stubConversation(conversation(10L, 8L, 0));
+
+        service.markAsRead(PARTNER_ID, READER_ID, 5L);
+        service.flushReadMarks();
+
+        verify(conversations, never()).advanceReadWatermark(anyLong(), anyLong(), anyLong());
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    void unreadDeltaTakenFromStoredCounters() {
+        stubConversation(conversation(10L, 4L, 5), conversation(10L, 7L, 2));
+
+        service.markAsRead(PARTNER_ID, READER_ID, 7L);
+        service.flushReadMarks();
+
+        Map<?, ?> unread = event(READER_ID, "unread");
+        assertEquals(PARTNER_ID, unread.get("contactId"));
+        assertEquals(-3, unread.get("delta"));
+    }
+
+    @Test
+    void marksCoalescedIntoOneUpdate() {
+        stubConversation(conversation(10L, 0L, 3), conversation(10L, 9L, 1));
+
+        service.markAsRead(PARTNER_ID, READER_ID, 6L);
+        service.markAsRead(PARTNER_ID, READER_ID, 9L);
+        service.markAsRead(PARTNER_ID, READER_ID, 7L);
+        service.flushReadMarks();
+        service.flushReadMarks();
+
+        verify(conversations, times(1)).advanceReadWatermark(anyLong(), anyLong(), anyLong());
+        verify(conversations).advanceReadWatermark(READER_ID, PARTNER_ID, 9L);
+    }
+
+    @Test
+    void failedWriteRetriedOnNextFlush() {
+        stubConversation(conversation(10L, 0L, 3));
+        when(conversations.advanceReadWatermark(READER_ID, PARTNER_ID, 6L))
+                .thenThrow(new RuntimeException("соединение потеряно"))
+                .thenReturn(1);
+
+        service.markAsRead(PARTNER_ID, READER_ID, 6L);
+        service.flushReadMarks();
+        service.flushReadMarks();
+
+        verify(conversations, times(2)).advanceReadWatermark(READER_ID, PARTNER_ID, 6L);
+    }
+
+    @Test
+    void newMessageAddsUnreadOnlyForReceiver() {
+        Map<String, Object> message = Map.of("id", 11L);
+
+        ReflectionTestUtils.invokeMethod(service, "notifyNewMessage", message, PARTNER_ID, READER_ID);
+
+        assertEquals(2, sent.size());
+        assertEquals(1, event(READER_ID, "message").get("unreadDelta"));
+        assertEquals(0, event(PARTNER_ID, "message").get("unreadDelta"));
+    }
+
+    @Test
+    void messageToSelfAddsNoUnread() {
+        Map<String, Object> message = Map.of("id", 12L);
+
+        ReflectionTestUtils.invokeMethod(service, "notifyNewMessage", message, READER_ID, READER_ID);
+
+        assertEquals(1, sent.size());
+        assertEquals(0, event(READER_ID, "message").get("unreadDelta"));
+    }
+
+    @Test
+    void highlightEscapesHeadlineBeforeMarking() {
+        String headline = "<b>\u0001урок\u0002</b> & \"\u0001ДЗ\u0002\"";
+
+        String html = ReflectionTestUtils.invokeMethod(ChatService.class, "highlightToHtml", headline);
+
+        assertEquals("&lt;b&gt;<mark>урок</mark>&lt;/b&gt; &amp; &quot;<mark>ДЗ</mark>&quot;", html);
+    }
+
+    @Test
+    void highlightOfMissingHeadlineIsEmpty() {
+        assertEquals("", ReflectionTestUtils.invokeMethod(ChatService.class, "highlightToHtml", (String) null));
+    }
+
+    private void stubConversation(ChatConversation first, ChatConversation... next) {
+        OngoingStubbing<Optional<ChatConversation>> stubbing =
+                when(conversations.findByUserLowIdAndUserHighId(READER_ID, PARTNER_ID)).thenReturn(Optional.of(first));
+        for (ChatConversation conversation : next) {
+            stubbing = stubbing.thenReturn(Optional.of(conversation));
+        }
+    }
+
+    /**
+     * Переписка, в которой читатель — участник с меньшим ID
+     */
+    private static ChatConversation conversation(Long lastMessageId, Long readerWatermark, int readerUnread) {
+        ChatConversation conversation = new ChatConversation();
+        conversation.setUserLowId(READER_ID);
+        conversation.setUserHighId(PARTNER_ID);
+        conversation.setLastMessageId(lastMessageId);
+        conversation.setReadLowId(readerWatermark);
+        conversation.setUnreadLow(readerUnread);
+        conversation.setUnreadHigh(0);
+        return conversation;
+    }
+
+    private Map<?, ?> event(Long userId, String type) {
+        for (Message<?> message : sent) {
+            Map<?, ?> payload = (Map<?, ?>) message.getPayload();
+            if (("/user/" + userId + ChatService.CHAT_QUEUE).equals(SimpMessageHeaderAccessor.getDestination(message.getHeaders()))
+                    && type.equals(payload.get("type"))) {
+                return payload;
+            }
+        }
+        throw new AssertionError("Нет события " + type + " для пользователя " + userId + ": " + sent);
+    }
+}
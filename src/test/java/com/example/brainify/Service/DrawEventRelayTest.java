@@ -0,0 +1,178 @@
+package com.example.brainify.Service;
+
+import com.example.brainify.Utils.StrokePointCodec;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Пачки событий рисования. Такт вызывается напрямую (flushAll), планировщик не запускается.
+ */
+class DrawEventRelayTest {
+
+    private static final Long LESSON_ID = 7L;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<Message<?>> sent = new ArrayList<>();
+    private DrawEventRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        relay = new DrawEventRelay();
+        ReflectionTestUtils.setField(relay, "objectMapper", mapper);
+        ReflectionTestUtils.setField(relay, "messagingTemplate", new SimpMessagingTemplate((message, timeout) -> {
+            sent.add(message);
+            return true;
+        }));
+    }
+
+    @Test
+    void progressEventsWaitForTick() {
+        relay.relay(LESSON_ID, "s1", event("{\"type\":\"path-progress\",\"points\":[{\"x\":1,\"y\":2}]}"));
+        relay.relay(LESSON_ID, "s2", event("{\"type\":\"path-progress\",\"points\":[{\"x\":3,\"y\":4}]}"));
+        assertTrue(sent.isEmpty());
+
+        tick();
+
+        assertEquals(1, sent.size());
+        assertEquals("/topic/whiteboard/" + LESSON_ID, SimpMessageHeaderAccessor.getDestination(sent.get(0).getHeaders()));
+        JsonNode batch = payload(0);
+        assertEquals("progress-batch", batch.get("type").asText());
+        assertEquals(2, batch.get("events").size());
+        assertEquals(3, batch.get("events").get(1).get("points").get(0).get("x").asInt());
+
+        tick();
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    void shapeProgressKeepsLatestPerSession() {
+        relay.relay(LESSON_ID, "s1", event("{\"type\":\"shape-progress\",\"width\":10}"));
+        relay.relay(LESSON_ID, "s2", event("{\"type\":\"shape-progress\",\"width\":50}"));
+        relay.relay(LESSON_ID, "s1", event("{\"type\":\"shape-progress\",\"width\":20}"));
+
+        tick();
+
+        JsonNode events = payload(0).get("events");
+        assertEquals(2, events.size());
+        assertEquals(20, events.get(0).get("width").asInt());
+        assertEquals(50, events.get(1).get("width").asInt());
+    }
+
+    @Test
+    void finalEventFlushesPendingProgressFirst() {
+        relay.relay(LESSON_ID, "s1", event("{\"type\":\"path-progress\",\"points\":[]}"));
+        relay.relay(LESSON_ID, "s1", event("{\"type\":\"draw-done\",\"element\":{\"id\":\"a\"}}"));
+
+        assertEquals(1, sent.size());
+        JsonNode batch = payload(0);
+        assertEquals("batch", batch.get("type").asText());
+        assertEquals("path-progress", batch.get("events").get(0).get("type").asText());
+        assertEquals("draw-done", batch.get("events").get(1).get("type").asText());
+
+        tick();
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    void singleEventIsSentAsIs() {
+        byte[] erase = event("{\"type\":\"erase\",\"ids\":[\"a\"]}");
+
+        relay.relay(LESSON_ID, "s1", erase);
+
+        assertEquals(1, sent.size());
+        assertArrayEquals(erase, (byte[]) sent.get(0).getPayload());
+    }
+
+    @Test
+    void invalidPayloadIsDropped() {
+        relay.relay(LESSON_ID, "s1", event("{\"type\":\"path-progress\",\"points\":["));
+        relay.relay(LESSON_ID, "s1", event("{\"type\":\"draw-done\"}{}"));
+        relay.relay(LESSON_ID, "s1", event("[1,2]"));
+
+        tick();
+
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    void packedPointsUnpackedForPlainSubscriber() {
+        relay.onSubscribe(subscribe("s2", null));
+        String packed = StrokePointCodec.encode(new double[] {1.5, 2.5, 3.0, 4.0});
+
+        relay.relay(LESSON_ID, "s1", event("{\"type\":\"path-progress\",\"packed\":\"" + packed + "\"}"));
+        tick();
+
+        JsonNode event = payload(0);
+        assertNull(event.get("packed"));
+        assertEquals(2, event.get("points").size());
+        assertEquals(1.5, event.get("points").get(0).get("x").asDouble());
+        assertEquals(4.0, event.get("points").get(1).get("y").asDouble());
+    }
+
+    @Test
+    void packedPointsKeptForPackedSubscribers() {
+        relay.onSubscribe(subscribe("s2", DrawEventRelay.ENCODING_PACKED));
+        String packed = StrokePointCodec.encode(new double[] {1.5, 2.5});
+
+        relay.relay(LESSON_ID, "s1", event("{\"type\":\"path-progress\",\"packed\":\"" + packed + "\"}"));
+        tick();
+
+        JsonNode event = payload(0);
+        assertEquals(packed, event.get("packed").asText());
+        assertFalse(event.has("points"));
+    }
+
+    @Test
+    void eventTypeReadFromPrefix() {
+        assertEquals("path-progress", DrawEventRelay.eventType(event("{\"type\":\"path-progress\",\"points\":[]}")));
+        assertNull(DrawEventRelay.eventType(event("{\"points\":[],\"type\":\"path-progress\"}")));
+        assertNull(DrawEventRelay.eventType(event("{\"type\":\"")));
+    }
+
+    private void tick() {
+        ReflectionTestUtils.invokeMethod(relay, "flushAll");
+    }
+
+    private SessionSubscribeEvent subscribe(String sessionId, String encoding) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination("/topic/whiteboard/" + LESSON_ID);
+        if (encoding != null) {
+            accessor.setNativeHeader(DrawEventRelay.ENCODING_HEADER, encoding);
+        }
+        return new SessionSubscribeEvent(this, MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private JsonNode payload(int index) {
+        try {
+            return mapper.readTree((byte[]) sent.get(index).getPayload());
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] event(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.brainify.Service;
+
+import com.example.brainify.Model.BoardOperation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LiveBoardTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void higherVersionWins() {
+        LiveBoard board = board(element("a", 2, 5));
+
+        board.mergeDocument(document(element("a", 3, 9)));
+        assertEquals(3, stored(board, "a").get("version").asLong());
+
+        board.mergeDocument(document(element("a", 1, 0)));
+        assertEquals(3, stored(board, "a").get("version").asLong());
+    }
+
+    @Test
+    void equalVersionsResolvedByLowerNonce() {
+        LiveBoard board = board(element("a", 2, 5));
+
+        board.mergeDocument(document(element("a", 2, 7)));
+        assertEquals(5, stored(board, "a").get("versionNonce").asLong());
+
+        board.mergeDocument(document(element("a", 2, 1)));
+        assertEquals(1, stored(board, "a").get("versionNonce").asLong());
+    }
+
+    @Test
+    void mergeReturnsElementsClientIsMissing() {
+        LiveBoard board = board(element("a", 1, 0), element("b", 4, 0));
+
+        // У клиента устаревший b и нет c на сервере; a совпадает
+        board.apply(List.of(upsert("c", 1)));
+        LiveBoard.MergeResult result = board.mergeDocument(document(element("a", 1, 0), element("b", 2, 0)));
+
+        Set<String> missing = result.getElements().stream()
+                .map(element -> element.get("id").asText())
+                .collect(Collectors.toSet());
+        assertEquals(Set.of("b", "c"), missing);
+        assertEquals(4, stored(board, "b").get("version").asLong());
+    }
+
+    @Test
+    void absentElementIsNotDeleted() {
+        LiveBoard board = board(element("a", 1, 0), element("b", 1, 0));
+
+        board.mergeDocument(document(element("a", 2, 0)));
+
+        assertFalse(stored(board, "b").path("isDeleted").asBoolean(false));
+    }
+
+    @Test
+    void deleteLeavesTombstone() {
+        LiveBoard board = board(element("a", 1, 0));
+
+        Set<String> accepted = board.apply(List.of(delete("a", 2)));
+
+        assertEquals(Set.of("a"), accepted);
+        JsonNode tombstone = stored(board, "a");
+        assertTrue(tombstone.get("isDeleted").asBoolean());
+        assertEquals(2, tombstone.get("version").asLong());
+    }
+
+    @Test
+    void staleClientDoesNotResurrectDeletedElement() {
+        LiveBoard board = board(element("a", 1, 0));
+        board.apply(List.of(delete("a", 2)));
+        long version = board.getVersion();
+
+        board.mergeDocument(document(element("a", 2, 0)));
+        assertTrue(board.apply(List.of(upsert("a", 1))).isEmpty());
+
+        assertTrue(stored(board, "a").get("isDeleted").asBoolean());
+        assertEquals(version, board.getVersion());
+    }
+
+    @Test
+    void newerEditWinsOverTombstone() {
+        LiveBoard board = board(element("a", 1, 0));
+        board.apply(List.of(delete("a", 2)));
+
+        board.mergeDocument(document(element("a", 3, 0)));
+
+        assertFalse(stored(board, "a").path("isDeleted").asBoolean(false));
+    }
+
+    @Test
+    void clearTombstonesEveryElement() {
+        LiveBoard board = board(element("a", 1, 0), element("b", 5, 0));
+
+        board.clear();
+
+        for (String id : List.of("a", "b")) {
+            assertTrue(stored(board, id).get("isDeleted").asBoolean());
+        }
+        assertEquals(6, stored(board, "b").get("version").asLong());
+    }
+
+    @Test
+    void unchangedAppStateKeepsVersion() {
+        LiveBoard board = board(element("a", 1, 0));
+        ObjectNode document = document(element("a", 1, 0));
+        document.putObject("appState").put("zoom", 1.0);
+        board.mergeDocument(document);
+        long version = board.getVersion();
+        board.takeSnapshot();
+
+        board.mergeDocument(document.deepCopy());
+
+        assertEquals(version, board.getVersion());
+        assertNull(board.takeSnapshot());
+    }
+
+    @Test
+    void changesSinceReturnsOnlyLaterChanges() {
+        LiveBoard board = board(element("a", 1, 0), element("b", 1, 0));
+        board.apply(List.of(upsert("a", 2)));
+        long since = board.getVersion();
+        board.apply(List.of(upsert("b", 2)));
+
+        List<JsonNode> changes = board.changesSince(since, Collections.emptySet()).getElements();
+
+        assertEquals(1, changes.size());
+        assertEquals("b", changes.get(0).get("id").asText());
+    }
+
+    private LiveBoard board(ObjectNode... elements) {
+        return new LiveBoard(1L, 1L, document(elements), 1L, mapper);
+    }
+
+    private ObjectNode document(ObjectNode... elements) {
+        ObjectNode document = mapper.createObjectNode();
+        document.putArray("elements").addAll(List.of(elements));
+        return document;
+    }
+
+    private ObjectNode element(String id, long version, long nonce) {
+        ObjectNode element = mapper.createObjectNode();
+        element.put("id", id);
+        element.put("type", "rectangle");
+        element.put("version", version);
+        element.put("versionNonce", nonce);
+        return element;
+    }
+
+    private BoardOperation upsert(String id, long version) {
+        return new BoardOperation(1L, BoardOperation.OpType.UPSERT, id, version, element(id, version, 0).toString());
+    }
+
+    private BoardOperation delete(String id, long version) {
+        return new BoardOperation(1L, BoardOperation.OpType.DELETE, id, version, null);
+    }
+
+    private JsonNode stored(LiveBoard board, String id) {
+        try {
+            Map<String, JsonNode> byId = new HashMap<>();
+            for (JsonNode element : mapper.readTree(board.getBoardData()).get("elements")) {
+                byId.put(element.get("id").asText(), element);
+            }
+            return byId.get(id);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
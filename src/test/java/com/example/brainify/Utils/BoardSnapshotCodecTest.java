@@ -0,0 +1,67 @@
+package com.example.brainify.Utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoardSnapshotCodecTest {
+
+    private static final String BOARD =
+            "{\"elements\":[{\"id\":\"a\",\"type\":\"text\",\"text\":\"Задача №3: 2x + 3 = 7\"}],\"appState\":{}}";
+
+    @Test
+    void roundTrip() {
+        byte[] snapshot = BoardSnapshotCodec.encode(BOARD);
+
+        assertTrue(BoardSnapshotCodec.isSnapshot(snapshot));
+        assertEquals(BoardSnapshotCodec.FORMAT_GZIP_JSON, snapshot[2]);
+        assertEquals(BOARD, BoardSnapshotCodec.decode(snapshot));
+    }
+
+    @Test
+    void roundTripLargeBoard() {
+        StringBuilder board = new StringBuilder("{\"elements\":[");
+        for (int i = 0; i < 5000; i++) {
+            board.append(i > 0 ? "," : "").append("{\"id\":").append(i).append(",\"type\":\"path\"}");
+        }
+        String json = board.append("],\"appState\":{}}").toString();
+
+        byte[] snapshot = BoardSnapshotCodec.encode(json);
+
+        assertTrue(snapshot.length < json.length() / 4);
+        assertEquals(json, BoardSnapshotCodec.decode(snapshot));
+    }
+
+    @Test
+    void rejectsPlainJson() {
+        byte[] json = BOARD.getBytes();
+
+        assertFalse(BoardSnapshotCodec.isSnapshot(json));
+        assertFalse(BoardSnapshotCodec.isSnapshot(null));
+        assertThrows(IllegalArgumentException.class, () -> BoardSnapshotCodec.decode(json));
+    }
+
+    @Test
+    void rejectsUnknownFormat() {
+        byte[] snapshot = BoardSnapshotCodec.encode(BOARD);
+        snapshot[2] = 9;
+
+        assertThrows(IllegalArgumentException.class, () -> BoardSnapshotCodec.decode(snapshot));
+    }
+
+    @Test
+    void rejectsTruncatedSnapshot() {
+        byte[] snapshot = BoardSnapshotCodec.encode(BOARD);
+
+        assertThrows(UncheckedIOException.class,
+                () -> BoardSnapshotCodec.decode(Arrays.copyOf(snapshot, snapshot.length - 12)));
+        assertThrows(IllegalArgumentException.class,
+                () -> BoardSnapshotCodec.decode(Arrays.copyOf(snapshot, 3)));
+    }
+}
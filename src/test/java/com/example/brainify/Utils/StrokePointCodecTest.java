@@ -0,0 +1,98 @@
+package com.example.brainify.Utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StrokePointCodecTest {
+
+    @Test
+    void roundTrip() {
+        double[] coords = {120.5, 80.2, 121.0, 79.9, 118.3, 85.0, -4.5, -0.1, 0.0, 0.0};
+
+        assertArrayEquals(coords, StrokePointCodec.decode(StrokePointCodec.encode(coords)), 1e-9);
+    }
+
+    @Test
+    void quantizesToScale() {
+        double[] decoded = StrokePointCodec.decode(StrokePointCodec.encode(new double[] {10.04, 10.06}));
+
+        assertArrayEquals(new double[] {10.0, 10.1}, decoded, 1e-9);
+    }
+
+    @Test
+    void roundTripLargeJumps() {
+        double[] coords = {0, 0, 1_000_000.5, -2_000_000.5, -1_000_000.5, 3_000_000.5};
+
+        assertArrayEquals(coords, StrokePointCodec.decode(StrokePointCodec.encode(coords)), 1e-9);
+    }
+
+    @Test
+    void emptyStroke() {
+        String packed = StrokePointCodec.encode(new double[0]);
+
+        assertEquals(0, StrokePointCodec.decode(packed).length);
+    }
+
+    @Test
+    void encodesAsUrlSafeBase64WithoutPadding() {
+        double[] coords = new double[200];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = i * 37.3 - 900;
+        }
+
+        String packed = StrokePointCodec.encode(coords);
+
+        assertEquals(-1, indexOfAny(packed, "+/="));
+    }
+
+    @Test
+    void rejectsOddCoordinateCount() {
+        assertThrows(IllegalArgumentException.class, () -> StrokePointCodec.encode(new double[] {1, 2, 3}));
+    }
+
+    @Test
+    void rejectsUnknownFormat() {
+        assertThrows(IllegalArgumentException.class, () -> StrokePointCodec.decode(packed(2, 0, 0)));
+        assertThrows(IllegalArgumentException.class, () -> StrokePointCodec.decode(""));
+    }
+
+    @Test
+    void rejectsTruncatedInput() {
+        // Обрыв внутри varint и точка без второй координаты
+        assertThrows(IllegalArgumentException.class, () -> StrokePointCodec.decode(packed(1, 0x80)));
+        assertThrows(IllegalArgumentException.class, () -> StrokePointCodec.decode(packed(1, 2)));
+    }
+
+    @Test
+    void rejectsOverlongVarint() {
+        int[] bytes = new int[12];
+        bytes[0] = 1;
+        for (int i = 1; i < bytes.length; i++) {
+            bytes[i] = 0xFF;
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> StrokePointCodec.decode(packed(bytes)));
+    }
+
+    private static String packed(int... bytes) {
+        byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = (byte) bytes[i];
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+    }
+
+    private static int indexOfAny(String value, String chars) {
+        for (int i = 0; i < value.length(); i++) {
+            if (chars.indexOf(value.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}